@@ -0,0 +1,196 @@
+package com.honu.dicecast;
+
+import android.annotation.TargetApi;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import com.honu.dicecast.core.AxisThresholdDetector;
+import com.honu.dicecast.core.ShakeDetector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Frame times while tapping out rolls, with shake detection on the sensor thread as shipped and
+ * with the accelerometer also delivered to and filtered on the main looper, as it was before
+ * detection moved off it. Frame durations come from FrameMetrics (API 24 and up); the 50th, 90th
+ * and 99th percentile and the share of frames over one refresh period are logged and reported in
+ * the instrumentation status, e.g. with
+ * ./gradlew :app:connectedAndroidTest
+ * <p/>
+ * The accelerometer delivers samples whether the phone moves or not, so the device can lie on a
+ * table while the test runs.
+ */
+@RunWith(AndroidJUnit4.class)
+@TargetApi(Build.VERSION_CODES.N)
+public class FrameTimeTest {
+
+    private static final String TAG = FrameTimeTest.class.getSimpleName();
+
+    // Length of each measurement and time between rolls
+    private static final long PHASE_MS = 5000;
+    private static final long ROLL_INTERVAL_MS = 50;
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule = new ActivityTestRule<MainActivity>(MainActivity.class);
+
+    @Test
+    public void frameTimesOffAndOnMainLooper() throws Exception {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
+        MainActivity activity = activityRule.getActivity();
+        long refreshNanos = (long) (1e9 / activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+
+        long[] sensorThread = measure(activity);
+
+        // the filtering DiceShaker used to do in onSensorChanged on the main looper
+        SensorManager sensorManager = (SensorManager) activity.getSystemService(Context.SENSOR_SERVICE);
+        SensorEventListener mainLooperDetection = new SensorEventListener() {
+            private final ShakeDetector detector = new AxisThresholdDetector();
+
+            @Override
+            public void onSensorChanged(SensorEvent event) {
+                detector.onSample(event.timestamp, event.values[0], event.values[1], event.values[2]);
+            }
+
+            @Override
+            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            }
+        };
+        sensorManager.registerListener(
+              mainLooperDetection,
+              sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
+              SensorManager.SENSOR_DELAY_UI);
+        long[] mainLooper;
+        try {
+            mainLooper = measure(activity);
+        } finally {
+            sensorManager.unregisterListener(mainLooperDetection);
+        }
+
+        Bundle results = new Bundle();
+        report("sensor_thread", sensorThread, refreshNanos, results);
+        report("main_looper", mainLooper, refreshNanos, results);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+
+        assertTrue("no frames drawn", sensorThread.length > 0 && mainLooper.length > 0);
+    }
+
+    // total duration of every frame drawn while rolling for PHASE_MS, sorted
+    private static long[] measure(final MainActivity activity) throws InterruptedException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        HandlerThread metricsThread = new HandlerThread(TAG);
+        metricsThread.start();
+
+        final Frames frames = new Frames();
+        final Window.OnFrameMetricsAvailableListener listener = new Window.OnFrameMetricsAvailableListener() {
+            @Override
+            public void onFrameMetricsAvailable(Window window, FrameMetrics metrics, int dropped) {
+                frames.add(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+            }
+        };
+        final Handler metricsHandler = new Handler(metricsThread.getLooper());
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.getWindow().addOnFrameMetricsAvailableListener(listener, metricsHandler);
+            }
+        });
+
+        Runnable tap = new Runnable() {
+            @Override
+            public void run() {
+                activity.findViewById(R.id.root_layout).performClick();
+            }
+        };
+        long end = SystemClock.uptimeMillis() + PHASE_MS;
+        while (SystemClock.uptimeMillis() < end) {
+            instrumentation.runOnMainSync(tap);
+            Thread.sleep(ROLL_INTERVAL_MS);
+        }
+        instrumentation.waitForIdleSync();
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.getWindow().removeOnFrameMetricsAvailableListener(listener);
+            }
+        });
+        metricsThread.quitSafely();
+        metricsThread.join();
+        return frames.sorted();
+    }
+
+    private static void report(String name, long[] sorted, long refreshNanos, Bundle results) {
+        int janky = 0;
+        for (long duration : sorted) {
+            if (duration > refreshNanos) {
+                janky++;
+            }
+        }
+        double p50 = percentile(sorted, 0.50);
+        double p90 = percentile(sorted, 0.90);
+        double p99 = percentile(sorted, 0.99);
+        double jankyPercent = sorted.length == 0 ? 0 : 100.0 * janky / sorted.length;
+
+        results.putInt(name + "_frames", sorted.length);
+        results.putDouble(name + "_p50_ms", p50);
+        results.putDouble(name + "_p90_ms", p90);
+        results.putDouble(name + "_p99_ms", p99);
+        results.putDouble(name + "_janky_percent", jankyPercent);
+        Log.i(TAG, String.format(Locale.US, "%s: %d frames, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, janky %.1f%%",
+              name, sorted.length, p50, p90, p99, jankyPercent));
+    }
+
+    // in milliseconds
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sorted.length - 1, (int) (fraction * sorted.length));
+        return sorted[index] / 1e6;
+    }
+
+    /**
+     * Frame durations, added on the metrics thread and read once it stopped.
+     */
+    private static class Frames {
+
+        private long[] durations = new long[512];
+        private int count;
+
+        synchronized void add(long duration) {
+            if (count == durations.length) {
+                durations = Arrays.copyOf(durations, 2 * count);
+            }
+            durations[count++] = duration;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(durations, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.honu.dicecast;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Launches the activity and taps the dice as soon as the first frame is drawn. The tap must roll
+ * whether or not Cast is set up yet, and Cast must not be set up before the first frame. The
+ * times from launch to the first frame, the first roll drawn and Cast ready are logged and
+ * reported in the instrumentation status, e.g. with
+ * ./gradlew :app:connectedAndroidTest
+ * or adb shell am instrument -w -e class com.honu.dicecast.StartupTest com.honu.dicecast.test/android.support.test.runner.AndroidJUnitRunner
+ * <p/>
+ * The process is already running when the activity is launched, so process start is not
+ * included; the numbers compare builds, not what a user sees from the launcher. Needs Google
+ * Play services for Cast.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupTest {
+
+    private static final String TAG = StartupTest.class.getSimpleName();
+
+    // Longest wait for a milestone
+    private static final long TIMEOUT_MS = 10000;
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule =
+          new ActivityTestRule<MainActivity>(MainActivity.class, false, false);
+
+    @Test
+    public void tapRollsFromFirstFrame() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+        // a first run, no roll to restore and draw before the tap
+        new File(InstrumentationRegistry.getTargetContext().getFilesDir(), "roll.state").delete();
+        StartupTiming.reset();
+
+        long launched = StartupTiming.now();
+        final MainActivity activity = activityRule.launchActivity(null);
+        long firstFrame = await(StartupTiming.FIRST_FRAME);
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.findViewById(R.id.root_layout).performClick();
+            }
+        });
+        long firstRoll = await(StartupTiming.FIRST_ROLL);
+        long castReady = await(StartupTiming.CAST_READY);
+
+        assertTrue("Cast set up before the first frame", castReady >= firstFrame);
+
+        Bundle results = new Bundle();
+        results.putLong("first_frame_ms", firstFrame - launched);
+        results.putLong("first_roll_ms", firstRoll - launched);
+        results.putLong("cast_ready_ms", castReady - launched);
+        Log.i(TAG, "Startup from launch: first frame +" + (firstFrame - launched) + "ms, first roll +"
+              + (firstRoll - launched) + "ms, cast ready +" + (castReady - launched) + "ms");
+        instrumentation.sendStatus(0, results);
+    }
+
+    private static long await(int milestone) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        while (StartupTiming.get(milestone) == 0) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                fail("milestone " + milestone + " not reached in " + TIMEOUT_MS + " ms");
+            }
+            Thread.sleep(5);
+        }
+        return StartupTiming.get(milestone);
+    }
+}
@@ -0,0 +1,73 @@
+package com.honu.dicecast;
+
+import android.util.Log;
+
+import com.google.android.gms.cast.Cast;
+import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.framework.CastSession;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+
+import com.honu.dicecast.core.RollTransport;
+
+import java.io.IOException;
+
+/**
+ * Sends and receives channel messages through the current Cast session. Results and messages
+ * arrive on the main thread.
+ */
+class CastTransport implements RollTransport, Cast.MessageReceivedCallback {
+
+    private static final String TAG = CastTransport.class.getSimpleName();
+
+    private CastSession session;
+    private String namespace;
+    private Receiver receiver;
+
+    /**
+     * Use the session for the messages sent from now on.
+     */
+    void setSession(CastSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public void open(String namespace, Receiver receiver) throws IOException {
+        this.namespace = namespace;
+        this.receiver = receiver;
+        session.setMessageReceivedCallbacks(namespace, this);
+    }
+
+    @Override
+    public void send(String message, final int seq, final SendCallback callback) {
+        if (callback == null) {
+            session.sendMessage(namespace, message);
+            return;
+        }
+        session.sendMessage(namespace, message).setResultCallback(
+
+              new ResultCallback<Status>() {
+
+                  @Override
+                  public void onResult(Status result) {
+                      if (!result.isSuccess()) {
+                          Log.e(TAG, "Sending message failed");
+                      }
+                      callback.onSendResult(seq, result.isSuccess());
+                  }
+              });
+    }
+
+    @Override
+    public void close() throws IOException {
+        session.removeMessageReceivedCallbacks(namespace);
+    }
+
+    @Override
+    public void onMessageReceived(CastDevice castDevice, String namespace, String message) {
+        Log.d(TAG, "onMessageReceived: " + message);
+        Perf.begin("receive message");
+        receiver.onMessage(message);
+        Perf.end();
+    }
+}
@@ -0,0 +1,236 @@
+package com.honu.dicecast;
+
+import android.app.Activity;
+import android.graphics.drawable.Drawable;
+import android.support.v4.content.ContextCompat;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.honu.dicecast.core.DiceExpression;
+import com.honu.dicecast.core.LatencyRecorder;
+import com.honu.dicecast.core.PerfCounters;
+import com.honu.dicecast.core.RollSnapshot;
+
+/**
+ * Draws rolls onto the main screen without allocating.
+ * <p/>
+ * Face drawables are decoded once and each die view gets its own drawable sharing the same
+ * bitmap. The "You rolled" and "a + b" texts come from tables built up front. Rolls are
+ * coalesced and applied in one pass at the start of the next frame, and views whose value
+ * did not change are left alone so they are not invalidated or re-laid out.
+ * <p/>
+ * Rolls of other dice expressions hide the dice images and show the total and up to
+ * MAX_SHOWN_DICE dice as text. Rolls of other players at the table are shown the same way with
+ * their player id in place of "You".
+ */
+class DiceRenderer implements Choreographer.FrameCallback {
+
+    // Dice listed under an expression roll
+    private static final int MAX_SHOWN_DICE = 20;
+
+    private final int sides;
+
+    private final ImageView die1View;
+    private final ImageView die2View;
+    private final TextView messageView;
+    private final TextView sumView;
+
+    // Drawables per face, index is face - 1
+    private final Drawable[] die1Faces;
+    private final Drawable[] die2Faces;
+
+    // "You rolled: n", index is the sum
+    private final String[] messages;
+
+    // "a + b", index is (a - 1) * sides + (b - 1)
+    private final String[] sums;
+
+    // Values currently on screen, zero when nothing is shown
+    private int shown1;
+    private int shown2;
+
+    // Latest roll waiting for the next frame and its player, null for this sender's own
+    private RollSnapshot pending;
+    private String pendingPlayer;
+
+    // Player of the roll on screen, null for this sender's own
+    private String shownPlayer;
+    private boolean frameScheduled;
+
+    // Whether the dice images are hidden for an expression roll
+    private boolean showingExpression;
+    private final StringBuilder text = new StringBuilder();
+
+    DiceRenderer(Activity activity, DiceViewModel model, int sides) {
+        this.sides = sides;
+
+        die1View = activity.findViewById(R.id.imageViewDie1);
+        die2View = activity.findViewById(R.id.imageViewDie2);
+        messageView = activity.findViewById(R.id.textMessage);
+        sumView = activity.findViewById(R.id.dice_sum);
+
+        Perf.begin("decode faces");
+        die1Faces = new Drawable[sides];
+        die2Faces = new Drawable[sides];
+        for (int face = 1; face <= sides; face++) {
+            Drawable drawable = ContextCompat.getDrawable(activity, model.getIconDrawable(face));
+            die1Faces[face - 1] = drawable;
+            // a drawable can only have one owner view, the copy shares the decoded bitmap
+            Drawable.ConstantState state = drawable.getConstantState();
+            die2Faces[face - 1] = state != null ? state.newDrawable(activity.getResources()) : drawable;
+        }
+        Perf.COUNTERS.add(PerfCounters.DRAWABLES_DECODED, sides);
+        Perf.end();
+
+        messages = new String[2 * sides + 1];
+        for (int sum = 2; sum <= 2 * sides; sum++) {
+            messages[sum] = String.format("You rolled: %d", sum);
+        }
+
+        sums = new String[sides * sides];
+        for (int a = 1; a <= sides; a++) {
+            for (int b = 1; b <= sides; b++) {
+                sums[(a - 1) * sides + (b - 1)] = String.format("%d + %d", a, b);
+            }
+        }
+    }
+
+    /**
+     * Show a roll on the next frame. Later calls before that frame replace earlier ones.
+     */
+    void show(RollSnapshot roll) {
+        show(roll, null);
+    }
+
+    /**
+     * Show the roll of another player on the next frame.
+     *
+     * @param player the player id, or null for this sender's own roll
+     */
+    void show(RollSnapshot roll, String player) {
+        pending = roll;
+        pendingPlayer = player;
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Drop a pending frame, used when the activity goes away.
+     */
+    void cancel() {
+        if (frameScheduled) {
+            frameScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+
+        RollSnapshot roll = pending;
+        if (roll == null) {
+            return;
+        }
+        Perf.begin("render");
+        render(roll);
+        Perf.end();
+    }
+
+    private void render(RollSnapshot roll) {
+        String player = pendingPlayer;
+        boolean playerChanged = player == null ? shownPlayer != null : !player.equals(shownPlayer);
+        shownPlayer = player;
+
+        if (roll.getExpression() != null) {
+            applyExpression(roll, player);
+            markRendered(player);
+            return;
+        }
+        if (playerChanged) {
+            // the message names someone else now
+            shown1 = 0;
+            shown2 = 0;
+        }
+        if (showingExpression) {
+            // back to the standard dice, every view needs refreshing
+            showingExpression = false;
+            die1View.setVisibility(View.VISIBLE);
+            die2View.setVisibility(View.VISIBLE);
+            shown1 = 0;
+            shown2 = 0;
+        }
+
+        int value1 = roll.getDie1();
+        int value2 = roll.getDie2();
+        if (value1 < 1 || value1 > sides || value2 < 1 || value2 > sides) {
+            return;
+        }
+
+        if (value1 != shown1) {
+            die1View.setImageDrawable(die1Faces[value1 - 1]);
+        }
+        if (value2 != shown2) {
+            die2View.setImageDrawable(die2Faces[value2 - 1]);
+        }
+        if (player != null) {
+            text.setLength(0);
+            text.append(player).append(" rolled: ").append(value1 + value2);
+            messageView.setText(text);
+        } else if (value1 + value2 != shown1 + shown2) {
+            messageView.setText(messages[value1 + value2]);
+        }
+        if (value1 != shown1 || value2 != shown2) {
+            sumView.setText(sums[(value1 - 1) * sides + (value2 - 1)]);
+        }
+        shown1 = value1;
+        shown2 = value2;
+
+        markRendered(player);
+    }
+
+    private void applyExpression(RollSnapshot roll, String player) {
+        DiceExpression expression = roll.getExpression();
+        if (!showingExpression) {
+            showingExpression = true;
+            die1View.setVisibility(View.INVISIBLE);
+            die2View.setVisibility(View.INVISIBLE);
+        }
+
+        text.setLength(0);
+        text.append(player != null ? player : "You").append(" rolled ").append(expression.getNotation()).append(": ").append(roll.getTotal());
+        messageView.setText(text);
+
+        text.setLength(0);
+        // rolls of other players list only the first dice
+        int count = Math.min(roll.getDiceCount(), MAX_SHOWN_DICE);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append("  ");
+            }
+            text.append(roll.getDie(i));
+        }
+        if (count < expression.getDiceCount()) {
+            text.append("  \u2026");
+        }
+        sumView.setText(text);
+    }
+
+    private static void markRendered(String player) {
+        if (player != null) {
+            // only this sender's rolls are timed
+            return;
+        }
+        StartupTiming.mark(StartupTiming.FIRST_ROLL);
+        LatencyRecorder latency = RollLatency.RECORDER;
+        latency.mark(latency.currentRoll(), LatencyRecorder.STAGE_RENDERED, RollLatency.now());
+    }
+}
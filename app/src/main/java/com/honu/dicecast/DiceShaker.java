@@ -3,112 +3,422 @@ package com.honu.dicecast;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
 
-public class DiceShaker implements SensorEventListener {
+import com.honu.dicecast.core.AdaptiveSampling;
+import com.honu.dicecast.core.AxisThresholdDetector;
+import com.honu.dicecast.core.PerfCounters;
+import com.honu.dicecast.core.SampleBatch;
+import com.honu.dicecast.core.ShakeDetector;
+import com.honu.dicecast.core.TraceWriter;
 
-    private static final String TAG = DiceShaker.class.getSimpleName();
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 
-    // Minimum acceleration needed to register as a shake
-//    private static final int MIN_ACCELERATION = 5;
-    private static final int MIN_ACCELERATION = 6;
+/**
+ * Accelerometer listener that detects shakes on a background thread.
+ * <p/>
+ * Sensor events are delivered to and filtered on a dedicated HandlerThread so the UI looper only
+ * sees confirmed shakes, which are posted to the listener on the main thread.
+ * <p/>
+ * When the accelerometer has a hardware FIFO (API 19+) the listener is registered in batched
+ * mode: the sensor hub holds samples for up to MAX_REPORT_LATENCY_US and delivers them together,
+ * waking the CPU once per batch. Each delivered batch is processed in timestamp order, and the
+ * pause between shakes is measured on sample timestamps, so detection is unchanged apart from
+ * the added delivery delay.
+ * <p/>
+ * In adaptive mode, off unless enabled, the accelerometer is sampled at the idle rate of {@link AdaptiveSampling}
+ * while the phone lies still and at SENSOR_DELAY_UI once it moves. The rate is changed by
+ * registering a second listener at the new rate before unregistering the first, so samples
+ * keep coming while a shake starts; samples delivered to both listeners are dropped as repeats
+ * and the detector carries on as if nothing happened.
+ * <p/>
+ * Samples, the time spent on them, shakes and debounced samples are counted in
+ * {@link Perf#COUNTERS} from the sensor thread.
+ */
+public class DiceShaker implements SensorEventListener {
 
-    // Minimum number of movements to register as a shake
-//    private static final int MIN_MOVEMENTS = 3;
-    private static final int MIN_MOVEMENTS = 3;
+    private static final String TAG = DiceShaker.class.getSimpleName();
 
-    // Indexes for x, y, and z valuesadb
+    // Indexes for x, y, and z values
     private static final int X = 0;
     private static final int Y = 1;
     private static final int Z = 2;
 
-    // Initialized to -1 to suppress the very first event when values are initialized
-    int moveCount = -1;
+    // Longest time the sensor hub may hold samples before delivering them (in microseconds)
+    private static final int MAX_REPORT_LATENCY_US = 200000;
+
+    // Filtering and shake detection, only touched on the sensor thread once started
+    private ShakeDetector detector = new AxisThresholdDetector();
+    private volatile ShakeDetector.Strategy strategy = ShakeDetector.Strategy.AXIS_THRESHOLD;
+    private final SampleBatch batch = new SampleBatch();
+    private boolean drainScheduled;
+
+    // Debounced samples of the current detector already added to the counters
+    private long debouncedCounted;
+
+    // Whether to use batched mode when the sensor supports it, and the mode in use
+    private boolean batching = true;
+    private volatile boolean batched;
+
+    // Whether to lower the sampling rate while the phone lies still, takes effect on the next start;
+    // off by default as the first samples of a shake arrive later
+    private boolean adaptive;
+    private volatile boolean adapting;
+
+    // Sampling stage and the listener registered for it, only touched on the sensor thread
+    private final AdaptiveSampling sampling = new AdaptiveSampling();
+    private SensorManager sensorManager;
+    private SensorEventListener registered;
+
+    // Stage and rate changes for dump, written on the sensor thread
+    private volatile AdaptiveSampling.Stage stage = AdaptiveSampling.Stage.ACTIVE;
+    private volatile long rateChanges;
 
+    // Registered at the idle rate, forwards to this shaker which is registered at the active rate
+    private final SensorEventListener idleListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            DiceShaker.this.onSensorChanged(event);
+        }
 
-    // Arrays to store gravity and linear acceleration values
-    private float[] mGravity = {0.0f, 0.0f, 0.0f};
-    private float[] mLinearAcceleration = {0.0f, 0.0f, 0.0f};
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
 
-    private long lastEventTime = 0;
+    // Samples received and batches processed, written on the sensor thread
+    private volatile long sampleCount;
+    private volatile long deliveryCount;
 
     // OnShakeListener that will be notified when the shake is detected
     private IDiceShakeListener mShakeListener;
 
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Between start and stop, only touched on the main thread
+    private boolean listening;
+
+    private final Runnable shakeNotifier = new Runnable() {
+        @Override
+        public void run() {
+            // the listener is unregistered asynchronously, ignore shakes detected after stop
+            if (listening) {
+                mShakeListener.onShake();
+            }
+        }
+    };
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainScheduled = false;
+            processBatch();
+        }
+    };
+
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+
+    // Raw sample recorder, only touched on the sensor thread
+    private TraceWriter traceWriter;
+    private volatile boolean recording;
+
     // Constructor that sets the shake listener
     public DiceShaker(IDiceShakeListener shakeListener) {
         mShakeListener = shakeListener;
     }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        // Enforce pause between rolls
-        //if (event.timestamp < lastEventTime + 1500000000L) { // 1.5 sec (in nanoseconds)
-        if (event.timestamp < lastEventTime + 500000000L) { // .5 sec (in nanoseconds)
+    /**
+     * Switch the shake detection strategy. Detection starts over with the new strategy.
+     */
+    public void setStrategy(final ShakeDetector.Strategy strategy) {
+        this.strategy = strategy;
+        if (sensorHandler == null) {
+            detector = strategy.create();
+            debouncedCounted = 0;
             return;
         }
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                detector = strategy.create();
+                debouncedCounted = 0;
+            }
+        });
+    }
 
-            // Update current values
-            setCurrentAcceleration(event);
+    public ShakeDetector.Strategy getStrategy() {
+        return strategy;
+    }
 
-            // Get the max linear acceleration in any direction
-            float maxLinearAcceleration = getMaxCurrentLinearAcceleration();
+    /**
+     * Use hardware batching when the accelerometer supports it, takes effect on the next start.
+     */
+    public void setBatching(boolean batching) {
+        this.batching = batching;
+    }
 
-            // Check if the acceleration is greater than our minimum threshold
-            if (maxLinearAcceleration > MIN_ACCELERATION) {
-                moveCount++;
+    /**
+     * Lower the sampling rate while the phone lies still, takes effect on the next start.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
 
-                // Enforce a minimum number of movements
-                if (moveCount >= MIN_MOVEMENTS) {
-//                    Log.d(TAG, "shake - moveCount=" + moveCount + " acceleration: " + maxLinearAcceleration + " min: " + MIN_ACCELERATION + " time: " + event.timestamp);
-                    resetShakeDetection();
-                    lastEventTime = event.timestamp;
-                    mShakeListener.onShake();
-                }
-//                else {
-//                    Log.d(TAG, "move - moveCount=" + moveCount + " acceleration: " + maxLinearAcceleration + " min: " + MIN_ACCELERATION + " time: " + event.timestamp);
-//                }
+    /**
+     * Start listening to the accelerometer, starting the sensor thread if needed. The listener
+     * is registered on the sensor thread, so the caller does not wait on the sensor service.
+     */
+    public void start(final SensorManager sensorManager) {
+        if (sensorThread == null) {
+            sensorThread = new HandlerThread(TAG);
+            sensorThread.start();
+            sensorHandler = new Handler(sensorThread.getLooper());
+        }
+        listening = true;
+        final Handler handler = sensorHandler;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                register(sensorManager, handler);
             }
+        });
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        // Intentionally blank
+    // runs on the sensor thread
+    private void register(SensorManager sensorManager, Handler sensorHandler) {
+        Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        this.sensorManager = sensorManager;
+        if (accelerometer == null) {
+            // no accelerometer, dice are rolled by tapping only
+            Log.w(TAG, "No accelerometer, shake detection is off");
+            batched = false;
+            adapting = false;
+            StartupTiming.mark(StartupTiming.SENSORS_READY);
+            return;
+        }
+        batched = batching
+              && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+              && accelerometer.getFifoMaxEventCount() > 0;
+        adapting = adaptive;
+
+        // a shake may follow right after resuming, start at the active rate
+        sampling.reset();
+        stage = sampling.getStage();
+        registerListener(this, SensorManager.SENSOR_DELAY_UI);
+        registered = this;
+        StartupTiming.mark(StartupTiming.SENSORS_READY);
+    }
+
+    // runs on the sensor thread
+    private void registerListener(SensorEventListener listener, int rate) {
+        Sensor accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (accelerometer == null) {
+            return;
+        }
+        if (batched) {
+            sensorManager.registerListener(listener, accelerometer, rate, MAX_REPORT_LATENCY_US, sensorHandler);
+        } else {
+            sensorManager.registerListener(listener, accelerometer, rate, sensorHandler);
+        }
+    }
+
+    // runs on the sensor thread, after the stage changed
+    private void changeRate() {
+        if (registered == null) {
+            // stopped while samples were still queued
+            return;
+        }
+        AdaptiveSampling.Stage next = sampling.getStage();
+        SensorEventListener listener = next == AdaptiveSampling.Stage.IDLE ? idleListener : this;
+        int rate = next == AdaptiveSampling.Stage.IDLE
+              ? AdaptiveSampling.IDLE_PERIOD_US
+              : SensorManager.SENSOR_DELAY_UI;
+
+        // the new registration starts before the old one ends, so no part of a shake is missed
+        Perf.begin("change sampling rate");
+        registerListener(listener, rate);
+        sensorManager.unregisterListener(registered);
+        Perf.end();
+        registered = listener;
+        stage = next;
+        rateChanges++;
+    }
+
+    /**
+     * Stop listening to the accelerometer. The sensor thread is kept for the next start.
+     */
+    public void stop(final SensorManager sensorManager) {
+        listening = false;
+        if (sensorHandler != null) {
+            // after any registration still queued
+            sensorHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    sensorManager.unregisterListener(DiceShaker.this);
+                    sensorManager.unregisterListener(idleListener);
+                    registered = null;
+                }
+            });
+        } else {
+            sensorManager.unregisterListener(this);
+            sensorManager.unregisterListener(idleListener);
+        }
+        mainHandler.removeCallbacks(shakeNotifier);
     }
 
-    private void setCurrentAcceleration(SensorEvent event) {
-        final float alpha = 0.8f;
+    /**
+     * Stop the sensor thread, call once the listener is no longer registered.
+     */
+    public void quit() {
+        if (sensorThread != null) {
+            final HandlerThread thread = sensorThread;
+            recording = false;
+            // finish any queued work, including a trace being recorded, before quitting
+            sensorHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    closeTrace();
+                    thread.quit();
+                }
+            });
+            sensorThread = null;
+            sensorHandler = null;
+        }
+    }
+
+    /**
+     * Record the raw accelerometer stream to a trace file until stopRecording, for replay with
+     * TraceReplay. Only possible while started.
+     */
+    public void startRecording(final File file) {
+        if (sensorHandler == null || recording) {
+            return;
+        }
+        recording = true;
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    traceWriter = new TraceWriter(file);
+                    Log.d(TAG, "Recording accelerometer trace to " + file);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error starting trace " + file, e);
+                    recording = false;
+                }
+            }
+        });
+    }
 
-        // Gravity components of x, y, and z acceleration
-        mGravity[X] = alpha * mGravity[X] + (1 - alpha) * event.values[X];
-        mGravity[Y] = alpha * mGravity[Y] + (1 - alpha) * event.values[Y];
-        mGravity[Z] = alpha * mGravity[Z] + (1 - alpha) * event.values[Z];
+    public void stopRecording() {
+        if (sensorHandler == null || !recording) {
+            return;
+        }
+        recording = false;
+        sensorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeTrace();
+            }
+        });
+    }
 
-        // Linear acceleration along the x, y, and z axes (gravity effects removed)
-        mLinearAcceleration[X] = event.values[X] - mGravity[X];
-        mLinearAcceleration[Y] = event.values[Y] - mGravity[Y];
-        mLinearAcceleration[Z] = event.values[Z] - mGravity[Z];
+    public boolean isRecording() {
+        return recording;
     }
 
-    private float getMaxCurrentLinearAcceleration() {
-        // Start by setting the value to the x value
-        float maxLinearAcceleration = mLinearAcceleration[X];
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        long start = System.nanoTime();
+        Perf.begin("onSensorChanged");
+        sampleCount++;
+        if (traceWriter != null) {
+            try {
+                traceWriter.write(event.timestamp, event.values[X], event.values[Y], event.values[Z]);
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing trace", e);
+                recording = false;
+                closeTrace();
+            }
+        }
+
+        batch.add(event.timestamp, event.values[X], event.values[Y], event.values[Z]);
+        if (adapting && sampling.onSample(event.timestamp, event.values[X], event.values[Y], event.values[Z])) {
+            changeRate();
+        }
 
-        // Check if the y value is greater
-        if (mLinearAcceleration[Y] > maxLinearAcceleration) {
-            maxLinearAcceleration = mLinearAcceleration[Y];
+        if (!batched) {
+            processBatch();
+        } else if (!drainScheduled) {
+            // runs once the events of this delivery have all been dispatched
+            drainScheduled = true;
+            sensorHandler.post(drainTask);
         }
 
-        // Check if the z value is greater
-        if (mLinearAcceleration[Z] > maxLinearAcceleration) {
-            maxLinearAcceleration = mLinearAcceleration[Z];
+        Perf.end();
+        PerfCounters counters = Perf.COUNTERS;
+        counters.increment(PerfCounters.SENSOR_SAMPLES);
+        counters.add(PerfCounters.SENSOR_NANOS, System.nanoTime() - start);
+    }
+
+    private void closeTrace() {
+        if (traceWriter != null) {
+            try {
+                traceWriter.close();
+                Log.d(TAG, "Recorded " + traceWriter.getSampleCount() + " samples");
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing trace", e);
+            } finally {
+                traceWriter = null;
+            }
         }
+    }
 
-        // Return the greatest value
-        return maxLinearAcceleration;
+    private void processBatch() {
+        Perf.begin("shake detect");
+        deliveryCount++;
+        int shakes = batch.drainTo(detector);
+        if (shakes > 0) {
+//            Log.d(TAG, "shake - time: " + detector.getLastShakeTimestamp());
+            RollLatency.RECORDER.beginRoll(
+                  RollLatency.fromSensorTimestamp(detector.getLastShakeTimestamp()), RollLatency.now());
+            mainHandler.post(shakeNotifier);
+            Perf.COUNTERS.add(PerfCounters.SHAKES, shakes);
+        }
+        long debounced = detector.getDebouncedCount();
+        if (debounced != debouncedCounted) {
+            Perf.COUNTERS.add(PerfCounters.SHAKES_DEBOUNCED, debounced - debouncedCounted);
+            debouncedCounted = debounced;
+        }
+        Perf.end();
     }
 
-    private void resetShakeDetection() {
-        moveCount = 0;
+    /**
+     * Print the sensor mode and delivery statistics.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        long samples = sampleCount;
+        long deliveries = deliveryCount;
+
+        writer.print(prefix);
+        writer.println("Shake detection: " + strategy + ", " + (batched
+              ? "batched (max report latency " + MAX_REPORT_LATENCY_US / 1000 + " ms)"
+              : "unbatched")
+              + (adapting ? ", adaptive (" + stage + ", " + rateChanges + " rate changes)" : ""));
+        writer.print(prefix);
+        writer.println(String.format("  samples %d, deliveries %d, samples/delivery %.1f, dropped out of order or repeated %d",
+              samples, deliveries, deliveries == 0 ? 0.0 : (double) samples / deliveries, batch.getDroppedCount()));
     }
 
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // Intentionally blank
+    }
 }
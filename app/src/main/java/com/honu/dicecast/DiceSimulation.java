@@ -0,0 +1,152 @@
+package com.honu.dicecast;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.DialogInterface;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.app.AlertDialog;
+
+import com.honu.dicecast.core.DiceDistribution;
+import com.honu.dicecast.core.MonteCarloSimulation;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Simulate mode: rolls the dice ROLLS times on every core and shows the empirical distribution of
+ * the sum, with progress while it runs. Needs ForkJoinPool, which Android has from API 21.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class DiceSimulation {
+
+    static final long ROLLS = 100000000L;
+
+    // How often the progress shown in the dialog is refreshed (in milliseconds)
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    // Shared by every simulation, created on first use
+    private static ForkJoinPool pool;
+
+    private final Activity activity;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Running simulation and its dialog, only touched on the main thread
+    private MonteCarloSimulation simulation;
+    private AlertDialog dialog;
+
+    private final Runnable progressTask = new Runnable() {
+        @Override
+        public void run() {
+            if (simulation != null) {
+                showProgress();
+                mainHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+            }
+        }
+    };
+
+    DiceSimulation(Activity activity) {
+        this.activity = activity;
+    }
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Start a simulation with a new seed and show its dialog, unless one is already running.
+     */
+    void start() {
+        if (simulation != null) {
+            return;
+        }
+
+        final long seed = System.nanoTime();
+        final MonteCarloSimulation running = new MonteCarloSimulation(
+              DiceViewModel.DICE_COUNT, DiceViewModel.DIE_SIDES, ROLLS, seed);
+        simulation = running;
+
+        dialog = new AlertDialog.Builder(activity)
+              .setTitle(R.string.simulation_title)
+              .setMessage("")
+              .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                  @Override
+                  public void onClick(DialogInterface dialog, int which) {
+                      cancel();
+                  }
+              })
+              .setOnCancelListener(new DialogInterface.OnCancelListener() {
+                  @Override
+                  public void onCancel(DialogInterface dialog) {
+                      cancel();
+                  }
+              })
+              .show();
+        showProgress();
+        mainHandler.postDelayed(progressTask, PROGRESS_INTERVAL_MS);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final long[] counts = running.run(getPool());
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            showResult(running, counts, seed);
+                        }
+                    });
+                } catch (CancellationException e) {
+                    // dialog was already dismissed
+                }
+            }
+        }, "DiceSimulation").start();
+    }
+
+    /**
+     * Stop the running simulation and close its dialog.
+     */
+    void cancel() {
+        if (simulation != null) {
+            simulation.cancel();
+            simulation = null;
+        }
+        mainHandler.removeCallbacks(progressTask);
+        if (dialog != null) {
+            dialog.dismiss();
+            dialog = null;
+        }
+    }
+
+    private void showProgress() {
+        long percent = simulation.getCompletedRolls() * 100 / ROLLS;
+        dialog.setMessage(activity.getString(R.string.simulation_progress, percent, ROLLS));
+    }
+
+    private void showResult(MonteCarloSimulation finished, long[] counts, long seed) {
+        if (finished != simulation) {
+            return;
+        }
+        simulation = null;
+        mainHandler.removeCallbacks(progressTask);
+
+        // empirical next to exact odds
+        DiceDistribution exact = DiceViewModel.getProbabilities()
+              .distribution(DiceViewModel.DICE_COUNT, DiceViewModel.DIE_SIDES);
+        StringBuilder text = new StringBuilder(activity.getString(R.string.simulation_result, ROLLS, seed));
+        for (int sum = finished.getMinSum(); sum <= finished.getMaxSum(); sum++) {
+            text.append('\n').append(String.format("%2d: %6.3f%% (%6.3f%%)",
+                  sum, counts[sum] * 100.0 / ROLLS, exact.probability(sum) * 100));
+        }
+        dialog.setMessage(text);
+        dialog.getButton(DialogInterface.BUTTON_NEGATIVE).setText(android.R.string.ok);
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+}
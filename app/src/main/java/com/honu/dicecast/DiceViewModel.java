@@ -1,15 +1,54 @@
 package com.honu.dicecast;
 
+import android.os.Bundle;
 import android.support.annotation.DrawableRes;
-import android.util.Pair;
 import android.util.SparseIntArray;
 
-import java.util.Random;
+import com.honu.dicecast.core.DiceExpression;
+import com.honu.dicecast.core.DiceExpressionCache;
+import com.honu.dicecast.core.DiceProbabilities;
+import com.honu.dicecast.core.DiceRoller;
+import com.honu.dicecast.core.RandomSource;
+import com.honu.dicecast.core.RollSnapshot;
+import com.honu.dicecast.core.RollState;
+import com.honu.dicecast.core.RollStateFile;
+import com.honu.dicecast.core.RollStatistics;
 
 
 public class DiceViewModel {
 
-    private Pair<Integer, Integer> dice;
+    public static final int DICE_COUNT = 2;
+    public static final int DIE_SIDES = 6;
+
+    // Notation of the standard dice, rolled and shown as two faces
+    public static final String STANDARD_EXPRESSION = "2d6";
+
+    // Generator the dice are rolled with, each rolling thread gets its own instance
+    private volatile RandomSource randomSource = RandomSource.XOSHIRO256;
+    private volatile ThreadLocal<DiceRoller> rollers = rollers(randomSource);
+
+    // Latest roll, published by whichever thread rolled
+    private final RollState state = new RollState();
+
+    // Expression rolled instead of the standard dice, null for the standard dice
+    private volatile DiceExpression expression;
+
+    // Dice read back from a saved roll before they are published, only used on the main thread
+    private final int[] restoredDice = new int[DiceExpression.MAX_DICE];
+
+    // Running statistics over every roll of the standard dice, kept across recreation
+    private final RollStatistics statistics = new RollStatistics(DICE_COUNT, DIE_SIDES);
+
+    // Keys of the roll and the statistics in a saved instance state
+    private static final String STATE_NOTATION = "dice.notation";
+    private static final String STATE_ROLL = "dice.roll";
+    private static final String STATE_STATISTICS = "dice.statistics";
+
+    // Compiled expressions, shared by every model
+    private static final DiceExpressionCache expressions = new DiceExpressionCache();
+
+    // Exact odds, shared by every model
+    private static final DiceProbabilities probabilities = new DiceProbabilities();
 
     private static SparseIntArray icons = new SparseIntArray();
 
@@ -22,27 +61,204 @@ public class DiceViewModel {
         icons.put(6, R.drawable.dice_6);
     }
 
-    public Pair<Integer, Integer> getDice() {
-        return dice;
+    /**
+     * Whether the dice or expression currently chosen have been rolled.
+     */
+    public boolean hasRolled() {
+        RollSnapshot roll = state.get();
+        return roll.getVersion() != 0 && sameExpression(roll.getExpression(), expression);
     }
 
-    public Pair<Integer, Integer> rollDice() {
-        dice = roll();
-        return dice;
+    /**
+     * Roll a dice expression such as 4d6kh3+2 from now on, STANDARD_EXPRESSION going back to
+     * the standard dice.
+     *
+     * @throws IllegalArgumentException if the notation is invalid
+     */
+    public void setExpression(String notation) {
+        DiceExpression compiled = expressions.compile(notation);
+        expression = STANDARD_EXPRESSION.equals(compiled.getNotation()) ? null : compiled;
     }
 
-    public @DrawableRes int getIconDrawable(int value) {
-        return icons.get(value);
+    public String getNotation() {
+        DiceExpression expression = this.expression;
+        return expression == null ? STANDARD_EXPRESSION : expression.getNotation();
+    }
+
+    /**
+     * The expression being rolled, or null when rolling the standard dice.
+     */
+    public DiceExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Roll with a different generator from now on, e.g. RandomSource.SECURE where fairness must
+     * hold up to an audit.
+     */
+    public void setRandomSource(RandomSource source) {
+        randomSource = source;
+        rollers = rollers(source);
+    }
+
+    public RandomSource getRandomSource() {
+        return randomSource;
+    }
+
+    private static ThreadLocal<DiceRoller> rollers(final RandomSource source) {
+        return new ThreadLocal<DiceRoller>() {
+            @Override
+            protected DiceRoller initialValue() {
+                return new DiceRoller(DICE_COUNT, DIE_SIDES, source.create());
+            }
+        };
+    }
+
+    /**
+     * The latest roll, {@link RollSnapshot#NONE} before the first. Never blocks, and the faces,
+     * total and version of the snapshot always belong to the same roll.
+     */
+    public RollSnapshot getLastRoll() {
+        return state.get();
     }
 
     /**
-     * Generate a pair of random integers between 1 and 6.
+     * Roll the dice or the expression, replacing the previous roll. Safe to call from several
+     * threads at once, each roll gets its own version. Allocates the snapshot and its dice.
+     *
+     * @return the roll
      */
-    private Pair<Integer, Integer> roll() {
-        Random random = new Random();
-        int x1 = random.nextInt(6) + 1;
-        int x2 = random.nextInt(6) + 1;
+    public RollSnapshot rollDice() {
+        DiceExpression expression = this.expression;
+        DiceRoller roller = rollers.get();
+        if (expression != null) {
+            return state.roll(expression, roller.getRandom());
+        }
+        return state.roll(roller, statistics);
+    }
+
+    public RollStatistics getStatistics() {
+        return statistics;
+    }
+
+    public RollState getState() {
+        return state;
+    }
+
+    /**
+     * Write the last roll to the state file, called after every roll from the thread that owns
+     * the file.
+     */
+    public void saveRoll(RollStateFile file) {
+        if (hasRolled()) {
+            file.write(state.get());
+        }
+    }
+
+    /**
+     * Take the roll from the state file as the last roll, without rolling or counting it in the
+     * statistics. Once the notation has been read and compiled, only the published snapshot is
+     * allocated.
+     *
+     * @return whether there was a roll to restore
+     */
+    public boolean restoreRoll(RollStateFile file) {
+        switch (file.getKind()) {
+            case RollStateFile.KIND_DICE:
+                return restoreDice(file.getDie1(), file.getDie2());
+            case RollStateFile.KIND_EXPRESSION:
+                if (!restoreExpression(file.getNotation())) {
+                    return false;
+                }
+                DiceExpression expression = this.expression;
+                if (expression == null || file.getDiceCount() != expression.getDiceCount()) {
+                    return false;
+                }
+                int count = file.readDice(restoredDice);
+                state.publish(expression, file.getTotal(), restoredDice, count);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public void saveInstanceState(Bundle outState) {
+        outState.putString(STATE_NOTATION, getNotation());
+        outState.putLongArray(STATE_STATISTICS, statistics.save());
+        RollSnapshot last = state.get();
+        if (last.getVersion() == 0 || !sameExpression(last.getExpression(), expression)) {
+            return;
+        }
+        int[] roll;
+        if (last.getExpression() == null) {
+            roll = new int[]{last.getDie1(), last.getDie2()};
+        } else {
+            // the total then the dice
+            roll = new int[1 + last.getDiceCount()];
+            roll[0] = last.getTotal();
+            for (int i = 0; i < last.getDiceCount(); i++) {
+                roll[1 + i] = last.getDie(i);
+            }
+        }
+        outState.putIntArray(STATE_ROLL, roll);
+    }
 
-        return new Pair<Integer, Integer>(x1, x2);
+    /**
+     * Take the dice and the last roll from a state saved by {@link #saveInstanceState(Bundle)}.
+     *
+     * @return whether there was a roll to restore
+     */
+    public boolean restoreInstanceState(Bundle savedInstanceState) {
+        statistics.restore(savedInstanceState.getLongArray(STATE_STATISTICS));
+        String notation = savedInstanceState.getString(STATE_NOTATION);
+        int[] roll = savedInstanceState.getIntArray(STATE_ROLL);
+        if (notation == null || !restoreExpression(notation) || roll == null) {
+            return false;
+        }
+        DiceExpression expression = this.expression;
+        if (expression == null) {
+            return roll.length == DICE_COUNT && restoreDice(roll[0], roll[1]);
+        }
+        if (roll.length != 1 + expression.getDiceCount()) {
+            return false;
+        }
+        System.arraycopy(roll, 1, restoredDice, 0, roll.length - 1);
+        state.publish(expression, roll[0], restoredDice, roll.length - 1);
+        return true;
+    }
+
+    private boolean restoreDice(int die1, int die2) {
+        if (die1 < 1 || die1 > DIE_SIDES || die2 < 1 || die2 > DIE_SIDES) {
+            return false;
+        }
+        expression = null;
+        restoredDice[0] = die1;
+        restoredDice[1] = die2;
+        state.publish(null, die1 + die2, restoredDice, DICE_COUNT);
+        return true;
+    }
+
+    private boolean restoreExpression(String notation) {
+        try {
+            setExpression(notation);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean sameExpression(DiceExpression a, DiceExpression b) {
+        return a == b || (a != null && b != null && a.getNotation().equals(b.getNotation()));
+    }
+
+    /**
+     * Exact odds engine for these and other dice.
+     */
+    public static DiceProbabilities getProbabilities() {
+        return probabilities;
+    }
+
+    public @DrawableRes int getIconDrawable(int value) {
+        return icons.get(value);
     }
 }
@@ -0,0 +1,33 @@
+package com.honu.dicecast;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.honu.dicecast.core.RollSendPipeline;
+
+/**
+ * Runs send pipeline tasks on the looper of the given handler, the main looper by default.
+ */
+class HandlerScheduler implements RollSendPipeline.Scheduler {
+
+    private final Handler handler;
+
+    HandlerScheduler() {
+        this(new Handler(Looper.getMainLooper()));
+    }
+
+    HandlerScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+}
@@ -5,22 +5,24 @@ package com.honu.dicecast;
  */
 
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.graphics.drawable.Drawable;
-import android.hardware.Sensor;
+import android.content.SharedPreferences;
 import android.hardware.SensorManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
-import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
-import android.util.Pair;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.ImageView;
+import android.view.ViewTreeObserver;
+import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.google.android.gms.cast.framework.CastButtonFactory;
 import com.google.android.gms.cast.framework.CastContext;
@@ -31,15 +33,46 @@ import com.google.android.gms.cast.framework.IntroductoryOverlay;
 import com.google.android.gms.cast.framework.SessionManagerListener;
 import com.google.android.gms.common.GoogleApiAvailability;
 
+import com.honu.dicecast.core.PerfCounters;
+import com.honu.dicecast.core.RandomSource;
+import com.honu.dicecast.core.RollLogFormat;
+import com.honu.dicecast.core.RollSnapshot;
+import com.honu.dicecast.core.RollStateFile;
+import com.honu.dicecast.core.RollStatistics;
+import com.honu.dicecast.core.ShakeDetector;
+
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getSimpleName();
 
-    private static DiceViewModel diceViewModel = new DiceViewModel();
-    private static RollDiceChannel rollDiceChannel;
+    // Preference holding the dice expression rolled
+    private static final String PREF_EXPRESSION = "dice_expression";
+
+    // Random generator chosen by the user, a RandomSource name
+    private static final String PREF_RANDOM_SOURCE = "random_source";
+
+    // Shake detection strategy, a ShakeDetector.Strategy name, whether the accelerometer is
+    // batched by the sensor hub and whether it is sampled slower while idle; applied in onResume
+    private static final String PREF_SHAKE_STRATEGY = "shake_strategy";
+    private static final String PREF_SENSOR_BATCHING = "sensor_batching";
+    private static final String PREF_ADAPTIVE_SAMPLING = "adaptive_sampling";
+
+    // Whether the performance overlay is shown, also set by an intent extra of the same name:
+    // adb shell am start -n com.honu.dicecast/.MainActivity --ez perf_overlay true
+    private static final String PREF_PERF_OVERLAY = "perf_overlay";
+
+    // Latest roll, kept across process restarts
+    private static final String STATE_FILE_NAME = "roll.state";
+
+    private final DiceViewModel diceViewModel = new DiceViewModel();
+    private RollDiceChannel rollDiceChannel;
+    private RollStateFile rollState;
 
     private CastContext castContext;
     private CastSession castSession;
@@ -49,9 +82,51 @@ public class MainActivity extends AppCompatActivity {
 
     private SensorManager sensorManager;
     private DiceShaker diceShaker;
+    private DiceRenderer diceRenderer;
+    private RollHistory rollHistory;
+    private DiceSimulation diceSimulation;
+    private PerfOverlay perfOverlay;
+
+    // Running statistics shown below the roll, as on the receiver
+    private TextView statisticsView;
+    private RollStatistics.Snapshot statisticsSnapshot;
+
+    private final Handler mainHandler = new Handler();
+    private boolean resumed;
+
+    // Whether the latest roll was made while no channel was open, it is sent once one is
+    private boolean rollQueued;
 
     private final SessionManagerListener<CastSession> sessionManagerListener = new CastSessionManagerListener();
 
+    // rolls of other players at the table are shown until this sender rolls again
+    private final RollDiceChannel.PlayerRollListener playerRollListener = new RollDiceChannel.PlayerRollListener() {
+        @Override
+        public void onPlayerRoll(String player, RollSnapshot roll) {
+            diceRenderer.show(roll, player);
+            recordRoll(RollLogFormat.SOURCE_REMOTE, roll);
+        }
+    };
+
+    // Cast is set up once the first frame is on screen
+    private final ViewTreeObserver.OnPreDrawListener firstFrameListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+            StartupTiming.mark(StartupTiming.FIRST_FRAME);
+            // runs after this frame is drawn
+            mainHandler.post(deferredStartup);
+            return true;
+        }
+    };
+
+    private final Runnable deferredStartup = new Runnable() {
+        @Override
+        public void run() {
+            initCast();
+        }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -59,6 +134,41 @@ public class MainActivity extends AppCompatActivity {
 
         setContentView(R.layout.activity_main);
 
+        // the last roll, from the saved instance state or after a restart from the state file
+        rollState = openRollState();
+        if (savedInstanceState != null) {
+            diceViewModel.restoreInstanceState(savedInstanceState);
+        } else {
+            if (rollState != null) {
+                diceViewModel.restoreRoll(rollState);
+            }
+            loadExpression();
+        }
+        loadRandomSource();
+
+        // decode dice faces and look up views once, rolls are drawn from these caches
+        diceRenderer = new DiceRenderer(this, diceViewModel, DiceViewModel.DIE_SIDES);
+
+        // every roll is appended to the history log on a background thread
+        rollHistory = RollHistory.get(this);
+
+        diceSimulation = new DiceSimulation(this);
+
+        statisticsView = findViewById(R.id.dice_statistics);
+        statisticsSnapshot = diceViewModel.getStatistics().newSnapshot();
+
+        perfOverlay = new PerfOverlay((TextView) findViewById(R.id.perf_overlay), new PerfOverlay.Source() {
+            @Override
+            public PerfCounters.Snapshot snapshot() {
+                return perfSnapshot();
+            }
+        });
+        loadPerfOverlay(getIntent());
+
+        if (diceViewModel.hasRolled()) {
+            showRoll();
+        }
+
         Toolbar toolbar = findViewById(R.id.toolbar);
         if (toolbar != null) {
             setSupportActionBar(toolbar);
@@ -66,17 +176,14 @@ public class MainActivity extends AppCompatActivity {
             getSupportActionBar().setDisplayShowTitleEnabled(true);
         }
 
-        // check that Google Play services is available and correct version
-        GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(this);
-        //GoogleApiAvailability.getInstance().verifyGooglePlayServicesIsAvailable(this);
-
         // tap to roll listener
         View content = findViewById(R.id.root_layout);
         content.setOnClickListener(new View.OnClickListener() {
 
             @Override
             public void onClick(View v) {
-                updateDie(diceViewModel.rollDice());
+                RollLatency.RECORDER.beginRoll(0, RollLatency.now());
+                rollDice(RollLogFormat.SOURCE_TAP);
             }
         });
 
@@ -85,18 +192,13 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             public void onShake() {
-                updateDie(diceViewModel.rollDice());
+                rollDice(RollLogFormat.SOURCE_SHAKE);
             }
         });
 
-        // register dice shake listener fpr accelerometer events
+        // dice shake listener for accelerometer events is registered in onResume
         sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
 
-        sensorManager.registerListener(
-              diceShaker,
-              sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-              SensorManager.SENSOR_DELAY_UI);
-
         // show introductory overlay
         castStateListener = new CastStateListener() {
 
@@ -108,7 +210,135 @@ public class MainActivity extends AppCompatActivity {
             }
         };
 
+        // the dice can be rolled from the first frame, Cast is set up after it is drawn and the
+        // accelerometer is registered on the sensor thread in onResume
+        getWindow().getDecorView().getViewTreeObserver().addOnPreDrawListener(firstFrameListener);
+        StartupTiming.mark(StartupTiming.CREATED);
+    }
+
+
+    private RollStateFile openRollState() {
+        try {
+            return new RollStateFile(new File(getFilesDir(), STATE_FILE_NAME));
+        } catch (IOException e) {
+            Log.w(TAG, "Error opening roll state", e);
+            return null;
+        }
+    }
+
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        loadPerfOverlay(intent);
+    }
+
+
+    // the overlay is toggled from the menu or with an intent extra, no debug build needed
+    private void loadPerfOverlay(Intent intent) {
+        if (intent != null && intent.hasExtra(PREF_PERF_OVERLAY)) {
+            setPerfOverlayShown(intent.getBooleanExtra(PREF_PERF_OVERLAY, false));
+        } else {
+            perfOverlay.setShown(getPreferences(MODE_PRIVATE).getBoolean(PREF_PERF_OVERLAY, false));
+        }
+    }
+
+
+    private void setPerfOverlayShown(boolean shown) {
+        perfOverlay.setShown(shown);
+        getPreferences(MODE_PRIVATE).edit().putBoolean(PREF_PERF_OVERLAY, shown).apply();
+    }
+
+
+    // counters as of now, with the messages pending brought up to date
+    private PerfCounters.Snapshot perfSnapshot() {
+        if (rollDiceChannel != null) {
+            rollDiceChannel.updatePendingCount();
+        }
+        return Perf.snapshot();
+    }
+
+
+    // dice expression chosen after the last roll, or in an earlier session
+    private void loadExpression() {
+        String notation = getPreferences(MODE_PRIVATE).getString(PREF_EXPRESSION, DiceViewModel.STANDARD_EXPRESSION);
+        if (!notation.equals(diceViewModel.getNotation())) {
+            try {
+                diceViewModel.setExpression(notation);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring saved dice expression", e);
+            }
+        }
+    }
+
+
+    private void loadRandomSource() {
+        String name = getPreferences(MODE_PRIVATE).getString(PREF_RANDOM_SOURCE, null);
+        if (name != null) {
+            try {
+                diceViewModel.setRandomSource(RandomSource.valueOf(name));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring saved random generator " + name);
+            }
+        }
+    }
+
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        diceViewModel.saveInstanceState(outState);
+    }
+
+
+    private void initCast() {
+        // check that Google Play services is available and correct version
+        final Context context = getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(context);
+                //GoogleApiAvailability.getInstance().verifyGooglePlayServicesIsAvailable(context);
+            }
+        });
+
+        // loads CastOptionsProvider and must run on the main thread
         castContext = CastContext.getSharedInstance(this);
+        StartupTiming.mark(StartupTiming.CAST_READY);
+
+        if (resumed) {
+            attachCast();
+        }
+
+        // add the cast button
+        invalidateOptionsMenu();
+    }
+
+
+    private void attachCast() {
+        castContext.addCastStateListener(castStateListener);
+        castContext.getSessionManager().addSessionManagerListener(
+              sessionManagerListener,
+              CastSession.class);
+
+        if (castSession == null) {
+            castSession = castContext.getSessionManager().getCurrentCastSession();
+        }
+        if (castSession != null) {
+            startCustomMessageChannel();
+            if (rollQueued) {
+                sendRoll();
+            }
+        }
+    }
+
+
+    private void detachCast() {
+        castContext.removeCastStateListener(castStateListener);
+        castContext.getSessionManager().removeSessionManagerListener(
+              sessionManagerListener,
+              CastSession.class
+        );
     }
 
 
@@ -117,15 +347,26 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void onSessionEnded(CastSession session, int error) {
             if (session == castSession) {
-                castSession = null;
+                // the next session gets its own channel, send pipeline and negotiated format
+                cleanupSession();
             }
             invalidateOptionsMenu();
         }
 
         @Override
         public void onSessionResumed(CastSession session, boolean wasSuspended) {
+            if (session != castSession) {
+                // listen on the resumed session instead
+                closeCustomMessageChannel();
+            }
             castSession = session;
             invalidateOptionsMenu();
+            startCustomMessageChannel();
+
+            // the receiver may have been restarted meanwhile, show the last roll again without re-rolling
+            if (diceViewModel.hasRolled()) {
+                showRoll();
+            }
         }
 
 
@@ -134,6 +375,9 @@ public class MainActivity extends AppCompatActivity {
             castSession = session;
             invalidateOptionsMenu();
             startCustomMessageChannel();
+            if (diceViewModel.hasRolled()) {
+                sendRoll();
+            }
         }
 
         @Override
@@ -168,21 +412,16 @@ public class MainActivity extends AppCompatActivity {
     private void startCustomMessageChannel() {
 
         if (castSession != null && rollDiceChannel == null) {
-            rollDiceChannel = new RollDiceChannel(getString(R.string.namespace));
+            rollDiceChannel = new RollDiceChannel(getString(R.string.namespace), diceViewModel.getStatistics());
+            rollDiceChannel.setPlayerRollListener(playerRollListener);
 
             try {
-                castSession.setMessageReceivedCallbacks(
-                      rollDiceChannel.getNamespace(),
-                      rollDiceChannel);
+                rollDiceChannel.open(castSession);
                 Log.d(TAG, "Message channel started");
             } catch (IOException e) {
                 Log.d(TAG, "Error starting message channel", e);
                 rollDiceChannel = null;
             }
-
-            if (diceViewModel.getDice() != null) {
-                updateDie(diceViewModel.getDice());
-            }
         }
     }
 
@@ -191,7 +430,7 @@ public class MainActivity extends AppCompatActivity {
     private void closeCustomMessageChannel() {
         if (castSession != null && rollDiceChannel != null) {
             try {
-                castSession.removeMessageReceivedCallbacks(rollDiceChannel.getNamespace());
+                rollDiceChannel.close();
                 Log.d(TAG, "Message channel closed");
             } catch (IOException e) {
                 Log.d(TAG, "Error closing message channel", e);
@@ -208,28 +447,62 @@ public class MainActivity extends AppCompatActivity {
     }
 
 
-    private void updateDie(Pair<Integer, Integer> dice) {
-        Drawable icon1 = ContextCompat.getDrawable(this, diceViewModel.getIconDrawable(dice.first));
-        Drawable icon2 = ContextCompat.getDrawable(this, diceViewModel.getIconDrawable(dice.second));
+    private void rollDice(int source) {
+        Perf.begin("roll");
+        RollSnapshot roll = diceViewModel.rollDice();
+        if (rollState != null) {
+            diceViewModel.saveRoll(rollState);
+        }
+        recordRoll(source, roll);
+        showRoll();
+        Perf.end();
+    }
 
-        ImageView die1 = findViewById(R.id.imageViewDie1);
-        ImageView die2 = findViewById(R.id.imageViewDie2);
 
-        die1.setImageDrawable(icon1);
-        die2.setImageDrawable(icon2);
+    // the history holds standard rolls of two dice, see RollLogFormat; faces out of range would
+    // spill into the other fields of the packed record
+    private void recordRoll(int source, RollSnapshot roll) {
+        if (roll.getExpression() == null && roll.getDiceCount() == 2
+              && isFace(roll.getDie1()) && isFace(roll.getDie2())) {
+            rollHistory.record(source, roll.getDie1(), roll.getDie2());
+        }
+    }
 
-        String message = String.format("You rolled: %d", dice.first + dice.second);
-        TextView textMessage = findViewById(R.id.textMessage);
-        textMessage.setText(message);
 
-        String sum = String.format("%d + %d", dice.first, dice.second);
-        TextView sumTextView = findViewById(R.id.dice_sum);
-        sumTextView.setText(sum);
+    private static boolean isFace(int face) {
+        return face >= 1 && face <= DiceViewModel.DIE_SIDES;
+    }
 
-        // send message to cast receiver when session is available
-        if (rollDiceChannel != null && castSession != null) {
-            rollDiceChannel.sendDiceRoll(castSession, dice);
+
+    private void showRoll() {
+        diceRenderer.show(diceViewModel.getLastRoll());
+        showStatistics();
+        sendRoll();
+    }
+
+
+    private void showStatistics() {
+        RollStatistics.Snapshot statistics = diceViewModel.getStatistics().snapshot(statisticsSnapshot);
+        if (statistics.getRolls() == 0) {
+            statisticsView.setText(null);
+            return;
         }
+        statisticsView.setText(getString(R.string.dice_statistics,
+              statistics.getRolls(), statistics.getMean(), statistics.getVariance(),
+              statistics.getLongestSumStreak(), statistics.getLongestMatchStreak(),
+              statistics.getSumChiSquare()));
+    }
+
+
+    // send the latest roll to the cast receiver when a session is available, or keep it until one is
+    private void sendRoll() {
+        if (rollDiceChannel == null || castSession == null) {
+            rollQueued = diceViewModel.hasRolled();
+            return;
+        }
+        rollQueued = false;
+
+        rollDiceChannel.sendRoll(castSession, diceViewModel.getLastRoll());
     }
 
     /**
@@ -247,11 +520,23 @@ public class MainActivity extends AppCompatActivity {
 
         getMenuInflater().inflate(R.menu.main, menu);
 
-        // add MediaRoute button for casting
-        mediaRouteMenuItem = CastButtonFactory.setUpMediaRouteButton(
-              getApplicationContext(),
-              menu,
-              R.id.media_route_menu_item);
+        // add MediaRoute button for casting, the menu is created again once Cast is set up
+        if (castContext != null) {
+            mediaRouteMenuItem = CastButtonFactory.setUpMediaRouteButton(
+                  getApplicationContext(),
+                  menu,
+                  R.id.media_route_menu_item);
+        }
+
+        // simulation runs on a fork-join pool
+        menu.findItem(R.id.simulate_menu).setVisible(DiceSimulation.isSupported());
+
+        // accelerometer trace recording is a debug tool
+        menu.findItem(R.id.record_trace_menu).setVisible(BuildConfig.DEBUG);
+
+        menu.findItem(R.id.perf_overlay_menu).setChecked(perfOverlay.isShown());
+        menu.findItem(R.id.batching_menu).setChecked(getPreferences(MODE_PRIVATE).getBoolean(PREF_SENSOR_BATCHING, true));
+        menu.findItem(R.id.adaptive_menu).setChecked(getPreferences(MODE_PRIVATE).getBoolean(PREF_ADAPTIVE_SAMPLING, false));
 
         showIntroductoryOverlay();
 
@@ -264,28 +549,157 @@ public class MainActivity extends AppCompatActivity {
 
         if (item.getItemId() == R.id.info_menu) {
             startActivity(new Intent(this, InfoActivity.class));
+        } else if (item.getItemId() == R.id.dice_menu) {
+            chooseDice();
+        } else if (item.getItemId() == R.id.random_menu) {
+            chooseRandomSource();
+        } else if (item.getItemId() == R.id.shake_menu) {
+            chooseShakeStrategy();
+        } else if (item.getItemId() == R.id.batching_menu) {
+            item.setChecked(!item.isChecked());
+            getPreferences(MODE_PRIVATE).edit().putBoolean(PREF_SENSOR_BATCHING, item.isChecked()).apply();
+            restartShaker();
+        } else if (item.getItemId() == R.id.adaptive_menu) {
+            item.setChecked(!item.isChecked());
+            getPreferences(MODE_PRIVATE).edit().putBoolean(PREF_ADAPTIVE_SAMPLING, item.isChecked()).apply();
+            restartShaker();
+        } else if (item.getItemId() == R.id.simulate_menu) {
+            diceSimulation.start();
+        } else if (item.getItemId() == R.id.record_trace_menu) {
+            toggleTraceRecording(item);
+        } else if (item.getItemId() == R.id.perf_overlay_menu) {
+            setPerfOverlayShown(!perfOverlay.isShown());
+            item.setChecked(perfOverlay.isShown());
         }
 
         return super.onOptionsItemSelected(item);
     }
 
 
+    // ask for the dice expression to roll, e.g. 4d6kh3+2
+    private void chooseDice() {
+        final EditText input = new EditText(this);
+        input.setSingleLine();
+        input.setText(diceViewModel.getNotation());
+        input.setSelection(input.length());
+
+        new AlertDialog.Builder(this)
+              .setTitle(R.string.dice_title)
+              .setMessage(R.string.dice_message)
+              .setView(input)
+              .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                  @Override
+                  public void onClick(DialogInterface dialog, int which) {
+                      setDiceExpression(input.getText().toString());
+                  }
+              })
+              .setNeutralButton(R.string.dice_standard, new DialogInterface.OnClickListener() {
+                  @Override
+                  public void onClick(DialogInterface dialog, int which) {
+                      setDiceExpression(DiceViewModel.STANDARD_EXPRESSION);
+                  }
+              })
+              .setNegativeButton(android.R.string.cancel, null)
+              .show();
+    }
+
+
+    private void setDiceExpression(String notation) {
+        try {
+            diceViewModel.setExpression(notation);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        getPreferences(MODE_PRIVATE).edit().putString(PREF_EXPRESSION, diceViewModel.getNotation()).apply();
+    }
+
+
+    // pick the generator dice are rolled with, labels follow the order of RandomSource
+    private void chooseRandomSource() {
+        new AlertDialog.Builder(this)
+              .setTitle(R.string.random_title)
+              .setSingleChoiceItems(R.array.random_sources, diceViewModel.getRandomSource().ordinal(),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            RandomSource source = RandomSource.values()[which];
+                            diceViewModel.setRandomSource(source);
+                            getPreferences(MODE_PRIVATE).edit().putString(PREF_RANDOM_SOURCE, source.name()).apply();
+                            dialog.dismiss();
+                        }
+                    })
+              .setNegativeButton(android.R.string.cancel, null)
+              .show();
+    }
+
+
+    // pick how shakes are detected, labels follow the order of ShakeDetector.Strategy
+    private void chooseShakeStrategy() {
+        new AlertDialog.Builder(this)
+              .setTitle(R.string.shake_title)
+              .setSingleChoiceItems(R.array.shake_strategies, diceShaker.getStrategy().ordinal(),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            ShakeDetector.Strategy strategy = ShakeDetector.Strategy.values()[which];
+                            diceShaker.setStrategy(strategy);
+                            getPreferences(MODE_PRIVATE).edit().putString(PREF_SHAKE_STRATEGY, strategy.name()).apply();
+                            dialog.dismiss();
+                        }
+                    })
+              .setNegativeButton(android.R.string.cancel, null)
+              .show();
+    }
+
+
+    private void loadShakeSettings() {
+        SharedPreferences preferences = getPreferences(MODE_PRIVATE);
+        String name = preferences.getString(PREF_SHAKE_STRATEGY, null);
+        if (name != null) {
+            try {
+                diceShaker.setStrategy(ShakeDetector.Strategy.valueOf(name));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring saved shake strategy " + name);
+            }
+        }
+        diceShaker.setBatching(preferences.getBoolean(PREF_SENSOR_BATCHING, true));
+        diceShaker.setAdaptive(preferences.getBoolean(PREF_ADAPTIVE_SAMPLING, false));
+    }
+
+
+    // the sensor is registered again for settings that take effect on start
+    private void restartShaker() {
+        if (resumed) {
+            diceShaker.stop(sensorManager);
+            loadShakeSettings();
+            diceShaker.start(sensorManager);
+        }
+    }
+
+
+    // record raw accelerometer samples to files/shake-<time>.trace
+    private void toggleTraceRecording(MenuItem item) {
+        if (diceShaker.isRecording()) {
+            diceShaker.stopRecording();
+            item.setTitle(R.string.record_trace_menu);
+        } else {
+            diceShaker.startRecording(new File(getFilesDir(), "shake-" + System.currentTimeMillis() + ".trace"));
+            item.setTitle(R.string.stop_trace_menu);
+        }
+    }
+
+
     @Override
     protected void onResume() {
-        castContext.addCastStateListener(castStateListener);
-        castContext.getSessionManager().addSessionManagerListener(
-              sessionManagerListener,
-              CastSession.class);
-
-        if (castSession == null) {
-            castSession = castContext.getSessionManager().getCurrentCastSession();
+        resumed = true;
+        if (castContext != null) {
+            attachCast();
         }
 
-        // register our shake listener
-        sensorManager.registerListener(
-              diceShaker,
-              sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-              SensorManager.SENSOR_DELAY_UI);
+        // register our shake listener, events are handled on the shaker's sensor thread
+        loadShakeSettings();
+        diceShaker.start(sensorManager);
 
         super.onResume();
     }
@@ -293,14 +707,13 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onPause() {
-        castContext.removeCastStateListener(castStateListener);
-        castContext.getSessionManager().removeSessionManagerListener(
-              sessionManagerListener,
-              CastSession.class
-        );
+        resumed = false;
+        if (castContext != null) {
+            detachCast();
+        }
 
         // de-register shake listener
-        sensorManager.unregisterListener(diceShaker);
+        diceShaker.stop(sensorManager);
 
         super.onPause();
     }
@@ -309,10 +722,30 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(firstFrameListener);
+        mainHandler.removeCallbacks(deferredStartup);
+        diceRenderer.cancel();
+        diceSimulation.cancel();
+        perfOverlay.cancel();
+        diceShaker.quit();
         cleanupSession();
     }
 
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        StartupTiming.dump(prefix, writer);
+        diceShaker.dump(prefix, writer);
+        RollLatency.RECORDER.dump(prefix, writer);
+        diceViewModel.getState().dump(prefix, writer);
+        diceViewModel.getStatistics().dump(prefix, writer);
+        rollHistory.dump(prefix, writer);
+        perfSnapshot();
+        Perf.COUNTERS.dump(prefix, writer);
+    }
+
+
     private void showIntroductoryOverlay() {
 
         // remove if already showing
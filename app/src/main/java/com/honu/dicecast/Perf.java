@@ -0,0 +1,41 @@
+package com.honu.dicecast;
+
+import android.os.Build;
+import android.os.Trace;
+
+import com.honu.dicecast.core.PerfCounters;
+
+/**
+ * Shared performance counters and trace sections of the roll path. The counters are dumped with
+ * adb shell dumpsys activity com.honu.dicecast/.MainActivity
+ * and shown by the performance overlay; the sections show up in Perfetto and systrace captures
+ * of the app, e.g. "shake detect" on the sensor thread followed by "roll" and "render" on the
+ * main thread.
+ */
+final class Perf {
+
+    static final PerfCounters COUNTERS = new PerfCounters();
+
+    private Perf() {
+    }
+
+    /**
+     * Open a trace section on the current thread, closed by {@link #end()} on the same thread.
+     * Costs a check of whether tracing is on when it is not, and nothing before API 18.
+     */
+    static void begin(String section) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(section);
+        }
+    }
+
+    static void end() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    static PerfCounters.Snapshot snapshot() {
+        return COUNTERS.snapshot(RollLatency.now());
+    }
+}
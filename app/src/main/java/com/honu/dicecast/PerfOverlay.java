@@ -0,0 +1,85 @@
+package com.honu.dicecast;
+
+import android.os.Handler;
+import android.view.View;
+import android.widget.TextView;
+
+import com.honu.dicecast.core.PerfCounters;
+
+import java.util.Locale;
+
+/**
+ * Shows the performance counters over the dice, refreshed once a second while shown: sensor
+ * samples per second and the time spent on each over the last second, and the totals of the
+ * other counters. Taking a snapshot and formatting it is the only work, and only while shown.
+ */
+class PerfOverlay implements Runnable {
+
+    private static final long REFRESH_MS = 1000;
+
+    /**
+     * Takes the snapshot shown, bringing counters that are not kept current up to date first.
+     */
+    interface Source {
+        PerfCounters.Snapshot snapshot();
+    }
+
+    private final TextView view;
+    private final Source source;
+    private final Handler handler = new Handler();
+
+    private PerfCounters.Snapshot previous;
+    private boolean shown;
+
+    PerfOverlay(TextView view, Source source) {
+        this.view = view;
+        this.source = source;
+    }
+
+    boolean isShown() {
+        return shown;
+    }
+
+    void setShown(boolean shown) {
+        if (this.shown == shown) {
+            return;
+        }
+        this.shown = shown;
+        view.setVisibility(shown ? View.VISIBLE : View.GONE);
+        handler.removeCallbacks(this);
+        previous = null;
+        if (shown) {
+            run();
+        }
+    }
+
+    /**
+     * Stop refreshing, used when the activity goes away.
+     */
+    void cancel() {
+        handler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        PerfCounters.Snapshot snapshot = source.snapshot();
+        PerfCounters.Snapshot since = previous;
+        previous = snapshot;
+
+        // over the last second, the time per sample since the start on the first refresh
+        double samplesPerSecond = since != null ? snapshot.rate(PerfCounters.SENSOR_SAMPLES, since) : 0;
+        double nanosPerSample = snapshot.perEvent(PerfCounters.SENSOR_NANOS, PerfCounters.SENSOR_SAMPLES, since);
+
+        view.setText(String.format(Locale.US,
+              "sensor %.0f samples/s, %.0f ns/sample%n"
+                    + "shakes %d, debounced samples %d%n"
+                    + "messages sent %d, failed %d, pending %d%n"
+                    + "drawables decoded %d",
+              samplesPerSecond, nanosPerSample,
+              snapshot.get(PerfCounters.SHAKES), snapshot.get(PerfCounters.SHAKES_DEBOUNCED),
+              snapshot.get(PerfCounters.MESSAGES_SENT), snapshot.get(PerfCounters.MESSAGES_FAILED),
+              snapshot.get(PerfCounters.MESSAGES_PENDING),
+              snapshot.get(PerfCounters.DRAWABLES_DECODED)));
+        handler.postDelayed(this, REFRESH_MS);
+    }
+}
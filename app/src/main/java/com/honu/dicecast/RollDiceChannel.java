@@ -1,61 +1,99 @@
 package com.honu.dicecast;
 
-import android.util.Log;
-import android.util.Pair;
-
-import com.google.android.gms.cast.Cast;
-import com.google.android.gms.cast.CastDevice;
 import com.google.android.gms.cast.framework.CastSession;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.common.api.Status;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.honu.dicecast.core.PerfCounters;
+import com.honu.dicecast.core.RollChannel;
+import com.honu.dicecast.core.RollSendPipeline;
+import com.honu.dicecast.core.RollSnapshot;
+import com.honu.dicecast.core.RollStatistics;
+
+import java.io.IOException;
 
 /**
  * Custom data channel to send/receive messages from receiver app.
+ * <p/>
+ * The protocol lives in {@link RollChannel}; this channel carries it over the current Cast
+ * session and records when rolls are sent and echoed in the shared latency recorder. Rolls of
+ * other players at the table are passed on to the {@link PlayerRollListener}. Messages sent and
+ * failed are counted in {@link Perf#COUNTERS}.
  */
-public class RollDiceChannel implements Cast.MessageReceivedCallback {
+public class RollDiceChannel extends RollChannel {
 
-    private static final String TAG = RollDiceChannel.class.getSimpleName();
+    /**
+     * Told about the rolls of other players, on the main thread.
+     */
+    public interface PlayerRollListener {
+        void onPlayerRoll(String player, RollSnapshot roll);
+    }
 
-    private String namespace;
+    private final CastTransport transport;
+    private PlayerRollListener playerRollListener;
 
-    public RollDiceChannel(String namespace) {
-        this.namespace = namespace;
+    public RollDiceChannel(String namespace, RollStatistics statistics) {
+        this(namespace, new CastTransport(), statistics);
     }
 
-    public void sendDiceRoll(CastSession session, Pair<Integer, Integer> dice) {
-        String text = String.format("You rolled (%d, %d): %d", dice.first, dice.second, dice.first + dice.second);
+    private RollDiceChannel(String namespace, CastTransport transport, RollStatistics statistics) {
+        super(namespace, transport, new HandlerScheduler(), statistics);
+        this.transport = transport;
+    }
 
-        JSONObject jsonMsg = new JSONObject();
-        try {
-            jsonMsg.put("text", text);
-            jsonMsg.put("die1", dice.first);
-            jsonMsg.put("die2", dice.second);
+    public void setPlayerRollListener(PlayerRollListener listener) {
+        this.playerRollListener = listener;
+    }
+
+    public void open(CastSession session) throws IOException {
+        transport.setSession(session);
+        open();
+    }
+
+    public void sendRoll(CastSession session, RollSnapshot roll) {
+        transport.setSession(session);
+        Perf.begin("send roll");
+        sendRoll(roll);
+        Perf.end();
+        updatePendingCount();
+    }
 
-            session.sendMessage(getNamespace(), jsonMsg.toString()).setResultCallback(
+    /**
+     * Bring the count of messages in flight or waiting for the window up to date, acknowledgements
+     * and timeouts change it without telling the channel.
+     */
+    public void updatePendingCount() {
+        RollSendPipeline pipeline = getPipeline();
+        Perf.COUNTERS.set(PerfCounters.MESSAGES_PENDING,
+              pipeline.getInFlightCount() + (pipeline.hasPending() ? 1 : 0));
+    }
 
-                  new ResultCallback<Status>() {
+    @Override
+    public void close() throws IOException {
+        super.close();
+        Perf.COUNTERS.set(PerfCounters.MESSAGES_PENDING, 0);
+    }
 
-                      @Override
-                      public void onResult(Status result) {
-                          if (!result.isSuccess()) {
-                              Log.e(TAG, "Sending message failed");
-                          }
-                      }
-                  });
-        } catch (JSONException e) {
-            Log.e(TAG, "Exception creating message", e);
+    @Override
+    protected void onPlayerRoll(String player, RollSnapshot roll) {
+        if (playerRollListener != null) {
+            playerRollListener.onPlayerRoll(player, roll);
         }
     }
 
-    public String getNamespace() {
-        return namespace;
+    @Override
+    protected void onSent(int seq) {
+        Perf.COUNTERS.increment(PerfCounters.MESSAGES_SENT);
+        RollLatency.RECORDER.markSent(RollLatency.RECORDER.currentRoll(), seq, RollLatency.now());
     }
 
     @Override
-    public void onMessageReceived(CastDevice castDevice, String namespace, String message) {
-        Log.d(TAG, "onMessageReceived: " + message);
+    protected void onEchoed(int seq) {
+        RollLatency.RECORDER.markEchoed(seq, RollLatency.now());
+    }
+
+    @Override
+    protected void onSendResult(int seq, boolean success) {
+        if (!success) {
+            Perf.COUNTERS.increment(PerfCounters.MESSAGES_FAILED);
+        }
     }
 }
@@ -0,0 +1,238 @@
+package com.honu.dicecast;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.honu.dicecast.core.MappedRollLog;
+import com.honu.dicecast.core.RollLog;
+import com.honu.dicecast.core.RollLogFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Records every standard roll, made on this phone or by another player at the table, in the
+ * persistent roll history file, files/rolls.log.
+ * <p/>
+ * Rolls are queued from the main thread without touching the disk and written in batches on a
+ * background thread. Each batch is written to the file straight away, so it survives the process
+ * being killed; the file is synced to storage at most once every SYNC_INTERVAL_MS, which bounds
+ * how many rolls a power loss can take.
+ * <p/>
+ * There is one history per process so activity restarts never open the file twice.
+ */
+class RollHistory {
+
+    private static final String TAG = RollHistory.class.getSimpleName();
+
+    static final String FILE_NAME = "rolls.log";
+
+    // Shortest time between two syncs of the file to storage (in milliseconds)
+    private static final long SYNC_INTERVAL_MS = 1000;
+
+    // Rolls shown in the dumpsys output
+    private static final int DUMP_ROLLS = 10;
+
+    private static RollHistory instance;
+
+    private final File file;
+    private final Handler handler;
+
+    // Rolls waiting for the writer thread, guarded by this
+    private long[] pendingTimestamps = new long[16];
+    private int[] pendingRolls = new int[16];
+    private int pendingCount;
+    private boolean drainScheduled;
+
+    // Batch being written, swapped with the pending arrays, only touched on the writer thread
+    private long[] writeTimestamps = new long[16];
+    private int[] writeRolls = new int[16];
+    private RollLog log;
+    private boolean failed;
+    private boolean syncScheduled;
+
+    // Mapping read by dump, replaced only once the file has grown, guarded by dumpLock
+    private final Object dumpLock = new Object();
+    private MappedRollLog history;
+    private long historyLength;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable syncTask = new Runnable() {
+        @Override
+        public void run() {
+            syncScheduled = false;
+            sync();
+        }
+    };
+
+    static synchronized RollHistory get(Context context) {
+        if (instance == null) {
+            instance = new RollHistory(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    private RollHistory(File file) {
+        this.file = file;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queue a roll for the log, safe to call from any thread.
+     *
+     * @param source one of the RollLogFormat.SOURCE_ constants
+     */
+    void record(int source, int die1, int die2) {
+        long timestamp = System.currentTimeMillis();
+        synchronized (this) {
+            if (pendingCount == pendingRolls.length) {
+                pendingTimestamps = grow(pendingTimestamps);
+                pendingRolls = grow(pendingRolls);
+            }
+            pendingTimestamps[pendingCount] = timestamp;
+            pendingRolls[pendingCount] = (source << 16) | (die1 << 8) | die2;
+            pendingCount++;
+            if (drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        handler.post(drainTask);
+    }
+
+    private void drain() {
+        long[] timestamps;
+        int[] rolls;
+        int count;
+        synchronized (this) {
+            timestamps = pendingTimestamps;
+            rolls = pendingRolls;
+            count = pendingCount;
+            pendingTimestamps = writeTimestamps;
+            pendingRolls = writeRolls;
+            pendingCount = 0;
+            drainScheduled = false;
+        }
+        writeTimestamps = timestamps;
+        writeRolls = rolls;
+
+        if (!open()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                int roll = rolls[i];
+                log.append(timestamps[i], roll >>> 16, (roll >> 8) & 0xff, roll & 0xff);
+            }
+            log.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing roll history", e);
+        }
+
+        if (!syncScheduled) {
+            syncScheduled = true;
+            handler.postDelayed(syncTask, SYNC_INTERVAL_MS);
+        }
+    }
+
+    private void sync() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Error syncing roll history", e);
+        }
+    }
+
+    // the log is opened lazily on the writer thread, and left alone after an error
+    private boolean open() {
+        if (log == null && !failed) {
+            try {
+                log = new RollLog(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Roll history unavailable", e);
+                failed = true;
+            }
+        }
+        return log != null;
+    }
+
+    /**
+     * Print the last rolls and the sum distribution of the whole history.
+     */
+    void dump(String prefix, PrintWriter writer) {
+        synchronized (dumpLock) {
+            dumpLocked(prefix, writer);
+        }
+    }
+
+    private void dumpLocked(String prefix, PrintWriter writer) {
+        long length = file.length();
+        if (length == 0) {
+            writer.println(prefix + "Roll history: empty");
+            return;
+        }
+
+        // a mapping covers the rolls written when it was made, map again only to see later ones
+        if (history == null || length != historyLength) {
+            try {
+                history = new MappedRollLog(file);
+                historyLength = length;
+            } catch (IOException e) {
+                writer.println(prefix + "Roll history: " + e.getMessage());
+                return;
+            }
+        }
+
+        writer.println(prefix + "Roll history: " + history.size() + " rolls");
+
+        long[] timestamps = new long[DUMP_ROLLS];
+        int[] sources = new int[DUMP_ROLLS];
+        int[] dice1 = new int[DUMP_ROLLS];
+        int[] dice2 = new int[DUMP_ROLLS];
+        int count = history.readLast(DUMP_ROLLS, timestamps, sources, dice1, dice2);
+        DateFormat format = DateFormat.getDateTimeInstance();
+        for (int i = count - 1; i >= 0; i--) {
+            writer.println(prefix + "  " + format.format(new Date(timestamps[i])) + " "
+                  + RollLogFormat.sourceName(sources[i]) + " " + dice1[i] + " + " + dice2[i]);
+        }
+
+        long[] sums = new long[MappedRollLog.MAX_SUM + 1];
+        history.sumDistribution(0, history.size(), sums);
+        StringBuilder line = new StringBuilder(prefix).append("  sums:");
+        for (int sum = 0; sum < sums.length; sum++) {
+            if (sums[sum] != 0) {
+                line.append(' ').append(sum).append('=').append(sums[sum]);
+            }
+        }
+        writer.println(line);
+    }
+
+    private static long[] grow(long[] array) {
+        long[] grown = new long[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
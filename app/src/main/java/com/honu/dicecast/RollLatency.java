@@ -0,0 +1,52 @@
+package com.honu.dicecast;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.honu.dicecast.core.LatencyRecorder;
+
+/**
+ * Shared shake-to-screen latency recorder, dumped with
+ * adb shell dumpsys activity com.honu.dicecast/.MainActivity
+ */
+final class RollLatency {
+
+    static final LatencyRecorder RECORDER = new LatencyRecorder();
+
+    // Clock of SensorEvent timestamps, detected from the first one converted
+    private static final int SENSOR_CLOCK_UNKNOWN = 0;
+    private static final int SENSOR_CLOCK_ELAPSED = 1;
+    private static final int SENSOR_CLOCK_MONOTONIC = 2;
+    private static volatile int sensorClock = SENSOR_CLOCK_UNKNOWN;
+
+    private RollLatency() {
+    }
+
+    /**
+     * Current time in nanoseconds, on the clock used for SensorEvent timestamps on most devices.
+     */
+    static long now() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
+    /**
+     * Convert a SensorEvent timestamp to the clock of {@link #now()}. Some devices stamp sensor
+     * events with CLOCK_MONOTONIC (System.nanoTime), which stops while the device is suspended,
+     * instead of elapsed realtime. The first timestamp decides which: it is taken to be on the
+     * clock it is closer to, the two being apart by the time spent suspended since boot.
+     */
+    static long fromSensorTimestamp(long timestamp) {
+        long now = now();
+        long monotonic = System.nanoTime();
+        int clock = sensorClock;
+        if (clock == SENSOR_CLOCK_UNKNOWN) {
+            clock = Math.abs(now - timestamp) <= Math.abs(monotonic - timestamp)
+                  ? SENSOR_CLOCK_ELAPSED : SENSOR_CLOCK_MONOTONIC;
+            sensorClock = clock;
+        }
+        return clock == SENSOR_CLOCK_ELAPSED ? timestamp : timestamp + (now - monotonic);
+    }
+}
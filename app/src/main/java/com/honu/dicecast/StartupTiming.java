@@ -0,0 +1,89 @@
+package com.honu.dicecast;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cold start milestones of the process, in milliseconds since it started, dumped with
+ * adb shell dumpsys activity com.honu.dicecast/.MainActivity
+ * <p/>
+ * Only the first time each milestone is reached counts, later marks cost one volatile read. The first roll is also logged, e.g.
+ * "Startup: first roll +850ms", so it can be watched with logcat.
+ */
+final class StartupTiming {
+
+    private static final String TAG = StartupTiming.class.getSimpleName();
+
+    static final int CREATED = 0;
+    static final int FIRST_FRAME = 1;
+    static final int CAST_READY = 2;
+    static final int SENSORS_READY = 3;
+    static final int FIRST_ROLL = 4;
+
+    private static final String[] NAMES = {"activity created", "first frame", "cast ready", "sensors ready", "first roll"};
+
+    // Process start on the elapsed realtime clock, class load time before API 24
+    private static final long START = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+          ? Process.getStartElapsedRealtime()
+          : SystemClock.elapsedRealtime();
+
+    // Zero until reached
+    private static final AtomicLongArray marks = new AtomicLongArray(NAMES.length);
+
+    private StartupTiming() {
+    }
+
+    /**
+     * Record that a milestone was reached, safe to call from any thread.
+     */
+    static void mark(int milestone) {
+        if (marks.get(milestone) != 0) {
+            return;
+        }
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - START);
+        if (marks.compareAndSet(milestone, 0, elapsed) && milestone == FIRST_ROLL) {
+            Log.i(TAG, "Startup: first roll +" + elapsed + "ms");
+        }
+    }
+
+    /**
+     * When a milestone was reached, 0 until it is.
+     */
+    static long get(int milestone) {
+        return marks.get(milestone);
+    }
+
+    /**
+     * Milliseconds since the process started, on the clock of the milestones.
+     */
+    static long now() {
+        return SystemClock.elapsedRealtime() - START;
+    }
+
+    /**
+     * Forget every milestone, so that StartupTest can time a launch in a process that already
+     * launched the activity.
+     */
+    static void reset() {
+        for (int i = 0; i < NAMES.length; i++) {
+            marks.set(i, 0);
+        }
+    }
+
+    static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("Startup:");
+        for (int i = 0; i < NAMES.length; i++) {
+            long mark = marks.get(i);
+            writer.print(i == 0 ? " " : ", ");
+            writer.print(NAMES[i]);
+            writer.print(mark == 0 ? " -" : " +" + mark + "ms");
+        }
+        writer.println();
+    }
+}
@@ -0,0 +1,55 @@
+package com.honu.dicecast.core;
+
+import java.util.Random;
+
+/**
+ * Synthetic accelerometer streams for benchmarks: a phone resting on a table with periodic
+ * shake bursts, sampled at roughly SENSOR_DELAY_UI rate.
+ */
+final class AccelerometerTraces {
+
+    static final float GRAVITY = 9.81f;
+
+    // SENSOR_DELAY_UI delivers about 16 samples per second
+    static final long SAMPLE_PERIOD_NS = 60000000L;
+
+    final long[] timestamps;
+    final float[] x;
+    final float[] y;
+    final float[] z;
+
+    private AccelerometerTraces(int samples) {
+        timestamps = new long[samples];
+        x = new float[samples];
+        y = new float[samples];
+        z = new float[samples];
+    }
+
+    int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Generate a resting phone with a one second shake every shakeEverySamples samples.
+     */
+    static AccelerometerTraces restingWithShakes(int samples, int shakeEverySamples, long seed) {
+        Random random = new Random(seed);
+        AccelerometerTraces trace = new AccelerometerTraces(samples);
+        int shakeLength = (int) (1000000000L / SAMPLE_PERIOD_NS);
+        for (int i = 0; i < samples; i++) {
+            trace.timestamps[i] = i * SAMPLE_PERIOD_NS;
+            float noise = 0.05f;
+            trace.x[i] = (float) random.nextGaussian() * noise;
+            trace.y[i] = (float) random.nextGaussian() * noise;
+            trace.z[i] = GRAVITY + (float) random.nextGaussian() * noise;
+
+            if (i % shakeEverySamples < shakeLength) {
+                // vigorous back and forth motion along x, roughly 4 Hz
+                float phase = (float) (2 * Math.PI * 4 * (i % shakeEverySamples) * SAMPLE_PERIOD_NS / 1e9);
+                trace.x[i] += 15f * (float) Math.sin(phase);
+                trace.y[i] += 4f * (float) Math.cos(phase);
+            }
+        }
+        return trace;
+    }
+}
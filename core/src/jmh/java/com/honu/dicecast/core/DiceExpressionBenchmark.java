@@ -0,0 +1,58 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling a dice expression: re-parsing the notation on every roll against a compiled
+ * DiceExpression, and the cost of finding a compiled expression in the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DiceExpressionBenchmark {
+
+    @Param({"4d6kh3+2", "2d20kl1", "d100", "3d6!"})
+    String notation;
+
+    private final Random random = new SplitMix64(42);
+    private final DiceExpressionCache cache = new DiceExpressionCache();
+    private DiceExpression expression;
+    private int[] dice;
+
+    @Setup
+    public void setUp() {
+        expression = DiceExpression.compile(notation);
+        dice = new int[expression.getDiceCount()];
+        cache.compile(notation);
+    }
+
+    @Benchmark
+    public int interpret() {
+        return NaiveDiceInterpreter.roll(notation, random);
+    }
+
+    @Benchmark
+    public int compiled() {
+        return expression.roll(random, dice);
+    }
+
+    @Benchmark
+    public int cachedCompile() {
+        return cache.compile(notation).roll(random, dice);
+    }
+
+    @Benchmark
+    public DiceExpression compile() {
+        return DiceExpression.compile(notation);
+    }
+}
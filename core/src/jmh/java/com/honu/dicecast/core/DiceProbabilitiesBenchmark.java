@@ -0,0 +1,67 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exact odds queries served from the cache, one more die than a cached distribution, and
+ * distributions computed from scratch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class DiceProbabilitiesBenchmark {
+
+    @Param({"2", "10", "100", "300"})
+    int count;
+
+    private final DiceProbabilities probabilities = new DiceProbabilities();
+    private int sum;
+
+    @Setup
+    public void setUp() {
+        probabilities.distribution(count, 6);
+        probabilities.distribution(count - 1 > 0 ? count - 1 : 1, 6);
+        sum = count * 7 / 2;
+    }
+
+    @Benchmark
+    public double cachedAtLeast() {
+        return probabilities.probabilityAtLeast(count, 6, 2, sum);
+    }
+
+    /**
+     * A fresh engine holding count - 1 dice before every call, so the query is one convolution
+     * step. Per-invocation setup adds timer overhead, which matters only for the smallest counts.
+     */
+    @State(Scope.Thread)
+    public static class Prefix {
+
+        DiceProbabilities engine;
+
+        @Setup(Level.Invocation)
+        public void setUp(DiceProbabilitiesBenchmark benchmark) {
+            engine = new DiceProbabilities();
+            engine.distribution(Math.max(benchmark.count - 1, 1), 6);
+        }
+    }
+
+    @Benchmark
+    public double incremental(Prefix prefix) {
+        return prefix.engine.probability(count, 6, 0, sum);
+    }
+
+    @Benchmark
+    public DiceDistribution compute() {
+        return DiceProbabilities.compute(count, 6);
+    }
+}
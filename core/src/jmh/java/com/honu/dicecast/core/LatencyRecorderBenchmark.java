@@ -0,0 +1,34 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of stamping every stage of a roll, which runs on the UI thread for each roll.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LatencyRecorderBenchmark {
+
+    private final LatencyRecorder recorder = new LatencyRecorder();
+    private long now = 1;
+    private int seq;
+
+    @Benchmark
+    public int recordRoll() {
+        long t = now;
+        int roll = recorder.beginRoll(t, t + 2000000);
+        recorder.mark(roll, LatencyRecorder.STAGE_RENDERED, t + 5000000);
+        recorder.markSent(roll, ++seq, t + 5100000);
+        recorder.markEchoed(seq, t + 40000000);
+        now = t + 100000000;
+        return roll;
+    }
+}
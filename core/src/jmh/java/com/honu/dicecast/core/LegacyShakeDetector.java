@@ -0,0 +1,106 @@
+package com.honu.dicecast.core;
+
+/**
+ * The per-event, array based shake detection DiceShaker used before ShakeDetector gained its
+ * bulk path, kept as the baseline for ShakeDetectorBenchmark and to check both agree.
+ */
+final class LegacyShakeDetector {
+
+    private static final int MIN_ACCELERATION = AxisThresholdDetector.MIN_ACCELERATION;
+    private static final int MIN_MOVEMENTS = AxisThresholdDetector.MIN_MOVEMENTS;
+    private static final long SHAKE_PAUSE_NS = ShakeDetector.SHAKE_PAUSE_NS;
+
+    // Indexes for x, y, and z values
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int Z = 2;
+
+    private final float minAcceleration;
+    private final int minMovements;
+
+    // Initialized to -1 to suppress the very first event when values are initialized
+    int moveCount = -1;
+
+    // Arrays to store gravity and linear acceleration values
+    private float[] mGravity = {0.0f, 0.0f, 0.0f};
+    private float[] mLinearAcceleration = {0.0f, 0.0f, 0.0f};
+
+    private long lastEventTime = 0;
+
+    LegacyShakeDetector() {
+        this(MIN_ACCELERATION, MIN_MOVEMENTS);
+    }
+
+    LegacyShakeDetector(float minAcceleration, int minMovements) {
+        this.minAcceleration = minAcceleration;
+        this.minMovements = minMovements;
+    }
+
+    /**
+     * Process one accelerometer sample.
+     *
+     * @param timestamp sample time in nanoseconds
+     * @return true if this sample completes a shake
+     */
+    boolean onSample(long timestamp, float x, float y, float z) {
+        // Enforce pause between rolls
+        if (timestamp < lastEventTime + SHAKE_PAUSE_NS) {
+            return false;
+        }
+
+        // Update current values
+        setCurrentAcceleration(x, y, z);
+
+        // Get the max linear acceleration in any direction
+        float maxLinearAcceleration = getMaxCurrentLinearAcceleration();
+
+        // Check if the acceleration is greater than our minimum threshold
+        if (maxLinearAcceleration > minAcceleration) {
+            moveCount++;
+
+            // Enforce a minimum number of movements
+            if (moveCount >= minMovements) {
+                resetShakeDetection();
+                lastEventTime = timestamp;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void setCurrentAcceleration(float x, float y, float z) {
+        final float alpha = 0.8f;
+
+        // Gravity components of x, y, and z acceleration
+        mGravity[X] = alpha * mGravity[X] + (1 - alpha) * x;
+        mGravity[Y] = alpha * mGravity[Y] + (1 - alpha) * y;
+        mGravity[Z] = alpha * mGravity[Z] + (1 - alpha) * z;
+
+        // Linear acceleration along the x, y, and z axes (gravity effects removed)
+        mLinearAcceleration[X] = x - mGravity[X];
+        mLinearAcceleration[Y] = y - mGravity[Y];
+        mLinearAcceleration[Z] = z - mGravity[Z];
+    }
+
+    private float getMaxCurrentLinearAcceleration() {
+        // Start by setting the value to the x value
+        float maxLinearAcceleration = mLinearAcceleration[X];
+
+        // Check if the y value is greater
+        if (mLinearAcceleration[Y] > maxLinearAcceleration) {
+            maxLinearAcceleration = mLinearAcceleration[Y];
+        }
+
+        // Check if the z value is greater
+        if (mLinearAcceleration[Z] > maxLinearAcceleration) {
+            maxLinearAcceleration = mLinearAcceleration[Z];
+        }
+
+        // Return the greatest value
+        return maxLinearAcceleration;
+    }
+
+    private void resetShakeDetection() {
+        moveCount = 0;
+    }
+}
@@ -0,0 +1,29 @@
+package com.honu.dicecast.core;
+
+/**
+ * The latest roll kept in mutable fields behind a lock, the way DiceViewModel held it before
+ * rolls were published as snapshots, kept as the baseline for RollStateContentionBenchmark.
+ */
+final class LockedRollState {
+
+    private final int[] dice = new int[2];
+    private int total;
+    private long version;
+
+    synchronized long roll(DiceRoller roller) {
+        total = roller.rollInto(dice);
+        return ++version;
+    }
+
+    /**
+     * Copy die1, die2 and the total to into[0..3).
+     *
+     * @return the version of the roll copied
+     */
+    synchronized long read(int[] into) {
+        into[0] = dice[0];
+        into[1] = dice[1];
+        into[2] = total;
+        return version;
+    }
+}
@@ -0,0 +1,61 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the Monte Carlo simulation with the number of fork-join threads. Each operation is
+ * ROLLS rolls of 2d6, so rolls per second is ROLLS divided by the time per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class MonteCarloBenchmark {
+
+    static final long ROLLS = 10000000L;
+    static final long SEED = 42;
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new ForkJoinPool(threads);
+
+        // the result must not depend on the number of threads
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            long[] expected = new MonteCarloSimulation(2, 6, ROLLS, SEED).run(single);
+            long[] actual = new MonteCarloSimulation(2, 6, ROLLS, SEED).run(pool);
+            if (!Arrays.equals(expected, actual)) {
+                throw new IllegalStateException("result differs with " + threads + " threads");
+            }
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public long[] simulate() {
+        return new MonteCarloSimulation(2, 6, ROLLS, SEED).run(pool);
+    }
+}
@@ -0,0 +1,59 @@
+package com.honu.dicecast.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A straightforward interpreter that parses the notation with a regex on every roll and collects
+ * the dice in boxed lists, kept as the baseline for DiceExpressionBenchmark. Supports NdM, d%,
+ * kh/kl, ! and constants, which is all the benchmark uses.
+ */
+final class NaiveDiceInterpreter {
+
+    private static final Pattern TERM = Pattern.compile("([+-]?)(?:(\\d*)d(\\d+|%)(k[hl]?\\d+)?(!)?|(\\d+))");
+
+    private NaiveDiceInterpreter() {
+    }
+
+    static int roll(String notation, Random random) {
+        Matcher matcher = TERM.matcher(notation.replace(" ", "").toLowerCase());
+        int total = 0;
+        while (matcher.find()) {
+            int sign = "-".equals(matcher.group(1)) ? -1 : 1;
+            if (matcher.group(6) != null) {
+                total += sign * Integer.parseInt(matcher.group(6));
+                continue;
+            }
+            int count = matcher.group(2).isEmpty() ? 1 : Integer.parseInt(matcher.group(2));
+            int sides = "%".equals(matcher.group(3)) ? 100 : Integer.parseInt(matcher.group(3));
+            boolean explode = matcher.group(5) != null;
+
+            List<Integer> dice = new ArrayList<Integer>();
+            for (int i = 0; i < count; i++) {
+                int face = random.nextInt(sides) + 1;
+                int value = face;
+                for (int n = 0; explode && face == sides && n < DiceExpression.MAX_EXPLOSIONS; n++) {
+                    face = random.nextInt(sides) + 1;
+                    value += face;
+                }
+                dice.add(value);
+            }
+
+            String keep = matcher.group(4);
+            if (keep != null) {
+                Collections.sort(dice, Collections.<Integer>reverseOrder());
+                boolean lowest = keep.startsWith("kl");
+                int n = Integer.parseInt(keep.replaceAll("\\D", ""));
+                dice = lowest ? dice.subList(dice.size() - n, dice.size()) : dice.subList(0, n);
+            }
+            for (Integer value : dice) {
+                total += sign * value;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,46 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of counting on the sensor thread: a single-writer counter against an atomic increment,
+ * the two clock reads around a sample, and taking a snapshot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PerfCountersBenchmark {
+
+    private final PerfCounters counters = new PerfCounters();
+    private final AtomicLong atomic = new AtomicLong();
+
+    @Benchmark
+    public void increment() {
+        counters.increment(PerfCounters.SENSOR_SAMPLES);
+    }
+
+    @Benchmark
+    public long atomicIncrement() {
+        return atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    public void timedSample() {
+        long start = System.nanoTime();
+        counters.increment(PerfCounters.SENSOR_SAMPLES);
+        counters.add(PerfCounters.SENSOR_NANOS, System.nanoTime() - start);
+    }
+
+    @Benchmark
+    public PerfCounters.Snapshot snapshot() {
+        return counters.snapshot(System.nanoTime());
+    }
+}
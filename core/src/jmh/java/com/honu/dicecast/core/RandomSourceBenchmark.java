@@ -0,0 +1,57 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each random generator: a single face, a roll of the standard dice, a roll of
+ * a 10d6 expression, and a face drawn and fed to the fairness verifier.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class RandomSourceBenchmark {
+
+    @Param({"RANDOM", "SPLITMIX64", "XOSHIRO256", "SECURE"})
+    public RandomSource source;
+
+    private final DiceExpression expression = DiceExpression.compile("10d6");
+    private final int[] dice = new int[expression.getDiceCount()];
+    private final FairnessVerifier verifier = new FairnessVerifier(6);
+
+    private DiceRoller roller;
+
+    @Setup
+    public void setUp() {
+        roller = new DiceRoller(2, 6, source.isDeterministic() ? source.create(42) : source.create());
+    }
+
+    @Benchmark
+    public int face() {
+        return roller.nextFace();
+    }
+
+    @Benchmark
+    public int roll() {
+        return roller.rollInto(dice);
+    }
+
+    @Benchmark
+    public int rollExpression() {
+        return expression.roll(roller.getRandom(), dice);
+    }
+
+    @Benchmark
+    public long verify() {
+        verifier.add(roller.nextFace());
+        return verifier.getDraws();
+    }
+}
@@ -0,0 +1,50 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling two six-sided dice: the original new-Random-and-box roll against DiceRoller.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class RollBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private final DiceRoller roller = new DiceRoller(2, 6);
+    private final int[] dice = new int[2];
+    private final int[] batch = new int[BATCH * 2];
+
+    @Benchmark
+    public Map.Entry<Integer, Integer> legacyRoll() {
+        Random random = new Random();
+        int x1 = random.nextInt(6) + 1;
+        int x2 = random.nextInt(6) + 1;
+
+        return new AbstractMap.SimpleImmutableEntry<Integer, Integer>(x1, x2);
+    }
+
+    @Benchmark
+    public int rollInto() {
+        return roller.rollInto(dice);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int[] rollBatch() {
+        roller.rollBatch(batch, BATCH);
+        return batch;
+    }
+}
@@ -0,0 +1,86 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one roll at a table: submitting it to the hub and fanning it out to every member,
+ * and a member that fell a whole ring behind catching up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RollHubBenchmark {
+
+    @Param({"12", "200"})
+    public int members;
+
+    private RollHub hub;
+    private RollHub.Member[] seated;
+    private RollHub.Member lagging;
+    private long delivered;
+
+    private final RollHub.Sink sink = new RollHub.Sink() {
+        @Override
+        public void deliver(String message) {
+            delivered += message.length();
+        }
+    };
+
+    private final String[] rolls = new String[36];
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        hub = new RollHub(RollHub.DEFAULT_CAPACITY, RollHub.DEFAULT_SHARDS);
+        seated = new RollHub.Member[members];
+        for (int i = 0; i < members; i++) {
+            seated[i] = hub.join("sender-" + i);
+            hub.poll(seated[i], sink);
+        }
+        lagging = hub.join("lagging");
+        hub.poll(lagging, sink);
+        RollMessageEncoder encoder = new RollMessageEncoder();
+        for (int i = 0; i < rolls.length; i++) {
+            rolls[i] = encoder.message(RollMessageEncoder.FORMAT_COMPACT, i + 1, i / 6 + 1, i % 6 + 1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (delivered == 0) {
+            throw new IllegalStateException("nothing delivered");
+        }
+    }
+
+    @Benchmark
+    public long submitAndFanOut() throws Exception {
+        RollHub.Member from = seated[next % members];
+        long order = hub.submit(from, rolls[next++ % rolls.length]);
+        for (RollHub.Member member : seated) {
+            hub.poll(member, sink);
+        }
+        return order;
+    }
+
+    @Benchmark
+    public int resync() throws Exception {
+        for (int i = 0; i <= RollHub.DEFAULT_CAPACITY; i++) {
+            hub.submit(seated[i % members], rolls[i % rolls.length]);
+        }
+        int count = hub.poll(lagging, sink);
+        for (RollHub.Member member : seated) {
+            hub.poll(member, sink);
+        }
+        return count;
+    }
+}
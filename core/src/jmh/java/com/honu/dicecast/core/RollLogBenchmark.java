@@ -0,0 +1,129 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append throughput and query latency of the roll history on a 10 million roll log.
+ */
+public class RollLogBenchmark {
+
+    static final int ROLLS = 10000000;
+
+    // Start of the generated history and time between rolls (in milliseconds)
+    static final long START = 1500000000000L;
+    static final long ROLL_PERIOD = 3000;
+
+    /**
+     * Appends to a fresh log, written out as RollHistory does but without syncing.
+     */
+    @State(Scope.Thread)
+    public static class Appender {
+
+        File file;
+        RollLog log;
+        long timestamp = START;
+        int roll;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            file = File.createTempFile("rolls", ".log");
+            file.delete();
+            log = new RollLog(file);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            log.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * A mapped log of ROLLS rolls.
+     */
+    @State(Scope.Benchmark)
+    public static class History {
+
+        File file;
+        MappedRollLog history;
+
+        final long[] timestamps = new long[100];
+        final int[] sources = new int[100];
+        final int[] dice1 = new int[100];
+        final int[] dice2 = new int[100];
+        final long[] sums = new long[MappedRollLog.MAX_SUM + 1];
+
+        @Setup(Level.Trial)
+        public void create() throws IOException {
+            file = File.createTempFile("rolls", ".log");
+            file.delete();
+            Random random = new Random(42);
+            RollLog log = new RollLog(file);
+            try {
+                for (int i = 0; i < ROLLS; i++) {
+                    log.append(START + i * ROLL_PERIOD, RollLogFormat.SOURCE_TAP + random.nextInt(2),
+                          1 + random.nextInt(6), 1 + random.nextInt(6));
+                }
+            } finally {
+                log.close();
+            }
+            history = new MappedRollLog(file);
+            if (history.size() != ROLLS) {
+                throw new IllegalStateException("expected " + ROLLS + " rolls, found " + history.size());
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long append(Appender state) throws IOException {
+        int roll = state.roll++;
+        state.log.append(state.timestamp += ROLL_PERIOD, RollLogFormat.SOURCE_SHAKE, 1 + roll % 6, 1 + (roll >> 3) % 6);
+        return state.log.size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int lastHundred(History state) {
+        return state.history.readLast(100, state.timestamps, state.sources, state.dice1, state.dice2);
+    }
+
+    /**
+     * Rolls in one hour somewhere in the middle of the log.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int hourSumDistribution(History state) {
+        long from = START + (ROLLS / 2) * ROLL_PERIOD;
+        return state.history.sumDistributionBetween(from, from + 3600000L, state.sums);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long[] fullSumDistribution(History state) {
+        state.history.sumDistribution(0, state.history.size(), state.sums);
+        return state.sums;
+    }
+}
@@ -0,0 +1,89 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the receiver payload for a roll. The encode and cached message benchmarks
+ * should report no allocation (gc.alloc.rate.norm of ~0 B/op) after warm-up; a sequenced message
+ * allocates only the String handed to the transport.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class RollMessageBenchmark {
+
+    private final int[] rolls = new int[1024];
+    private final RollMessageEncoder encoder = new RollMessageEncoder();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        new DiceRoller(2, 6).rollBatch(rolls, rolls.length / 2);
+
+        // the encoder must stay byte-identical to the original payload
+        for (int die1 = 1; die1 <= 9; die1++) {
+            for (int die2 = 1; die2 <= 9; die2++) {
+                String expected = legacyJson(die1, die2);
+                String actual = encoder.message(RollMessageEncoder.FORMAT_JSON, 0, die1, die2);
+                if (!expected.equals(actual)) {
+                    throw new IllegalStateException("expected " + expected + " but encoded " + actual);
+                }
+            }
+        }
+    }
+
+    // The payload as built by String.format and JSONObject before RollMessageEncoder
+    private static String legacyJson(int die1, int die2) {
+        String text = String.format("You rolled (%d, %d): %d", die1, die2, die1 + die2);
+        return new StringBuilder(64)
+              .append("{\"text\":\"").append(text)
+              .append("\",\"die1\":").append(die1)
+              .append(",\"die2\":").append(die2)
+              .append('}')
+              .toString();
+    }
+
+    private int next() {
+        int i = index;
+        index = (i + 2) & (rolls.length - 1);
+        return i;
+    }
+
+    @Benchmark
+    public String legacy() {
+        int i = next();
+        return legacyJson(rolls[i], rolls[i + 1]);
+    }
+
+    @Benchmark
+    public int encodeJson() {
+        int i = next();
+        return encoder.encode(RollMessageEncoder.FORMAT_JSON, i + 1, rolls[i], rolls[i + 1]);
+    }
+
+    @Benchmark
+    public int encodeCompact() {
+        int i = next();
+        return encoder.encode(RollMessageEncoder.FORMAT_COMPACT, i + 1, rolls[i], rolls[i + 1]);
+    }
+
+    @Benchmark
+    public String messageJson() {
+        int i = next();
+        return encoder.message(RollMessageEncoder.FORMAT_JSON, 0, rolls[i], rolls[i + 1]);
+    }
+
+    @Benchmark
+    public String messageSequenced() {
+        int i = next();
+        return encoder.message(RollMessageEncoder.FORMAT_JSON, i + 1, rolls[i], rolls[i + 1]);
+    }
+}
@@ -0,0 +1,86 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving the latest roll to the memory-mapped state file after every roll, which should not
+ * allocate (check gc.alloc.rate.norm), and restoring it from an open or a freshly opened file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RollStateBenchmark {
+
+    private final DiceExpression expression = DiceExpression.compile("4d6kh3+2");
+    private final int[] dice = new int[expression.getDiceCount()];
+    private final int[] restored = new int[DiceExpression.MAX_DICE];
+    private final SplitMix64 random = new SplitMix64(42);
+
+    private File file;
+    private RollStateFile state;
+    private int face;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("roll", ".state");
+        state = new RollStateFile(file);
+        expression.roll(random, dice);
+        state.writeDice(3, 4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void writeDice() {
+        face = face == 6 ? 1 : face + 1;
+        state.writeDice(face, 7 - face);
+    }
+
+    @Benchmark
+    public void writeExpression() {
+        int total = expression.roll(random, dice);
+        state.writeExpression(expression.getNotation(), total, dice, expression.getDiceCount());
+    }
+
+    @Benchmark
+    public int restoreDice() {
+        return state.getKind() == RollStateFile.KIND_DICE ? state.getDie1() * 8 + state.getDie2() : -1;
+    }
+
+    /**
+     * Cold restart: open and map the file, then read the roll. Timed one call at a time, mappings
+     * are only released by the garbage collector and would pile up in a timed loop.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 50)
+    public int openAndRestore() throws IOException {
+        RollStateFile opened = new RollStateFile(file);
+        switch (opened.getKind()) {
+            case RollStateFile.KIND_DICE:
+                return opened.getDie1() * 8 + opened.getDie2();
+            case RollStateFile.KIND_EXPRESSION:
+                return opened.getTotal() + opened.readDice(restored);
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two threads rolling while two others read the latest roll, with rolls published as snapshots
+ * by RollState and, as the baseline, kept behind a lock by LockedRollState.
+ * <p/>
+ * RollStateTest is the stress test; the checks here only make sure a correct run was measured.
+ * A thread must never see versions go backwards, a pair of dice must add up to the total read
+ * with it, and at the end the version must equal the number of rolls. The trial fails with an
+ * IllegalStateException otherwise.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Group)
+public class RollStateContentionBenchmark {
+
+    // Checks failed over the trial by every thread of the group
+    private final AtomicLong violations = new AtomicLong();
+
+    // Rolling threads, their rolls are added up at the end
+    private final Queue<Roller> rollers = new ConcurrentLinkedQueue<Roller>();
+
+    private final RollState state = new RollState();
+    private final LockedRollState locked = new LockedRollState();
+
+    @State(Scope.Thread)
+    public static class Roller {
+
+        private static final AtomicLong seeds = new AtomicLong();
+
+        final DiceRoller roller = new DiceRoller(2, 6, new SplitMix64(seeds.incrementAndGet()));
+        private RollStateContentionBenchmark group;
+        private long version;
+        private long count;
+
+        void rolled(RollStateContentionBenchmark benchmark, long rolledVersion) {
+            if (group != benchmark) {
+                group = benchmark;
+                benchmark.rollers.add(this);
+            }
+            if (rolledVersion <= version) {
+                benchmark.violations.incrementAndGet();
+            }
+            version = rolledVersion;
+            count++;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+
+        final int[] read = new int[3];
+        private long version;
+
+        void read(RollStateContentionBenchmark benchmark, long readVersion, int die1, int die2, int total) {
+            if (readVersion < version || (readVersion != 0 && die1 + die2 != total)) {
+                benchmark.violations.incrementAndGet();
+            }
+            version = readVersion;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long rolls = 0;
+        for (Roller roller : rollers) {
+            rolls += roller.count;
+        }
+        // only one of the two is rolled in a group
+        long version = Math.max(state.getVersion(), locked.read(new int[3]));
+        if (violations.get() != 0 || version != rolls) {
+            throw new IllegalStateException(violations.get() + " inconsistent reads or rolls, version "
+                  + version + " after " + rolls + " rolls");
+        }
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(2)
+    public RollSnapshot snapshotRoll(Roller roller) {
+        RollSnapshot roll = state.roll(roller.roller, null);
+        roller.rolled(this, roll.getVersion());
+        return roll;
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(2)
+    public RollSnapshot snapshotRead(Reader reader) {
+        RollSnapshot roll = state.get();
+        reader.read(this, roll.getVersion(), roll.getDie1(), roll.getDie2(), roll.getTotal());
+        return roll;
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(2)
+    public long lockedRoll(Roller roller) {
+        long version = locked.roll(roller.roller);
+        roller.rolled(this, version);
+        return version;
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(2)
+    public long lockedRead(Reader reader) {
+        int[] read = reader.read;
+        long version = locked.read(read);
+        reader.read(this, version, read[0], read[1], read[2]);
+        return version;
+    }
+}
@@ -0,0 +1,48 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of updating the roll statistics on each roll, and of the snapshot and message sent to the
+ * receiver after it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RollStatisticsBenchmark {
+
+    private final DiceRoller roller = new DiceRoller(2, 6);
+    private final int[] dice = new int[2];
+    private final RollStatistics statistics = new RollStatistics(2, 6);
+    private final RollStatistics.Snapshot snapshot = statistics.newSnapshot();
+    private final RollStatisticsEncoder encoder = new RollStatisticsEncoder();
+
+    @Benchmark
+    public int roll() {
+        return roller.rollInto(dice);
+    }
+
+    @Benchmark
+    public int rollAndRecord() {
+        int sum = roller.rollInto(dice);
+        statistics.record(dice);
+        return sum;
+    }
+
+    @Benchmark
+    public RollStatistics.Snapshot snapshot() {
+        return statistics.snapshot(snapshot);
+    }
+
+    @Benchmark
+    public String message() {
+        return encoder.message(statistics.snapshot(snapshot));
+    }
+}
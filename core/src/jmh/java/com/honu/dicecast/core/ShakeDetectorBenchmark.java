@@ -0,0 +1,126 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample cost of shake detection over a synthetic accelerometer stream: the original
+ * per-event detector, ShakeDetector one sample at a time, in FIFO-sized batches and in bulk
+ * over a whole trace.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ShakeDetectorBenchmark {
+
+    // One minute at SENSOR_DELAY_UI rate
+    private static final int SAMPLES = 16 * 60;
+
+    // Samples per delivery at SENSOR_DELAY_UI with a 200 ms max report latency, rounded up
+    private static final int BATCH = 4;
+
+    private AccelerometerTraces trace;
+    private ShakeDetector detector;
+    private LegacyShakeDetector legacy;
+    private SampleBatch batch;
+    private long[] shiftedTimestamps;
+    private long timeOffset;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        trace = AccelerometerTraces.restingWithShakes(SAMPLES, 16 * 5, 42);
+        detector = new AxisThresholdDetector();
+        legacy = new LegacyShakeDetector();
+        batch = new SampleBatch();
+        shiftedTimestamps = new long[SAMPLES];
+        timeOffset = 0;
+        index = 0;
+
+        checkBulkMatchesLegacy();
+    }
+
+    // the bulk path must detect exactly the same shakes as the original detector
+    private static void checkBulkMatchesLegacy() {
+        for (int seed = 0; seed < 20; seed++) {
+            AccelerometerTraces t = AccelerometerTraces.restingWithShakes(SAMPLES * 4, 16 * (2 + seed % 5), seed);
+            LegacyShakeDetector expected = new LegacyShakeDetector();
+            ShakeDetector actual = new AxisThresholdDetector();
+            long[] shakes = new long[t.size()];
+            long[] chunkShakes = new long[t.size()];
+            int found = 0;
+            // feed the bulk detector in uneven chunks
+            for (int from = 0; from < t.size(); from += 7 + seed) {
+                int count = Math.min(7 + seed, t.size() - from);
+                int chunkFound = actual.onSamples(t.timestamps, t.x, t.y, t.z, from, count, chunkShakes);
+                System.arraycopy(chunkShakes, 0, shakes, found, chunkFound);
+                found += chunkFound;
+            }
+            int legacyFound = 0;
+            for (int i = 0; i < t.size(); i++) {
+                if (expected.onSample(t.timestamps[i], t.x[i], t.y[i], t.z[i])) {
+                    if (legacyFound >= found || shakes[legacyFound] != t.timestamps[i]) {
+                        throw new IllegalStateException("bulk detection differs from legacy for seed " + seed);
+                    }
+                    legacyFound++;
+                }
+            }
+            if (legacyFound != found) {
+                throw new IllegalStateException("bulk detection differs from legacy for seed " + seed);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean legacyOnSample() {
+        int i = index;
+        boolean shake = legacy.onSample(timeOffset + trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+        advance();
+        return shake;
+    }
+
+    @Benchmark
+    public boolean onSample() {
+        int i = index;
+        boolean shake = detector.onSample(timeOffset + trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+        advance();
+        return shake;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int batched() {
+        for (int n = 0; n < BATCH; n++) {
+            int i = index;
+            batch.add(timeOffset + trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+            advance();
+        }
+        return batch.drainTo(detector);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int onSamples() {
+        for (int i = 0; i < SAMPLES; i++) {
+            shiftedTimestamps[i] = timeOffset + trace.timestamps[i];
+        }
+        timeOffset += SAMPLES * AccelerometerTraces.SAMPLE_PERIOD_NS;
+        return detector.onSamples(shiftedTimestamps, trace.x, trace.y, trace.z, 0, SAMPLES);
+    }
+
+    private void advance() {
+        if (++index == trace.size()) {
+            // keep timestamps increasing when wrapping around the trace
+            timeOffset += trace.size() * AccelerometerTraces.SAMPLE_PERIOD_NS;
+            index = 0;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.honu.dicecast.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU time per sample of each shake detection strategy, fed in bulk. Detection delay depends on
+ * the motion rather than the CPU, measure it by replaying labelled traces with TraceReplay.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ShakeStrategyBenchmark {
+
+    // One minute at SENSOR_DELAY_UI rate
+    private static final int SAMPLES = 16 * 60;
+
+    @Param({"AXIS_THRESHOLD", "ENERGY", "REVERSAL"})
+    public ShakeDetector.Strategy strategy;
+
+    private AccelerometerTraces trace;
+    private ShakeDetector detector;
+    private long[] shiftedTimestamps;
+    private long timeOffset;
+
+    @Setup
+    public void setUp() {
+        trace = AccelerometerTraces.restingWithShakes(SAMPLES, 16 * 5, 42);
+        detector = strategy.create();
+        shiftedTimestamps = new long[SAMPLES];
+        timeOffset = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int onSamples() {
+        for (int i = 0; i < SAMPLES; i++) {
+            shiftedTimestamps[i] = timeOffset + trace.timestamps[i];
+        }
+        timeOffset += SAMPLES * AccelerometerTraces.SAMPLE_PERIOD_NS;
+        return detector.onSamples(shiftedTimestamps, trace.x, trace.y, trace.z, 0, SAMPLES);
+    }
+}
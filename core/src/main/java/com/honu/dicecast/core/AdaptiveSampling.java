@@ -0,0 +1,113 @@
+package com.honu.dicecast.core;
+
+/**
+ * Picks the accelerometer rate from the motion in the samples: a low rate while the phone lies
+ * still, the rate shake detection is tuned for as soon as it moves, and back to the low rate
+ * once it has been still for QUIET_NS.
+ * <p/>
+ * Motion is a sample whose acceleration differs from gravity by more than MOTION_ACCELERATION
+ * in magnitude, which needs no filter state and so works the same at any rate. The threshold is
+ * well below what any detection strategy counts as shaking, so the rate goes up on the first
+ * samples of a shake. Changing the rate is up to the caller; samples keep going to the detector
+ * throughout, so a shake that starts before the new rate takes effect is still detected.
+ * <p/>
+ * Constant memory, no allocation. Not thread safe.
+ */
+public class AdaptiveSampling {
+
+    /**
+     * The sampling stages.
+     */
+    public enum Stage {
+
+        // Lying still, sampled at IDLE_PERIOD_US
+        IDLE,
+
+        // Moving, sampled at SENSOR_DELAY_UI, the rate the detection strategies are tuned for
+        ACTIVE
+    }
+
+    // SENSOR_DELAY_NORMAL
+    public static final int IDLE_PERIOD_US = 200000;
+
+    // Difference between the magnitude of the acceleration and gravity that counts as motion (m/s^2)
+    public static final float MOTION_ACCELERATION = 1.5f;
+
+    // Stillness before dropping back to the idle rate
+    public static final long QUIET_NS = 3000000000L; // 3 sec (in nanoseconds)
+
+    static final float GRAVITY = 9.81f;
+
+    // Squared magnitudes outside of which a sample counts as motion
+    private final float minStill;
+    private final float maxStill;
+    private final long quietNanos;
+
+    private Stage stage = Stage.ACTIVE;
+
+    // Last sample with motion, or the first sample while there was none
+    private long lastMotion;
+    private boolean started;
+    private long changes;
+
+    public AdaptiveSampling() {
+        this(MOTION_ACCELERATION, QUIET_NS);
+    }
+
+    public AdaptiveSampling(float motionAcceleration, long quietNanos) {
+        float low = Math.max(0, GRAVITY - motionAcceleration);
+        float high = GRAVITY + motionAcceleration;
+        this.minStill = low * low;
+        this.maxStill = high * high;
+        this.quietNanos = quietNanos;
+    }
+
+    /**
+     * Look at one sample.
+     *
+     * @return true if the stage changed, see {@link #getStage()}
+     */
+    public boolean onSample(long timestamp, float x, float y, float z) {
+        if (!started) {
+            started = true;
+            lastMotion = timestamp;
+        }
+        float squared = x * x + y * y + z * z;
+        if (squared < minStill || squared > maxStill) {
+            lastMotion = timestamp;
+            if (stage == Stage.IDLE) {
+                stage = Stage.ACTIVE;
+                changes++;
+                return true;
+            }
+        } else if (stage == Stage.ACTIVE && timestamp - lastMotion >= quietNanos) {
+            stage = Stage.IDLE;
+            changes++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The stage, ACTIVE until the first QUIET_NS without motion.
+     */
+    public Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * Number of stage changes, each one re-registration of the sensor listener.
+     */
+    public long getChangeCount() {
+        return changes;
+    }
+
+    /**
+     * Start over in the active stage, e.g. when sampling is resumed and a shake may follow.
+     * The change count is kept.
+     */
+    public void reset() {
+        stage = Stage.ACTIVE;
+        started = false;
+    }
+}
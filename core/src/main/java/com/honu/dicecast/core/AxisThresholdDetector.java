@@ -0,0 +1,151 @@
+package com.honu.dicecast.core;
+
+/**
+ * The original DiceCast shake heuristic.
+ * <p/>
+ * Gravity is removed with a low-pass filter and a shake is reported once the largest linear
+ * acceleration along any axis has exceeded MIN_ACCELERATION MIN_MOVEMENTS times (by default).
+ * Only positive acceleration counts, as the maximum is taken over signed values. Samples that
+ * arrive within SHAKE_PAUSE_NS of the last shake are ignored.
+ * <p/>
+ * The bulk path keeps the filter state in locals for the whole batch; the gravity filter is a
+ * recurrence, so samples are still processed in order. Both paths share the same state and give
+ * identical results.
+ */
+public final class AxisThresholdDetector extends ShakeDetector {
+
+    // Minimum acceleration needed to register as a shake
+//    public static final int MIN_ACCELERATION = 5;
+    public static final int MIN_ACCELERATION = 6;
+
+    // Minimum number of movements to register as a shake
+//    public static final int MIN_MOVEMENTS = 3;
+    public static final int MIN_MOVEMENTS = 3;
+
+    private final float minAcceleration;
+    private final int minMovements;
+
+    // Initialized to -1 to suppress the very first event when values are initialized
+    int moveCount = -1;
+
+    // Gravity components of x, y, and z acceleration
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ;
+
+    private long lastEventTime = 0;
+
+    public AxisThresholdDetector() {
+        this(MIN_ACCELERATION, MIN_MOVEMENTS);
+    }
+
+    /**
+     * Create a detector with custom thresholds, e.g. when tuning against recorded traces.
+     */
+    public AxisThresholdDetector(float minAcceleration, int minMovements) {
+        this.minAcceleration = minAcceleration;
+        this.minMovements = minMovements;
+    }
+
+    @Override
+    public boolean onSample(long timestamp, float x, float y, float z) {
+        // Enforce pause between rolls
+        if (timestamp < lastEventTime + SHAKE_PAUSE_NS) {
+            debouncedCount++;
+            return false;
+        }
+
+        // Update the gravity estimate
+        gravityX = ALPHA * gravityX + (1 - ALPHA) * x;
+        gravityY = ALPHA * gravityY + (1 - ALPHA) * y;
+        gravityZ = ALPHA * gravityZ + (1 - ALPHA) * z;
+
+        // Check if the linear acceleration in any direction is greater than our minimum threshold
+        if (maxLinearAcceleration(x - gravityX, y - gravityY, z - gravityZ) > minAcceleration) {
+            moveCount++;
+
+            // Enforce a minimum number of movements
+            if (moveCount >= minMovements) {
+                moveCount = 0;
+                lastEventTime = timestamp;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int onSamples(long[] timestamps, float[] xs, float[] ys, float[] zs, int offset, int length,
+                         long[] shakeTimestamps) {
+        checkRange(timestamps, xs, ys, zs, offset, length);
+        int end = offset + length;
+
+        float gx = gravityX;
+        float gy = gravityY;
+        float gz = gravityZ;
+        int moves = moveCount;
+        long last = lastEventTime;
+        long pauseEnd = last + SHAKE_PAUSE_NS;
+        float threshold = minAcceleration;
+        long debounced = 0;
+        int shakes = 0;
+
+        for (int i = offset; i < end; i++) {
+            long timestamp = timestamps[i];
+            if (timestamp < pauseEnd) {
+                debounced++;
+                continue;
+            }
+
+            float x = xs[i];
+            float y = ys[i];
+            float z = zs[i];
+            gx = ALPHA * gx + (1 - ALPHA) * x;
+            gy = ALPHA * gy + (1 - ALPHA) * y;
+            gz = ALPHA * gz + (1 - ALPHA) * z;
+
+            if (maxLinearAcceleration(x - gx, y - gy, z - gz) > threshold && ++moves >= minMovements) {
+                moves = 0;
+                last = timestamp;
+                pauseEnd = timestamp + SHAKE_PAUSE_NS;
+                if (shakeTimestamps != null && shakes < shakeTimestamps.length) {
+                    shakeTimestamps[shakes] = timestamp;
+                }
+                shakes++;
+            }
+        }
+
+        gravityX = gx;
+        gravityY = gy;
+        gravityZ = gz;
+        moveCount = moves;
+        lastEventTime = last;
+        debouncedCount += debounced;
+        return shakes;
+    }
+
+    @Override
+    public long getLastShakeTimestamp() {
+        return lastEventTime;
+    }
+
+    @Override
+    public void reset() {
+        moveCount = -1;
+        gravityX = 0;
+        gravityY = 0;
+        gravityZ = 0;
+        lastEventTime = 0;
+    }
+
+    private static float maxLinearAcceleration(float linearX, float linearY, float linearZ) {
+        float max = linearX;
+        if (linearY > max) {
+            max = linearY;
+        }
+        if (linearZ > max) {
+            max = linearZ;
+        }
+        return max;
+    }
+}
@@ -0,0 +1,116 @@
+package com.honu.dicecast.core;
+
+/**
+ * Exact distribution of the sum of a number of fair dice plus a fixed modifier, computed by
+ * {@link DiceProbabilities}.
+ * <p/>
+ * Point and tail probabilities are stored, so every query is a bounds check and an array read.
+ * Instances are immutable and share their tables with other modifiers of the same dice.
+ */
+public final class DiceDistribution {
+
+    private final int count;
+    private final int sides;
+    private final int modifier;
+
+    // P(sum = minSum + i) and P(sum >= minSum + i)
+    private final double[] probabilities;
+    private final double[] atLeast;
+
+    DiceDistribution(int count, int sides, int modifier, double[] probabilities, double[] atLeast) {
+        this.count = count;
+        this.sides = sides;
+        this.modifier = modifier;
+        this.probabilities = probabilities;
+        this.atLeast = atLeast;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getSides() {
+        return sides;
+    }
+
+    public int getModifier() {
+        return modifier;
+    }
+
+    public int getMinSum() {
+        return count + modifier;
+    }
+
+    public int getMaxSum() {
+        return count * sides + modifier;
+    }
+
+    /**
+     * The same dice with a different modifier.
+     */
+    public DiceDistribution withModifier(int modifier) {
+        return modifier == this.modifier ? this
+              : new DiceDistribution(count, sides, modifier, probabilities, atLeast);
+    }
+
+    /**
+     * P(sum = k)
+     */
+    public double probability(int sum) {
+        int i = sum - getMinSum();
+        return i < 0 || i >= probabilities.length ? 0 : probabilities[i];
+    }
+
+    /**
+     * P(sum >= k)
+     */
+    public double probabilityAtLeast(int sum) {
+        int i = sum - getMinSum();
+        if (i <= 0) {
+            return 1;
+        }
+        return i >= atLeast.length ? 0 : atLeast[i];
+    }
+
+    /**
+     * P(sum <= k), read from the mirrored upper tail so small lower tails keep their precision.
+     */
+    public double probabilityAtMost(int sum) {
+        int i = getMaxSum() - sum;
+        if (i <= 0) {
+            return 1;
+        }
+        return i >= atLeast.length ? 0 : atLeast[i];
+    }
+
+    public double getMean() {
+        return count * (sides + 1) / 2.0 + modifier;
+    }
+
+    public double getVariance() {
+        return count * ((double) sides * sides - 1) / 12.0;
+    }
+
+    /**
+     * Copy the probability of every sum from getMinSum() to getMaxSum() into the given array,
+     * starting at offset.
+     *
+     * @return the number of values copied
+     */
+    public int copyProbabilities(double[] into, int offset) {
+        System.arraycopy(probabilities, 0, into, offset, probabilities.length);
+        return probabilities.length;
+    }
+
+    // shared table, not to be modified
+    double[] probabilityTable() {
+        return probabilities;
+    }
+
+    /**
+     * The probability of every sum from getMinSum() to getMaxSum().
+     */
+    public double[] getProbabilities() {
+        return probabilities.clone();
+    }
+}
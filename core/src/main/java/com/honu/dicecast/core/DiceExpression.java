@@ -0,0 +1,329 @@
+package com.honu.dicecast.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A dice roll in tabletop notation, parsed once and compiled into a list of terms that can be
+ * rolled any number of times without parsing or allocating.
+ * <p/>
+ * Supported notation, case insensitive and ignoring spaces:
+ * <ul>
+ * <li>NdM or dM: N dice (default 1) with M sides, d% is d100</li>
+ * <li>khK or kK / klK: keep the K highest / lowest dice, e.g. 4d6kh3 or 2d20kl1</li>
+ * <li>dhK / dlK: drop the K highest / lowest dice</li>
+ * <li>!: exploding dice, a die showing its highest face is rolled again and added, up to
+ * MAX_EXPLOSIONS times</li>
+ * <li>terms and constants joined with + and -, e.g. 4d6kh3+2 or 1d8+1d6-1</li>
+ * </ul>
+ * Dice are rolled with the same bounded draw as {@link DiceRoller}. A compiled expression is
+ * immutable and may be rolled by several threads, each with its own Random and dice array.
+ */
+public final class DiceExpression {
+
+    public static final int MAX_NOTATION_LENGTH = 64;
+    public static final int MAX_TERMS = 16;
+    public static final int MAX_DICE = 1000;
+    public static final int MAX_SIDES = 10000;
+    public static final int MAX_CONSTANT = 1000000;
+
+    // Extra rolls added to one exploding die, with the limits above totals always fit an int
+    public static final int MAX_EXPLOSIONS = 20;
+
+    private final String notation;
+    private final Term[] terms;
+    private final int constant;
+    private final int diceCount;
+
+    private DiceExpression(String notation, Term[] terms, int constant, int diceCount) {
+        this.notation = notation;
+        this.terms = terms;
+        this.constant = constant;
+        this.diceCount = diceCount;
+    }
+
+    /**
+     * Parse and compile an expression.
+     *
+     * @throws IllegalArgumentException if the notation is invalid or exceeds the limits
+     */
+    public static DiceExpression compile(String notation) {
+        return new Parser(notation).parse();
+    }
+
+    /**
+     * The expression in normalized form, e.g. "d%k1" is "1d100kh1".
+     */
+    public String getNotation() {
+        return notation;
+    }
+
+    /**
+     * Number of dice rolled, not counting explosions, which is the size needed for the dice
+     * array passed to {@link #roll(Random, int[])}.
+     */
+    public int getDiceCount() {
+        return diceCount;
+    }
+
+    /**
+     * Roll the expression.
+     * <p/>
+     * The value of every die is written to dice[0 .. getDiceCount()), term after term, an
+     * exploded die holding the total of its rolls. The dice of a term with keep or drop are
+     * sorted highest first.
+     *
+     * @return the total
+     */
+    public int roll(Random random, int[] dice) {
+        if (dice.length < diceCount) {
+            throw new IllegalArgumentException("array of length " + dice.length + " cannot hold " + diceCount + " dice");
+        }
+        int total = constant;
+        for (Term term : terms) {
+            total += term.roll(random, dice);
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return notation;
+    }
+
+    /**
+     * A group of identical dice with an optional keep rule and explosion.
+     */
+    private static final class Term {
+
+        final int sign;
+        final int count;
+        final int sides;
+        final long threshold;
+        final int keep;
+        final boolean keepLowest;
+        final boolean explode;
+
+        // first index of this term's dice in the dice array
+        final int offset;
+
+        Term(int sign, int count, int sides, int keep, boolean keepLowest, boolean explode, int offset) {
+            this.sign = sign;
+            this.count = count;
+            this.sides = sides;
+            this.threshold = DiceRoller.threshold(sides);
+            this.keep = keep;
+            this.keepLowest = keepLowest;
+            this.explode = explode;
+            this.offset = offset;
+        }
+
+        int roll(Random random, int[] dice) {
+            int sum = 0;
+            int end = offset + count;
+            for (int i = offset; i < end; i++) {
+                int face = DiceRoller.nextFace(random, sides, threshold);
+                int value = face;
+                for (int n = 0; explode && face == sides && n < MAX_EXPLOSIONS; n++) {
+                    face = DiceRoller.nextFace(random, sides, threshold);
+                    value += face;
+                }
+                dice[i] = value;
+                sum += value;
+            }
+
+            if (keep < count) {
+                // insertion sort, highest first: dice groups are small
+                for (int i = offset + 1; i < end; i++) {
+                    int value = dice[i];
+                    int j = i - 1;
+                    while (j >= offset && dice[j] < value) {
+                        dice[j + 1] = dice[j];
+                        j--;
+                    }
+                    dice[j + 1] = value;
+                }
+                sum = 0;
+                int from = keepLowest ? end - keep : offset;
+                for (int i = from; i < from + keep; i++) {
+                    sum += dice[i];
+                }
+            }
+            return sign * sum;
+        }
+    }
+
+    /**
+     * Single pass parser for expression := term (('+' | '-') term)*, positions in error messages
+     * count characters other than spaces.
+     */
+    private static final class Parser {
+
+        private final String source;
+        private final String text;
+        private final StringBuilder normalized = new StringBuilder();
+        private int pos;
+
+        Parser(String source) {
+            if (source == null) {
+                throw new IllegalArgumentException("no dice expression");
+            }
+            this.source = source;
+            StringBuilder stripped = new StringBuilder(source.length());
+            for (int i = 0; i < source.length(); i++) {
+                char c = source.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    stripped.append(Character.toLowerCase(c));
+                }
+            }
+            this.text = stripped.toString();
+        }
+
+        DiceExpression parse() {
+            if (text.isEmpty()) {
+                throw error("empty dice expression");
+            }
+            if (text.length() > MAX_NOTATION_LENGTH) {
+                throw error("dice expression longer than " + MAX_NOTATION_LENGTH + " characters");
+            }
+
+            List<Term> terms = new ArrayList<Term>();
+            long constant = 0;
+            int diceCount = 0;
+            int sign = 1;
+            if (peek('+') || peek('-')) {
+                sign = text.charAt(pos++) == '-' ? -1 : 1;
+                if (sign < 0) {
+                    normalized.append('-');
+                }
+            }
+            for (;;) {
+                int start = pos;
+                int count = peekDigit() ? number(MAX_CONSTANT) : -1;
+                if (peek('d')) {
+                    pos++;
+                    if (count == 0) {
+                        throw error("no dice at " + start);
+                    }
+                    if (count > MAX_DICE) {
+                        throw error("more than " + MAX_DICE + " dice at " + start);
+                    }
+                    count = count < 0 ? 1 : count;
+                    int sides;
+                    if (peek('%')) {
+                        pos++;
+                        sides = 100;
+                    } else {
+                        sides = number(MAX_SIDES);
+                    }
+                    normalized.append(count).append('d').append(sides);
+                    if (sides < 2) {
+                        throw error("dice need at least 2 sides at " + start);
+                    }
+                    if (terms.size() == MAX_TERMS) {
+                        throw error("more than " + MAX_TERMS + " dice terms");
+                    }
+                    if (diceCount + count > MAX_DICE) {
+                        throw error("more than " + MAX_DICE + " dice");
+                    }
+                    terms.add(modifiers(sign, count, sides, diceCount));
+                    diceCount += count;
+                } else if (count >= 0) {
+                    normalized.append(count);
+                    constant += sign * count;
+                } else {
+                    throw error("expected dice or a number at " + pos);
+                }
+
+                if (pos == text.length()) {
+                    break;
+                }
+                char operator = text.charAt(pos++);
+                if (operator != '+' && operator != '-') {
+                    throw error("unexpected '" + operator + "' at " + (pos - 1));
+                }
+                sign = operator == '-' ? -1 : 1;
+                normalized.append(operator);
+            }
+            return new DiceExpression(normalized.toString(), terms.toArray(new Term[terms.size()]),
+                  (int) constant, diceCount);
+        }
+
+        // keep/drop and explosion after NdM
+        private Term modifiers(int sign, int count, int sides, int offset) {
+            int keep = count;
+            boolean keepLowest = false;
+            boolean explode = false;
+            boolean kept = false;
+            while (pos < text.length() && text.charAt(pos) != '+' && text.charAt(pos) != '-') {
+                int start = pos;
+                char c = text.charAt(pos++);
+                if (c == '!' && !explode) {
+                    explode = true;
+                } else if ((c == 'k' || c == 'd') && !kept) {
+                    boolean drop = c == 'd';
+                    boolean lowest = false;
+                    if (peek('h') || peek('l')) {
+                        lowest = text.charAt(pos++) == 'l';
+                    } else if (drop) {
+                        // a plain d is ambiguous with a new die
+                        throw error("expected dh or dl at " + start);
+                    }
+                    int n = number(count);
+                    if (drop) {
+                        // dropping the lowest keeps the highest and the other way around
+                        keep = count - n;
+                        keepLowest = !lowest;
+                    } else {
+                        keep = n;
+                        keepLowest = lowest;
+                    }
+                    if (keep < 1) {
+                        throw error("no dice kept at " + start);
+                    }
+                    kept = true;
+                } else {
+                    throw error("unexpected '" + c + "' at " + start);
+                }
+            }
+
+            // modifiers in a fixed order so equivalent notations normalize the same
+            if (keep < count) {
+                normalized.append(keepLowest ? "kl" : "kh").append(keep);
+            }
+            if (explode) {
+                normalized.append('!');
+            }
+            return new Term(sign, count, sides, keep, keepLowest, explode, offset);
+        }
+
+        // a non-negative number up to max
+        private int number(int max) {
+            int start = pos;
+            long value = 0;
+            while (peekDigit()) {
+                value = value * 10 + (text.charAt(pos++) - '0');
+                if (value > max) {
+                    throw error("number larger than " + max + " at " + start);
+                }
+            }
+            if (pos == start) {
+                throw error("expected a number at " + start);
+            }
+            return (int) value;
+        }
+
+        private boolean peek(char c) {
+            return pos < text.length() && text.charAt(pos) == c;
+        }
+
+        private boolean peekDigit() {
+            return pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9';
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + ": \"" + source + "\"");
+        }
+    }
+}
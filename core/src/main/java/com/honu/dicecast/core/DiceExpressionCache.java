@@ -0,0 +1,76 @@
+package com.honu.dicecast.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of compiled dice expressions, keyed by the notation as
+ * entered, so rolling the same expression again skips parsing. Thread safe.
+ */
+public class DiceExpressionCache {
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private final int capacity;
+
+    // Guarded by this
+    private final LinkedHashMap<String, DiceExpression> expressions;
+    private long hits;
+    private long misses;
+
+    public DiceExpressionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DiceExpressionCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.expressions = new LinkedHashMap<String, DiceExpression>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DiceExpression> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the compiled expression for a notation, compiling it on first use.
+     *
+     * @throws IllegalArgumentException if the notation is invalid
+     */
+    public DiceExpression compile(String notation) {
+        synchronized (this) {
+            DiceExpression expression = expressions.get(notation);
+            if (expression != null) {
+                hits++;
+                return expression;
+            }
+            misses++;
+        }
+
+        // compiled outside the lock, invalid notations are not cached
+        DiceExpression expression = DiceExpression.compile(notation);
+        synchronized (this) {
+            expressions.put(notation, expression);
+        }
+        return expression;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return expressions.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
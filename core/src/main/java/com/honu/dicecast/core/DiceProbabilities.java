@@ -0,0 +1,193 @@
+package com.honu.dicecast.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exact outcome distributions of the sum of count fair dice with sides faces.
+ * <p/>
+ * Distributions are built one die at a time by convolution with a single die, which is a sliding
+ * window sum over the previous distribution. Only the lower half is computed and the upper half
+ * mirrored from it; the window then only grows, so tiny tail probabilities keep their relative
+ * precision even for hundreds of dice, down to the smallest double (about 1e-308) below which
+ * they underflow.
+ * <p/>
+ * Results are kept in a least recently used cache bounded by MAX_CACHED_VALUES table entries.
+ * A miss starts from the largest cached count of the same die, so 3d6 after 2d6 costs a single
+ * convolution step. Instances are thread safe.
+ */
+public class DiceProbabilities {
+
+    // Upper bound on the table entries held by the cache (two doubles each)
+    public static final int MAX_CACHED_VALUES = 1 << 20;
+
+    // Most dice of a kind looked up from the cache to start a new distribution
+    private static final int MAX_PREFIX_LOOKUPS = 64;
+
+    private final int maxCachedValues;
+
+    // Guarded by this
+    private final LinkedHashMap<Long, DiceDistribution> cache =
+          new LinkedHashMap<Long, DiceDistribution>(16, 0.75f, true);
+    private long cachedValues;
+    private long hits;
+    private long misses;
+
+    public DiceProbabilities() {
+        this(MAX_CACHED_VALUES);
+    }
+
+    public DiceProbabilities(int maxCachedValues) {
+        this.maxCachedValues = maxCachedValues;
+    }
+
+    /**
+     * P(sum = k) for count dice with sides faces plus modifier.
+     */
+    public double probability(int count, int sides, int modifier, int sum) {
+        return distribution(count, sides).probability(sum - modifier);
+    }
+
+    /**
+     * P(sum >= k) for count dice with sides faces plus modifier.
+     */
+    public double probabilityAtLeast(int count, int sides, int modifier, int sum) {
+        return distribution(count, sides).probabilityAtLeast(sum - modifier);
+    }
+
+    public DiceDistribution distribution(int count, int sides, int modifier) {
+        return distribution(count, sides).withModifier(modifier);
+    }
+
+    public DiceDistribution distribution(int count, int sides) {
+        checkDice(count, sides);
+
+        double[] start;
+        int startCount;
+        synchronized (this) {
+            DiceDistribution cached = cache.get(key(count, sides));
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+
+            // continue from the most dice of this kind already computed
+            start = null;
+            startCount = 0;
+            for (int n = count - 1; n > 0 && n >= count - MAX_PREFIX_LOOKUPS; n--) {
+                DiceDistribution prefix = cache.get(key(n, sides));
+                if (prefix != null) {
+                    start = prefix.probabilityTable();
+                    startCount = n;
+                    break;
+                }
+            }
+        }
+
+        DiceDistribution distribution = compute(count, sides, start, startCount);
+        synchronized (this) {
+            DiceDistribution raced = cache.get(key(count, sides));
+            if (raced != null) {
+                return raced;
+            }
+            cache.put(key(count, sides), distribution);
+            cachedValues += 2L * (distribution.getMaxSum() - distribution.getMinSum() + 1);
+            evict();
+        }
+        return distribution;
+    }
+
+    /**
+     * Compute a distribution without the cache.
+     */
+    public static DiceDistribution compute(int count, int sides) {
+        checkDice(count, sides);
+        return compute(count, sides, null, 0);
+    }
+
+    public synchronized long getCacheHits() {
+        return hits;
+    }
+
+    public synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    public synchronized int getCacheSize() {
+        return cache.size();
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        cachedValues = 0;
+    }
+
+    // drop least recently used entries until the bound holds, keeping the newest one
+    private void evict() {
+        Iterator<Map.Entry<Long, DiceDistribution>> entries = cache.entrySet().iterator();
+        while (cachedValues > maxCachedValues && cache.size() > 1) {
+            DiceDistribution eldest = entries.next().getValue();
+            entries.remove();
+            cachedValues -= 2L * (eldest.getMaxSum() - eldest.getMinSum() + 1);
+        }
+    }
+
+    private static DiceDistribution compute(int count, int sides, double[] start, int startCount) {
+        double[] probabilities = start;
+        if (probabilities == null) {
+            // zero dice always sum to zero
+            probabilities = new double[] {1};
+            startCount = 0;
+        }
+        for (int n = startCount; n < count; n++) {
+            probabilities = addDie(probabilities, sides);
+        }
+
+        double[] atLeast = new double[probabilities.length];
+        double tail = 0;
+        for (int i = probabilities.length - 1; i >= 0; i--) {
+            tail += probabilities[i];
+            atLeast[i] = Math.min(tail, 1);
+        }
+        return new DiceDistribution(count, sides, 0, probabilities, atLeast);
+    }
+
+    // convolve with one die: next[j] is the mean of previous[j - sides + 1 .. j]
+    private static double[] addDie(double[] previous, int sides) {
+        int length = previous.length + sides - 1;
+        double[] next = new double[length];
+        int half = (length - 1) / 2;
+        double window = 0;
+        for (int j = 0; j <= half; j++) {
+            if (j < previous.length) {
+                window += previous[j];
+            }
+            if (j >= sides) {
+                window -= previous[j - sides];
+            }
+            next[j] = Math.max(window, 0) / sides;
+        }
+        for (int j = half + 1; j < length; j++) {
+            next[j] = next[length - 1 - j];
+        }
+        return next;
+    }
+
+    private static void checkDice(int count, int sides) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        if (sides < 2) {
+            throw new IllegalArgumentException("sides must be at least 2: " + sides);
+        }
+        if ((long) count * sides > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("too many dice: " + count + "d" + sides);
+        }
+    }
+
+    private static Long key(int count, int sides) {
+        return ((long) sides << 32) | count;
+    }
+}
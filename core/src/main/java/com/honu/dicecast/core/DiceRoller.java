@@ -0,0 +1,142 @@
+package com.honu.dicecast.core;
+
+import java.util.Random;
+
+/**
+ * Rolls a fixed number of dice with a fixed number of sides.
+ * <p/>
+ * A single generator is shared by every roll and results are written into caller supplied
+ * arrays, so rolling does not allocate. Faces are drawn with a multiply-and-shift bounded draw
+ * that rejects the few values which would otherwise bias the result toward low faces.
+ */
+public class DiceRoller {
+
+    private final int count;
+    private final int sides;
+
+    // Low 32 bits of a draw below this value are rejected (2^32 mod sides)
+    private final long threshold;
+
+    private final Random random;
+
+    public DiceRoller(int count, int sides) {
+        this(count, sides, new Random());
+    }
+
+    public DiceRoller(int count, int sides, Random random) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        if (sides < 2) {
+            throw new IllegalArgumentException("sides must be at least 2: " + sides);
+        }
+        this.count = count;
+        this.sides = sides;
+        this.threshold = threshold(sides);
+        this.random = random;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getSides() {
+        return sides;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Roll a single die.
+     *
+     * @return a face between 1 and sides
+     */
+    public int nextFace() {
+        return nextFace(random, sides, threshold);
+    }
+
+    /**
+     * Low 32 bits of a draw below this value are rejected for a die with the given sides.
+     */
+    static long threshold(int sides) {
+        return (1L << 32) % sides;
+    }
+
+    /**
+     * Roll a die with the given sides, threshold(sides) being passed in so it is computed once.
+     */
+    static int nextFace(Random random, int sides, long threshold) {
+        long m = (random.nextInt() & 0xFFFFFFFFL) * sides;
+        while ((m & 0xFFFFFFFFL) < threshold) {
+            m = (random.nextInt() & 0xFFFFFFFFL) * sides;
+        }
+        return (int) (m >>> 32) + 1;
+    }
+
+    /**
+     * Roll all dice once, writing each face to out[0..count).
+     *
+     * @return the sum of the faces
+     */
+    public int rollInto(int[] out) {
+        checkCapacity(out, 1);
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            int face = nextFace();
+            out[i] = face;
+            sum += face;
+        }
+        return sum;
+    }
+
+    /**
+     * Roll all dice the given number of times. The faces of roll r are written to
+     * out[r * count .. (r + 1) * count).
+     */
+    public void rollBatch(int[] out, int rolls) {
+        checkCapacity(out, rolls);
+        int n = rolls * count;
+        for (int i = 0; i < n; i++) {
+            out[i] = nextFace();
+        }
+    }
+
+    /**
+     * Roll all dice sums.length times, writing only the sum of each roll.
+     */
+    public void rollSums(int[] sums) {
+        for (int r = 0; r < sums.length; r++) {
+            int sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += nextFace();
+            }
+            sums[r] = sum;
+        }
+    }
+
+    /**
+     * Roll all dice the given number of times, adding one to counts[sum] for each roll. counts
+     * must have room for the highest sum, count * sides.
+     */
+    public void rollHistogram(long[] counts, int rolls) {
+        if (counts.length <= count * sides) {
+            throw new IllegalArgumentException("array of length " + counts.length + " cannot hold sums up to " + count * sides);
+        }
+        for (int r = 0; r < rolls; r++) {
+            int sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += nextFace();
+            }
+            counts[sum]++;
+        }
+    }
+
+    private void checkCapacity(int[] out, int rolls) {
+        if (rolls < 0 || out.length < (long) rolls * count) {
+            throw new IllegalArgumentException(
+                  "array of length " + out.length + " cannot hold " + rolls + " rolls of " + count + " dice");
+        }
+    }
+}
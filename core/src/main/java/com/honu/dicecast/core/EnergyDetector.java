@@ -0,0 +1,109 @@
+package com.honu.dicecast.core;
+
+/**
+ * Detects shakes from the energy of the linear acceleration vector.
+ * <p/>
+ * Gravity is removed with the same low-pass filter as {@link AxisThresholdDetector}. The squared
+ * magnitude of the remaining acceleration is kept in a fixed-size ring buffer with a running
+ * sum, and a shake is reported once the buffer is full and both the mean energy (squared RMS
+ * acceleration) over it and the energy of the latest sample exceed the threshold. Motion in every direction counts, negative
+ * acceleration included.
+ */
+public final class EnergyDetector extends ShakeDetector {
+
+    // Window length in samples, about half a second at SENSOR_DELAY_UI
+    public static final int WINDOW = 8;
+
+    // Minimum RMS linear acceleration over the window (m/s^2)
+    public static final float MIN_RMS_ACCELERATION = 5;
+
+    private final int window;
+    private final double threshold;
+
+    private final float[] energy;
+    private int next;
+    private int count;
+    private double sum;
+
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ;
+    private boolean initialized;
+
+    private long lastEventTime = 0;
+
+    public EnergyDetector() {
+        this(WINDOW, MIN_RMS_ACCELERATION);
+    }
+
+    public EnergyDetector(int window, float minRmsAcceleration) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.window = window;
+        this.threshold = (double) minRmsAcceleration * minRmsAcceleration;
+        this.energy = new float[window];
+    }
+
+    @Override
+    public boolean onSample(long timestamp, float x, float y, float z) {
+        // Enforce pause between rolls
+        if (timestamp < lastEventTime + SHAKE_PAUSE_NS) {
+            debouncedCount++;
+            return false;
+        }
+
+        gravityX = ALPHA * gravityX + (1 - ALPHA) * x;
+        gravityY = ALPHA * gravityY + (1 - ALPHA) * y;
+        gravityZ = ALPHA * gravityZ + (1 - ALPHA) * z;
+        if (!initialized) {
+            // the first sample only seeds the filter, like the original heuristic
+            initialized = true;
+            return false;
+        }
+
+        float linearX = x - gravityX;
+        float linearY = y - gravityY;
+        float linearZ = z - gravityZ;
+        float e = linearX * linearX + linearY * linearY + linearZ * linearZ;
+
+        if (count == window) {
+            sum -= energy[next];
+        } else {
+            count++;
+        }
+        energy[next] = e;
+        sum += e;
+        next = next + 1 == window ? 0 : next + 1;
+
+        // only report while still moving, not on the tail of a shake that already ended
+        if (count == window && sum > threshold * window && e > threshold) {
+            lastEventTime = timestamp;
+            clearWindow();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long getLastShakeTimestamp() {
+        return lastEventTime;
+    }
+
+    @Override
+    public void reset() {
+        clearWindow();
+        gravityX = 0;
+        gravityY = 0;
+        gravityZ = 0;
+        initialized = false;
+        lastEventTime = 0;
+    }
+
+    private void clearWindow() {
+        next = 0;
+        count = 0;
+        // also drops any rounding error accumulated in the running sum
+        sum = 0;
+    }
+}
@@ -0,0 +1,334 @@
+package com.honu.dicecast.core;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Streaming fairness tests over the faces of one die, in memory that depends only on the number
+ * of sides, so it can check billions of draws.
+ * <p/>
+ * Three tests are run:
+ * <ul>
+ * <li>chi-square of the face counts against a uniform distribution, sides - 1 degrees of
+ * freedom</li>
+ * <li>serial chi-square of non-overlapping pairs of draws against all sides^2 pairs being
+ * equally likely, sides^2 - 1 degrees of freedom, which catches draws depending on the one
+ * before; only up to MAX_PAIR_SIDES sides, beyond that the pair counts take too much memory and
+ * too many draws to expect 5 in each</li>
+ * <li>lag-1 serial correlation, about normal with mean 0 and variance 1 / (n - 1) for
+ * independent draws</li>
+ * </ul>
+ * Each test gives the probability of a result at least this far from fair if the die were fair.
+ * Sums are exact longs for up to 2^63 / sides^2 draws, e.g. 2.5 * 10^17 for six sides.
+ * <p/>
+ * Usage: FairnessVerifier [--source name] [--seed n] [--sides n] [--draws n]
+ */
+public class FairnessVerifier {
+
+    // Most sides the pair test runs for, 4096 pairs needing about 41000 draws
+    public static final int MAX_PAIR_SIDES = 64;
+
+    private final int sides;
+
+    // Indexed by face - 1, and by (first - 1) * sides + (second - 1) for pairs, null without
+    // the pair test
+    private final long[] faceCounts;
+    private final long[] pairCounts;
+
+    private long draws;
+    private long sum;
+    private long sumSquares;
+    private long sumProducts;
+
+    private int first;
+    private int previous;
+
+    public FairnessVerifier(int sides) {
+        if (sides < 2 || sides > DiceExpression.MAX_SIDES) {
+            throw new IllegalArgumentException("sides must be between 2 and " + DiceExpression.MAX_SIDES + ": " + sides);
+        }
+        this.sides = sides;
+        this.faceCounts = new long[sides];
+        this.pairCounts = sides <= MAX_PAIR_SIDES ? new long[sides * sides] : null;
+    }
+
+    public int getSides() {
+        return sides;
+    }
+
+    public long getDraws() {
+        return draws;
+    }
+
+    public long getFaceCount(int face) {
+        return faceCounts[face - 1];
+    }
+
+    /**
+     * Whether the serial chi-square test over pairs is run, for up to MAX_PAIR_SIDES sides.
+     */
+    public boolean hasPairTest() {
+        return pairCounts != null;
+    }
+
+    /**
+     * Add a draw.
+     *
+     * @param face between 1 and sides
+     */
+    public void add(int face) {
+        if (face < 1 || face > sides) {
+            throw new IllegalArgumentException("face out of range 1.." + sides + ": " + face);
+        }
+        faceCounts[face - 1]++;
+        sum += face;
+        sumSquares += face * face;
+        if (draws == 0) {
+            first = face;
+        } else {
+            sumProducts += previous * face;
+            if ((draws & 1) == 1 && pairCounts != null) {
+                pairCounts[(previous - 1) * sides + (face - 1)]++;
+            }
+        }
+        previous = face;
+        draws++;
+    }
+
+    /**
+     * Add faces[offset .. offset + length), in order.
+     */
+    public void add(int[] faces, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            add(faces[i]);
+        }
+    }
+
+    public void reset() {
+        Arrays.fill(faceCounts, 0);
+        if (pairCounts != null) {
+            Arrays.fill(pairCounts, 0);
+        }
+        draws = 0;
+        sum = 0;
+        sumSquares = 0;
+        sumProducts = 0;
+        first = 0;
+        previous = 0;
+    }
+
+    public double getChiSquare() {
+        return chiSquare(faceCounts, (double) draws / sides);
+    }
+
+    public int getDegreesOfFreedom() {
+        return sides - 1;
+    }
+
+    public double getChiSquarePValue() {
+        return chiSquarePValue(getChiSquare(), getDegreesOfFreedom());
+    }
+
+    /**
+     * Chi-square of the pair counts, 0 without the pair test.
+     */
+    public double getSerialChiSquare() {
+        if (pairCounts == null) {
+            return 0;
+        }
+        return chiSquare(pairCounts, (double) (draws / 2) / pairCounts.length);
+    }
+
+    public int getSerialDegreesOfFreedom() {
+        return pairCounts == null ? 0 : pairCounts.length - 1;
+    }
+
+    /**
+     * Probability of pair counts at least this far from fair, 1 without the pair test.
+     */
+    public double getSerialChiSquarePValue() {
+        if (pairCounts == null) {
+            return 1;
+        }
+        return chiSquarePValue(getSerialChiSquare(), getSerialDegreesOfFreedom());
+    }
+
+    /**
+     * Correlation of each draw with the next, 0 with fewer than three draws.
+     */
+    public double getSerialCorrelation() {
+        if (draws < 3) {
+            return 0;
+        }
+        // the first n - 1 draws against the last n - 1, centered on their means for precision
+        double pairs = draws - 1;
+        double meanA = (sum - previous) / pairs;
+        double meanB = (sum - first) / pairs;
+        double varianceA = (sumSquares - (long) previous * previous) / pairs - meanA * meanA;
+        double varianceB = (sumSquares - (long) first * first) / pairs - meanB * meanB;
+        double covariance = sumProducts / pairs - meanA * meanB;
+        if (varianceA <= 0 || varianceB <= 0) {
+            // undefined for a constant die, which the chi-square tests reject
+            return 0;
+        }
+        return covariance / Math.sqrt(varianceA * varianceB);
+    }
+
+    /**
+     * Two-sided probability of a correlation at least this far from 0 for independent draws.
+     */
+    public double getSerialCorrelationPValue() {
+        if (draws < 3) {
+            return 1;
+        }
+        double z = getSerialCorrelation() * Math.sqrt(draws - 1);
+        // erfc(|z| / sqrt(2)) = Q(1/2, z^2 / 2)
+        return gammaQ(0.5, z * z / 2);
+    }
+
+    /**
+     * Whether no test rejects fairness at the given significance, e.g. 0.001. With three tests
+     * a fair die fails about three times in 1 / significance runs, two above MAX_PAIR_SIDES.
+     */
+    public boolean isFair(double significance) {
+        return getChiSquarePValue() >= significance
+              && getSerialChiSquarePValue() >= significance
+              && getSerialCorrelationPValue() >= significance;
+    }
+
+    @Override
+    public String toString() {
+        String serial = pairCounts == null
+              ? String.format(Locale.US, "serial chi-square: skipped above %d sides", MAX_PAIR_SIDES)
+              : String.format(Locale.US, "serial chi-square: %.3f (%d df), p = %.4f",
+                    getSerialChiSquare(), getSerialDegreesOfFreedom(), getSerialChiSquarePValue());
+        return String.format(Locale.US, "draws: %d%n"
+                    + "chi-square: %.3f (%d df), p = %.4f%n"
+                    + "%s%n"
+                    + "serial correlation: %.6f, p = %.4f",
+              draws, getChiSquare(), getDegreesOfFreedom(), getChiSquarePValue(),
+              serial, getSerialCorrelation(), getSerialCorrelationPValue());
+    }
+
+    private static double chiSquare(long[] counts, double expected) {
+        if (expected == 0) {
+            return 0;
+        }
+        double chiSquare = 0;
+        for (long count : counts) {
+            double deviation = count - expected;
+            chiSquare += deviation * deviation / expected;
+        }
+        return chiSquare;
+    }
+
+    /**
+     * Probability of a chi-square of at least x with the given degrees of freedom.
+     */
+    static double chiSquarePValue(double x, int degreesOfFreedom) {
+        return gammaQ(degreesOfFreedom / 2.0, x / 2);
+    }
+
+    /**
+     * Regularized upper incomplete gamma function Q(a, x), by its series below a + 1 and its
+     * continued fraction above.
+     */
+    static double gammaQ(double a, double x) {
+        if (x <= 0) {
+            return 1;
+        }
+        double logPrefix = a * Math.log(x) - x - logGamma(a);
+        if (x < a + 1) {
+            double term = 1 / a;
+            double series = term;
+            for (int n = 1; n < 10000 && Math.abs(term) > Math.abs(series) * 1e-15; n++) {
+                term *= x / (a + n);
+                series += term;
+            }
+            return Math.max(0, 1 - series * Math.exp(logPrefix));
+        }
+        // modified Lentz
+        double tiny = 1e-300;
+        double b = x + 1 - a;
+        double c = 1 / tiny;
+        double d = 1 / b;
+        double h = d;
+        for (int n = 1; n < 10000; n++) {
+            double an = -n * (n - a);
+            b += 2;
+            d = an * d + b;
+            d = Math.abs(d) < tiny ? tiny : d;
+            c = b + an / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            d = 1 / d;
+            double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1) < 1e-15) {
+                break;
+            }
+        }
+        return Math.exp(logPrefix) * h;
+    }
+
+    // Lanczos approximation, g = 7
+    private static final double[] LANCZOS = {
+          0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+          -176.61502916214059, 12.507343278686905, -0.13857109526572012,
+          9.9843695780195716e-6, 1.5056327351493116e-7
+    };
+
+    static double logGamma(double x) {
+        if (x < 0.5) {
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1 - x);
+        }
+        x -= 1;
+        double a = LANCZOS[0];
+        double t = x + 7.5;
+        for (int i = 1; i < LANCZOS.length; i++) {
+            a += LANCZOS[i] / (x + i);
+        }
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(a);
+    }
+
+    public static void main(String[] args) {
+        RandomSource source = RandomSource.XOSHIRO256;
+        Long seed = null;
+        int sides = 6;
+        long draws = 100000000L;
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value for " + option);
+            }
+            String value = args[++i];
+            if ("--source".equals(option)) {
+                source = RandomSource.valueOf(value.toUpperCase(Locale.US));
+            } else if ("--seed".equals(option)) {
+                seed = Long.parseLong(value);
+            } else if ("--sides".equals(option)) {
+                sides = Integer.parseInt(value);
+            } else if ("--draws".equals(option)) {
+                draws = (long) Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+
+        Random random = seed != null ? source.create(seed) : source.create();
+        DiceRoller roller = new DiceRoller(1, sides, random);
+        FairnessVerifier verifier = new FairnessVerifier(sides);
+
+        long start = System.nanoTime();
+        for (long n = 0; n < draws; n++) {
+            verifier.add(roller.nextFace());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("source: " + source + (seed != null ? ", seed: " + seed : "") + ", sides: " + sides);
+        System.out.println(verifier);
+        System.out.println(String.format(Locale.US, "%.1f M draws/s, fair at 0.001: %b",
+              draws * 1e3 / elapsed, verifier.isFair(0.001)));
+    }
+}
@@ -0,0 +1,196 @@
+package com.honu.dicecast.core;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long each roll takes to move through the pipeline, from the shake (or tap) that
+ * caused it to the receiver echoing it back.
+ * <p/>
+ * Every roll gets an id and a slot in a fixed ring of recent rolls holding one timestamp per
+ * stage. When a stage is marked, the time since the stage it follows (STAGE_FROM) is recorded in
+ * that stage's histogram, if that stage was stamped: rendering and sending both follow detection,
+ * as the dice are drawn on the next frame, usually after the message was sent. The echo also
+ * records the end to end latency from the earliest stamped stage. Each stage is stamped at most once per roll, so re-displaying or
+ * re-sending a roll does not skew the results. All timestamps must come from the same clock,
+ * in nanoseconds.
+ * <p/>
+ * Marking stages is lock-free and does not allocate, so it can be called from any thread.
+ */
+public class LatencyRecorder {
+
+    // Timestamp of the sensor sample that completed the shake
+    public static final int STAGE_INPUT = 0;
+    // Shake detected or tap handled
+    public static final int STAGE_DETECTED = 1;
+    // Dice shown on the phone
+    public static final int STAGE_RENDERED = 2;
+    // Message handed to the Cast transport
+    public static final int STAGE_SENT = 3;
+    // Receiver echo arrived
+    public static final int STAGE_ECHOED = 4;
+
+    public static final int STAGES = 5;
+
+    private static final String[] STAGE_NAMES = {
+          "input", "detected", "rendered", "sent", "echoed"
+    };
+
+    // Stage each stage is timed from, none for the input
+    private static final int[] STAGE_FROM = {
+          -1, STAGE_INPUT, STAGE_DETECTED, STAGE_DETECTED, STAGE_SENT
+    };
+
+    // Number of recent rolls tracked, a power of two
+    private static final int RING_SIZE = 64;
+
+    private final AtomicInteger nextRoll = new AtomicInteger();
+    private volatile int currentRoll = -1;
+
+    private final AtomicIntegerArray slotRoll = new AtomicIntegerArray(RING_SIZE);
+    private final AtomicIntegerArray slotSeq = new AtomicIntegerArray(RING_SIZE);
+    private final AtomicLongArray stamps = new AtomicLongArray(RING_SIZE * STAGES);
+
+    // stageLatency[s] holds the time from stage STAGE_FROM[s] to stage s
+    private final LatencyHistogram[] stageLatency = new LatencyHistogram[STAGES];
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+
+    public LatencyRecorder() {
+        for (int i = 1; i < STAGES; i++) {
+            stageLatency[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < RING_SIZE; i++) {
+            slotRoll.set(i, -1);
+        }
+    }
+
+    /**
+     * Start tracking a new roll, which becomes the current roll.
+     *
+     * @param inputNanos time of the sensor sample that caused the roll, 0 if unknown (taps)
+     * @param detectedNanos time the shake or tap was handled
+     * @return the id of the roll
+     */
+    public int beginRoll(long inputNanos, long detectedNanos) {
+        int roll = nextRoll.getAndIncrement() & Integer.MAX_VALUE;
+        int slot = roll & (RING_SIZE - 1);
+
+        // invalidate the slot while it is reused
+        slotRoll.set(slot, -1);
+        slotSeq.set(slot, 0);
+        for (int stage = 0; stage < STAGES; stage++) {
+            stamps.set(slot * STAGES + stage, 0);
+        }
+        stamps.set(slot * STAGES + STAGE_INPUT, inputNanos);
+        slotRoll.set(slot, roll);
+        currentRoll = roll;
+
+        mark(roll, STAGE_DETECTED, detectedNanos);
+        return roll;
+    }
+
+    /**
+     * The roll most recently started, or -1 if none.
+     */
+    public int currentRoll() {
+        return currentRoll;
+    }
+
+    /**
+     * Stamp a stage of a roll. Ignored if the stage was already stamped or the roll has been
+     * pushed out of the ring.
+     */
+    public void mark(int roll, int stage, long nanos) {
+        if (roll < 0) {
+            return;
+        }
+        int slot = roll & (RING_SIZE - 1);
+        if (slotRoll.get(slot) != roll || !stamps.compareAndSet(slot * STAGES + stage, 0, nanos)) {
+            return;
+        }
+
+        int from = STAGE_FROM[stage];
+        long before = from < 0 ? 0 : stamps.get(slot * STAGES + from);
+        if (before != 0) {
+            stageLatency[stage].record(nanos - before);
+        }
+        if (stage == STAGE_ECHOED) {
+            for (int first = STAGE_INPUT; first < STAGE_ECHOED; first++) {
+                long start = stamps.get(slot * STAGES + first);
+                if (start != 0) {
+                    endToEnd.record(nanos - start);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stamp STAGE_SENT for a roll and remember the sequence number it was sent with.
+     */
+    public void markSent(int roll, int seq, long nanos) {
+        if (roll < 0) {
+            return;
+        }
+        int slot = roll & (RING_SIZE - 1);
+        if (slotRoll.get(slot) == roll) {
+            slotSeq.set(slot, seq);
+            mark(roll, STAGE_SENT, nanos);
+        }
+    }
+
+    /**
+     * Stamp STAGE_ECHOED for the roll that was sent with the given sequence number.
+     */
+    public void markEchoed(int seq, long nanos) {
+        for (int slot = 0; slot < RING_SIZE; slot++) {
+            if (slotSeq.get(slot) == seq) {
+                mark(slotRoll.get(slot), STAGE_ECHOED, nanos);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Histogram of the time to the given stage from the one it is timed from: input for
+     * detected, detected for rendered and sent, sent for echoed.
+     */
+    public LatencyHistogram getStageLatency(int stage) {
+        return stageLatency[stage];
+    }
+
+    public LatencyHistogram getEndToEndLatency() {
+        return endToEnd;
+    }
+
+    public void reset() {
+        for (int i = 1; i < STAGES; i++) {
+            stageLatency[i].reset();
+        }
+        endToEnd.reset();
+    }
+
+    /**
+     * Print the stage and end to end percentiles in milliseconds.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Roll latency (ms):");
+        writer.print(prefix);
+        writer.println(String.format("  %-22s %8s %9s %9s %9s", "stage", "count", "p50", "p99", "max"));
+        for (int stage = 1; stage < STAGES; stage++) {
+            dump(prefix, writer, STAGE_NAMES[STAGE_FROM[stage]] + " -> " + STAGE_NAMES[stage], stageLatency[stage]);
+        }
+        dump(prefix, writer, "end to end", endToEnd);
+    }
+
+    private static void dump(String prefix, PrintWriter writer, String name, LatencyHistogram histogram) {
+        writer.print(prefix);
+        writer.println(String.format("  %-22s %8d %9.3f %9.3f %9.3f", name, histogram.getCount(),
+              histogram.getValueAtPercentile(50) / 1e6,
+              histogram.getValueAtPercentile(99) / 1e6,
+              histogram.getMax() / 1e6));
+    }
+}
@@ -0,0 +1,267 @@
+package com.honu.dicecast.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the Cast receiver that listens on a local TCP port, so the messaging path can be
+ * exercised without a Chromecast.
+ * <p/>
+ * It behaves like receiver/dicecast.js on one namespace: every roll message is echoed back to the
+ * sender that sent it, statistics messages are taken without an echo, and statistics, the compact
+ * format and the sender's player id are announced to each sender after its first message. Messages on other
+ * namespaces are ignored. A fraction of echoes can be dropped to exercise the acknowledgement
+ * timeout; a dropped roll is not shown either.
+ * <p/>
+ * Senders are players at one table: each roll shown is also ordered by a {@link RollHub} and
+ * sent to every sender, written by a thread per connection so a slow sender only delays itself.
+ * <p/>
+ * Each message travels as one frame, the namespace then the message, both written with
+ * {@link DataOutputStream#writeUTF}. See {@link SocketTransport} for the sender side.
+ * <p/>
+ * Usage: LoopbackReceiver [--port n] [--namespace urn] [--drop fraction]
+ */
+public class LoopbackReceiver implements Closeable {
+
+    public static final String DEFAULT_NAMESPACE = "urn:x-cast:com.honu.dicecast";
+
+    // Start of the statistics message, which the receiver shows without echoing
+    static final String STATS_PREFIX = "{\"stats\":";
+
+    // Shortest time between writes of other players' rolls to one connection
+    private static final long FAN_OUT_INTERVAL_MS = 20;
+
+    private final ServerSocket server;
+    private final String namespace;
+    private final double dropRate;
+    private final RollHub hub;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong echoed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong statistics = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Listen on the loopback interface.
+     *
+     * @param port     0 for any free port
+     * @param dropRate fraction of roll messages left unanswered, between 0 and 1
+     */
+    public LoopbackReceiver(int port, String namespace, double dropRate) throws IOException {
+        if (dropRate < 0 || dropRate > 1) {
+            throw new IllegalArgumentException("drop rate must be between 0 and 1: " + dropRate);
+        }
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.namespace = namespace;
+        this.dropRate = dropRate;
+        this.hub = new RollHub();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accept senders on a background thread, each served by a thread of its own.
+     */
+    public void start() {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    try {
+                        final Socket socket = server.accept();
+                        Thread connection = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }, "LoopbackReceiver-" + socket.getPort());
+                        connection.setDaemon(true);
+                        connection.start();
+                    } catch (IOException e) {
+                        if (!closed) {
+                            System.err.println("LoopbackReceiver: accept failed: " + e);
+                        }
+                    }
+                }
+            }
+        }, "LoopbackReceiver");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public long getEchoedCount() {
+        return echoed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getStatisticsCount() {
+        return statistics.get();
+    }
+
+    public RollHub getHub() {
+        return hub;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+    }
+
+    private void serve(Socket socket) {
+        Random random = new Random();
+        boolean announced = false;
+        RollHub.Member member = null;
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            String player = "sender-" + socket.getPort();
+            member = hub.join(player);
+            startFanOut(member, out, player);
+            while (!closed) {
+                String frameNamespace = in.readUTF();
+                String message = in.readUTF();
+                if (!namespace.equals(frameNamespace)) {
+                    continue;
+                }
+                received.incrementAndGet();
+
+                boolean shown = false;
+                synchronized (out) {
+                    if (message.startsWith(STATS_PREFIX)) {
+                        // statistics follow rolls and are shown without being echoed
+                        statistics.incrementAndGet();
+                    } else if (dropRate > 0 && random.nextDouble() < dropRate) {
+                        dropped.incrementAndGet();
+                    } else {
+                        out.writeUTF(namespace);
+                        out.writeUTF(message);
+                        echoed.incrementAndGet();
+                        shown = true;
+                    }
+
+                    // opt into the compact format once the sender is known to be listening, and
+                    // say who it is before any of its rolls come back from the hub
+                    if (!announced) {
+                        announced = true;
+                        out.writeUTF(namespace);
+                        out.writeUTF(RollMessageEncoder.STATISTICS_ANNOUNCEMENT);
+                        out.writeUTF(namespace);
+                        out.writeUTF(RollMessageEncoder.FORMAT_ANNOUNCEMENT);
+                        out.writeUTF(namespace);
+                        out.writeUTF(PlayerRollEncoder.playerMessage(player));
+                    }
+
+                    // answer a burst with one write
+                    if (in.available() == 0) {
+                        out.flush();
+                    }
+                }
+                if (shown) {
+                    hub.submit(member, message);
+                }
+            }
+        } catch (EOFException e) {
+            // sender disconnected
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("LoopbackReceiver: connection failed: " + e);
+            }
+        } finally {
+            if (member != null) {
+                hub.leave(member);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    // write the rolls of every player to the connection until the sender leaves
+    private void startFanOut(final RollHub.Member member, final DataOutputStream out, String player) {
+        final RollHub.Sink sink = new RollHub.Sink() {
+            @Override
+            public void deliver(String message) throws IOException {
+                synchronized (out) {
+                    out.writeUTF(namespace);
+                    out.writeUTF(message);
+                }
+            }
+        };
+        Thread fanOut = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!closed && !member.hasLeft()) {
+                        if (hub.poll(member, sink) > 0) {
+                            synchronized (out) {
+                                out.flush();
+                            }
+                            // let rolls gather so a busy table costs a write per interval, not per roll
+                            Thread.sleep(FAN_OUT_INTERVAL_MS);
+                        }
+                        hub.await(member, 100, TimeUnit.MILLISECONDS);
+                    }
+                } catch (IOException e) {
+                    // the connection is closed by its reader
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }
+        }, "LoopbackReceiver-" + player + "-fanout");
+        fanOut.setDaemon(true);
+        fanOut.start();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = 0;
+        String namespace = DEFAULT_NAMESPACE;
+        double dropRate = 0;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value for " + option);
+            }
+            String value = args[++i];
+            if ("--port".equals(option)) {
+                port = Integer.parseInt(value);
+            } else if ("--namespace".equals(option)) {
+                namespace = value;
+            } else if ("--drop".equals(option)) {
+                dropRate = Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+
+        LoopbackReceiver receiver = new LoopbackReceiver(port, namespace, dropRate);
+        receiver.start();
+        System.out.println("listening on " + receiver.getPort() + ", namespace " + namespace);
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,141 @@
+package com.honu.dicecast.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only, memory-mapped snapshot of a roll history file written by {@link RollLog}.
+ * <p/>
+ * The view covers the rolls written when it was opened; open a new one to see later rolls.
+ * Timestamps are non-decreasing, so time ranges are found by binary search and only the
+ * records in range are paged in. A log may hold up to about 178 million rolls (2 GB).
+ */
+public class MappedRollLog {
+
+    // Highest possible sum of the two dice, sum distributions are indexed by sum
+    public static final int MAX_SUM = 2 * 255;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    public MappedRollLog(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("roll log too large to map: " + file);
+            }
+            if (length < RollLogFormat.HEADER_BYTES) {
+                throw new IOException("not a roll log: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            raf.close();
+        }
+
+        if (buffer.getInt(0) != RollLogFormat.MAGIC) {
+            throw new IOException("not a roll log: " + file);
+        }
+        int version = buffer.getInt(4);
+        if (version != RollLogFormat.VERSION) {
+            throw new IOException("unsupported roll log version " + version + ": " + file);
+        }
+        size = (buffer.capacity() - RollLogFormat.HEADER_BYTES) / RollLogFormat.RECORD_BYTES;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long timestamp(int index) {
+        return buffer.getLong(offset(index));
+    }
+
+    public int source(int index) {
+        return buffer.get(offset(index) + 8) & 0xff;
+    }
+
+    public int die1(int index) {
+        return buffer.get(offset(index) + 9) & 0xff;
+    }
+
+    public int die2(int index) {
+        return buffer.get(offset(index) + 10) & 0xff;
+    }
+
+    /**
+     * Index of the first roll at or after the given time, or size() when there is none.
+     */
+    public int indexOf(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamp(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copy the last rolls, oldest first, into the given arrays starting at index 0.
+     *
+     * @return the number of rolls copied, at most count
+     */
+    public int readLast(int count, long[] timestamps, int[] sources, int[] dice1, int[] dice2) {
+        count = Math.min(count, size);
+        read(size - count, timestamps, sources, dice1, dice2, count);
+        return count;
+    }
+
+    /**
+     * Copy rolls[from .. from + count) into the given arrays starting at index 0.
+     */
+    public void read(int from, long[] timestamps, int[] sources, int[] dice1, int[] dice2, int count) {
+        int offset = offset(from);
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = buffer.getLong(offset);
+            sources[i] = buffer.get(offset + 8) & 0xff;
+            dice1[i] = buffer.get(offset + 9) & 0xff;
+            dice2[i] = buffer.get(offset + 10) & 0xff;
+            offset += RollLogFormat.RECORD_BYTES;
+        }
+    }
+
+    /**
+     * Add the number of rolls with each sum in rolls[from .. to) to counts, which is indexed by
+     * sum and must be large enough for the highest sum in range (MAX_SUM + 1 always is).
+     */
+    public void sumDistribution(int from, int to, long[] counts) {
+        int offset = offset(from);
+        for (int i = from; i < to; i++) {
+            int dice = buffer.getShort(offset + 9);
+            counts[((dice >> 8) & 0xff) + (dice & 0xff)]++;
+            offset += RollLogFormat.RECORD_BYTES;
+        }
+    }
+
+    /**
+     * Add the number of rolls with each sum between the given times (start inclusive, end
+     * exclusive) to counts.
+     *
+     * @return the number of rolls counted
+     */
+    public int sumDistributionBetween(long startTimestamp, long endTimestamp, long[] counts) {
+        int from = indexOf(startTimestamp);
+        int to = Math.max(from, indexOf(endTimestamp));
+        sumDistribution(from, to, counts);
+        return to - from;
+    }
+
+    private static int offset(int index) {
+        return RollLogFormat.HEADER_BYTES + index * RollLogFormat.RECORD_BYTES;
+    }
+}
@@ -0,0 +1,84 @@
+package com.honu.dicecast.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only, memory-mapped view of a trace file written by {@link TraceWriter}.
+ * <p/>
+ * Samples are read straight from the mapping by index, so large traces are paged in by the OS
+ * rather than loaded into the heap. A trace may hold up to about 100 million samples (2 GB).
+ */
+public class MappedTrace {
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    public MappedTrace(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("trace too large to map: " + file);
+            }
+            if (length < TraceFormat.HEADER_BYTES) {
+                throw new IOException("not a trace file: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            raf.close();
+        }
+
+        if (buffer.getInt(0) != TraceFormat.MAGIC) {
+            throw new IOException("not a trace file: " + file);
+        }
+        int version = buffer.getInt(4);
+        if (version != TraceFormat.VERSION) {
+            throw new IOException("unsupported trace version " + version + ": " + file);
+        }
+        // a trailing partial record is left over when recording was interrupted
+        size = (buffer.capacity() - TraceFormat.HEADER_BYTES) / TraceFormat.RECORD_BYTES;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long timestamp(int index) {
+        return buffer.getLong(offset(index));
+    }
+
+    public float x(int index) {
+        return buffer.getFloat(offset(index) + 8);
+    }
+
+    public float y(int index) {
+        return buffer.getFloat(offset(index) + 12);
+    }
+
+    public float z(int index) {
+        return buffer.getFloat(offset(index) + 16);
+    }
+
+    /**
+     * Copy samples[from .. from + count) into the given arrays starting at index 0.
+     */
+    public void read(int from, long[] timestamps, float[] xs, float[] ys, float[] zs, int count) {
+        int offset = offset(from);
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = buffer.getLong(offset);
+            xs[i] = buffer.getFloat(offset + 8);
+            ys[i] = buffer.getFloat(offset + 12);
+            zs[i] = buffer.getFloat(offset + 16);
+            offset += TraceFormat.RECORD_BYTES;
+        }
+    }
+
+    private static int offset(int index) {
+        return TraceFormat.HEADER_BYTES + index * TraceFormat.RECORD_BYTES;
+    }
+}
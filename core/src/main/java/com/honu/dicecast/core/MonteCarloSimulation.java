@@ -0,0 +1,132 @@
+package com.honu.dicecast.core;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rolls the dice a large number of times in parallel and counts how often each sum comes up.
+ * <p/>
+ * The rolls are divided in halves down to LEAF_ROLLS and every division splits a
+ * {@link SplitMix64} stream off the parent's, so the streams, and therefore the result, depend
+ * only on the seed and the number of rolls, never on the number of threads. Every leaf rolls
+ * with a {@link DiceRoller}, the same rules as an interactive roll, into its own histogram, and
+ * histograms are added up as tasks join, so threads share nothing but the progress counter
+ * updated once per leaf.
+ * <p/>
+ * {@link #cancel()} and the progress getters may be called from any thread while it runs.
+ */
+public class MonteCarloSimulation {
+
+    // Rolls done by one task without dividing further
+    static final int LEAF_ROLLS = 1 << 16;
+
+    private final int count;
+    private final int sides;
+    private final long rolls;
+    private final long seed;
+
+    private final AtomicLong completed = new AtomicLong();
+    private volatile boolean cancelled;
+
+    public MonteCarloSimulation(int count, int sides, long rolls, long seed) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        if (sides < 2) {
+            throw new IllegalArgumentException("sides must be at least 2: " + sides);
+        }
+        if (rolls < 0) {
+            throw new IllegalArgumentException("rolls must not be negative: " + rolls);
+        }
+        this.count = count;
+        this.sides = sides;
+        this.rolls = rolls;
+        this.seed = seed;
+    }
+
+    /**
+     * Run the simulation on the given pool, blocking until it is done.
+     *
+     * @return the number of rolls with each sum, indexed by sum
+     * @throws CancellationException if {@link #cancel()} was called
+     */
+    public long[] run(ForkJoinPool pool) {
+        completed.set(0);
+        long[] counts = pool.invoke(new RollTask(0, rolls, new SplitMix64(seed)));
+        if (cancelled) {
+            throw new CancellationException("simulation cancelled");
+        }
+        return counts;
+    }
+
+    /**
+     * Stop the simulation, tasks that have not started yet skip their rolls.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public long getRolls() {
+        return rolls;
+    }
+
+    /**
+     * Rolls done so far, advancing in steps of up to LEAF_ROLLS.
+     */
+    public long getCompletedRolls() {
+        return completed.get();
+    }
+
+    public int getMinSum() {
+        return count;
+    }
+
+    public int getMaxSum() {
+        return count * sides;
+    }
+
+    private class RollTask extends RecursiveTask<long[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+        private final SplitMix64 random;
+
+        RollTask(long from, long to, SplitMix64 random) {
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        @Override
+        protected long[] compute() {
+            long length = to - from;
+            if (length <= LEAF_ROLLS) {
+                long[] counts = new long[count * sides + 1];
+                if (!cancelled) {
+                    new DiceRoller(count, sides, random).rollHistogram(counts, (int) length);
+                    completed.addAndGet(length);
+                }
+                return counts;
+            }
+
+            long mid = from + length / 2;
+            RollTask left = new RollTask(from, mid, random.split());
+            RollTask right = new RollTask(mid, to, random);
+            left.fork();
+            long[] counts = right.compute();
+            long[] leftCounts = left.join();
+            for (int sum = 0; sum < counts.length; sum++) {
+                counts[sum] += leftCounts[sum];
+            }
+            return counts;
+        }
+    }
+}
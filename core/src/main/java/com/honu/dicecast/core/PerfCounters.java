@@ -0,0 +1,154 @@
+package com.honu.dicecast.core;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on counters of the roll pipeline: sensor samples and the time spent on them, shakes,
+ * messages sent to the receiver and drawables decoded.
+ * <p/>
+ * Each counter has a single writer thread, e.g. the sensor thread for the sensor counters and
+ * the main thread for the message counters, so counting is a plain read and an ordered store,
+ * a few nanoseconds. Any thread can take a {@link Snapshot}; rates such as samples per second
+ * come from the difference between two snapshots. Nothing allocates except taking a snapshot.
+ */
+public class PerfCounters {
+
+    // Accelerometer samples received
+    public static final int SENSOR_SAMPLES = 0;
+    // Time spent handling them, in nanoseconds
+    public static final int SENSOR_NANOS = 1;
+    // Shakes detected
+    public static final int SHAKES = 2;
+    // Samples ignored in the pause after a shake
+    public static final int SHAKES_DEBOUNCED = 3;
+    // Roll messages handed to the transport
+    public static final int MESSAGES_SENT = 4;
+    // Roll messages the transport failed to send
+    public static final int MESSAGES_FAILED = 5;
+    // Roll messages in flight or waiting for the window, a current value rather than a count
+    public static final int MESSAGES_PENDING = 6;
+    // Die face drawables decoded
+    public static final int DRAWABLES_DECODED = 7;
+
+    public static final int COUNTERS = 8;
+
+    private static final String[] NAMES = {
+          "sensor samples", "sensor ns", "shakes", "debounced samples",
+          "messages sent", "messages failed", "messages pending", "drawables decoded"
+    };
+
+    private final AtomicLongArray values = new AtomicLongArray(COUNTERS);
+
+    /**
+     * Add to a counter, only ever from the counter's writer thread.
+     */
+    public void add(int counter, long delta) {
+        values.lazySet(counter, values.get(counter) + delta);
+    }
+
+    public void increment(int counter) {
+        add(counter, 1);
+    }
+
+    /**
+     * Set a counter that holds a current value, such as MESSAGES_PENDING.
+     */
+    public void set(int counter, long value) {
+        values.lazySet(counter, value);
+    }
+
+    public long get(int counter) {
+        return values.get(counter);
+    }
+
+    /**
+     * Copy every counter.
+     *
+     * @param nanos the time of the snapshot, used for rates
+     */
+    public Snapshot snapshot(long nanos) {
+        long[] copy = new long[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            copy[i] = values.get(i);
+        }
+        return new Snapshot(nanos, copy);
+    }
+
+    public static String nameOf(int counter) {
+        return NAMES[counter];
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        Snapshot snapshot = snapshot(0);
+        writer.print(prefix);
+        writer.println("Counters:");
+        for (int i = 0; i < COUNTERS; i++) {
+            writer.print(prefix);
+            writer.println(String.format(Locale.US, "  %-18s %d", NAMES[i], snapshot.get(i)));
+        }
+        writer.print(prefix);
+        writer.println(String.format(Locale.US, "  %-18s %.0f", "ns per sample",
+              snapshot.perEvent(SENSOR_NANOS, SENSOR_SAMPLES, null)));
+    }
+
+    /**
+     * The counters at one moment, immutable.
+     */
+    public static final class Snapshot {
+
+        private final long nanos;
+        private final long[] values;
+
+        Snapshot(long nanos, long[] values) {
+            this.nanos = nanos;
+            this.values = values;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long get(int counter) {
+            return values[counter];
+        }
+
+        /**
+         * How much a counter grew since an earlier snapshot.
+         */
+        public long delta(int counter, Snapshot since) {
+            return values[counter] - since.values[counter];
+        }
+
+        /**
+         * Growth of a counter per second since an earlier snapshot, 0 if no time passed.
+         */
+        public double rate(int counter, Snapshot since) {
+            long elapsed = nanos - since.nanos;
+            return elapsed <= 0 ? 0 : delta(counter, since) * 1e9 / elapsed;
+        }
+
+        /**
+         * Growth of one counter per unit of another, e.g. SENSOR_NANOS per SENSOR_SAMPLES, since
+         * an earlier snapshot or, if it is null, since the start. 0 if the other did not grow.
+         */
+        public double perEvent(int counter, int events, Snapshot since) {
+            long count = since != null ? delta(events, since) : values[events];
+            long total = since != null ? delta(counter, since) : values[counter];
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < COUNTERS; i++) {
+                if (i > 0) {
+                    text.append(", ");
+                }
+                text.append(NAMES[i]).append(' ').append(values[i]);
+            }
+            return text.toString();
+        }
+    }
+}
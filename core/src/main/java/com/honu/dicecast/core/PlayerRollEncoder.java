@@ -0,0 +1,254 @@
+package com.honu.dicecast.core;
+
+/**
+ * Messages a receiver acting as a {@link RollHub} sends to every sender at the table.
+ * <ul>
+ * <li>{"player":"sender-3"}: the id the receiver knows a sender by, sent to it once with the
+ * format announcement.</li>
+ * <li>{"roll":{"order":12,"player":"sender-3","die1":3,"die2":4}} or, for a dice expression,
+ * {"roll":{"order":12,"player":"sender-3","expr":"4d6kh3+2","total":14,"dice":[6,5,3]}}: a
+ * roll of any player, order being its place in the order the receiver took rolls in.</li>
+ * </ul>
+ * Neither message has a "seq" field, so senders that predate the hub ignore them instead of
+ * taking them for echoes. The receiver passes on whatever a sender sent, so rolls of two dice
+ * with a face outside 1..DIE_SIDES are rejected both when the body is built and when decoded.
+ */
+public final class PlayerRollEncoder {
+
+    public static final String PLAYER_PREFIX = "{\"player\":";
+    public static final String ROLL_PREFIX = "{\"roll\":";
+
+    // Longest player id kept, longer ones are cut
+    public static final int MAX_PLAYER_LENGTH = 64;
+
+    // Sides of the dice of a roll without an expression
+    public static final int DIE_SIDES = 6;
+
+    private static final String ORDER = "{\"roll\":{\"order\":";
+
+    private PlayerRollEncoder() {
+    }
+
+    public static String playerMessage(String player) {
+        return PLAYER_PREFIX + '"' + sanitize(player) + "\"}";
+    }
+
+    /**
+     * The id in a player message, or null if it is not one.
+     */
+    public static String playerOf(String message) {
+        return message.startsWith(PLAYER_PREFIX) ? stringField(message, "player") : null;
+    }
+
+    /**
+     * Everything but the order of the roll message for a message a sender sent, so the order can
+     * be given once the message is known to be a roll.
+     *
+     * @return the body to pass to {@link #rollMessage(long, String)}, or null if the message is not
+     * a roll, e.g. statistics
+     */
+    public static String rollBody(String player, String message) {
+        StringBuilder body = new StringBuilder(64);
+        body.append(",\"player\":\"").append(sanitize(player)).append('"');
+        if (message.startsWith("{")) {
+            if (message.startsWith(LoopbackReceiver.STATS_PREFIX)) {
+                return null;
+            }
+            String notation = stringField(message, "expr");
+            if (notation != null) {
+                int dice = message.indexOf("\"dice\":[");
+                int end = dice < 0 ? -1 : message.indexOf(']', dice);
+                if (!isNotation(notation) || !hasField(message, "total") || end < 0
+                      || !isIntList(message, dice + "\"dice\":[".length(), end)) {
+                    return null;
+                }
+                body.append(",\"expr\":\"").append(notation)
+                      .append("\",\"total\":").append(intField(message, "total"))
+                      .append(',').append(message, dice, end + 1);
+            } else if (isFace(intField(message, "die1")) && isFace(intField(message, "die2"))) {
+                body.append(",\"die1\":").append(intField(message, "die1"))
+                      .append(",\"die2\":").append(intField(message, "die2"));
+            } else {
+                return null;
+            }
+        } else {
+            // compact, 2:<die1>,<die2>[,<seq>]
+            int colon = message.indexOf(':');
+            int comma = message.indexOf(',', colon + 1);
+            if (colon < 0 || comma < 0) {
+                return null;
+            }
+            int die1 = parseInt(message, colon + 1);
+            int die2 = parseInt(message, comma + 1);
+            if (!isFace(die1) || !isFace(die2)) {
+                return null;
+            }
+            body.append(",\"die1\":").append(die1).append(",\"die2\":").append(die2);
+        }
+        return body.append("}}").toString();
+    }
+
+    public static String rollMessage(long order, String body) {
+        return ORDER + order + body;
+    }
+
+    /**
+     * The order of a roll message, 0 if it is not one.
+     */
+    public static long orderOf(String message) {
+        if (!message.startsWith(ORDER)) {
+            return 0;
+        }
+        long order = 0;
+        for (int i = ORDER.length(); i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            order = order * 10 + (c - '0');
+        }
+        return order;
+    }
+
+    /**
+     * The player of a roll message.
+     */
+    public static String rollPlayerOf(String message) {
+        return stringField(message, "player");
+    }
+
+    /**
+     * Decode a roll message into a snapshot whose version is the order. Expressions are compiled
+     * through the cache; a roll of an expression lists at most RollMessageEncoder.MAX_LISTED_DICE
+     * dice.
+     *
+     * @return the roll, or null if the message is not a valid roll message, including a roll of
+     * two dice with a face outside 1..DIE_SIDES
+     */
+    public static RollSnapshot decode(String message, DiceExpressionCache expressions) {
+        long order = orderOf(message);
+        if (order == 0) {
+            return null;
+        }
+        String notation = stringField(message, "expr");
+        if (notation == null) {
+            int die1 = intField(message, "die1");
+            int die2 = intField(message, "die2");
+            if (!isFace(die1) || !isFace(die2)) {
+                return null;
+            }
+            return new RollSnapshot(order, null, die1 + die2, new int[]{die1, die2});
+        }
+
+        DiceExpression expression;
+        try {
+            expression = expressions.compile(notation);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int total = intField(message, "total");
+        int start = message.indexOf("\"dice\":[");
+        int end = start < 0 ? -1 : message.indexOf(']', start);
+        if (total == Integer.MIN_VALUE || end < 0) {
+            return null;
+        }
+        int[] dice = new int[Math.min(expression.getDiceCount(), RollMessageEncoder.MAX_LISTED_DICE)];
+        int pos = start + "\"dice\":[".length();
+        for (int i = 0; i < dice.length; i++) {
+            int value = pos < end ? parseInt(message, pos) : Integer.MIN_VALUE;
+            if (value == Integer.MIN_VALUE) {
+                return null;
+            }
+            dice[i] = value;
+            pos = message.indexOf(',', pos) + 1;
+            if (pos == 0) {
+                pos = end;
+            }
+        }
+        return new RollSnapshot(order, expression, total, dice);
+    }
+
+    // ids go into JSON strings unescaped, so anything unusual is replaced
+    private static String sanitize(String player) {
+        int length = Math.min(player.length(), MAX_PLAYER_LENGTH);
+        StringBuilder out = null;
+        for (int i = 0; i < length; i++) {
+            char c = player.charAt(i);
+            boolean plain = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                  || c == '-' || c == '_' || c == '.' || c == ':';
+            if (!plain && out == null) {
+                out = new StringBuilder(length).append(player, 0, i);
+            }
+            if (out != null) {
+                out.append(plain ? c : '_');
+            }
+        }
+        return out != null ? out.toString() : player.substring(0, length);
+    }
+
+    private static boolean isFace(int face) {
+        return face >= 1 && face <= DIE_SIDES;
+    }
+
+    private static boolean isNotation(String notation) {
+        for (int i = 0; i < notation.length(); i++) {
+            char c = notation.charAt(i);
+            if (c == '"' || c == '\\' || c < ' ') {
+                return false;
+            }
+        }
+        return notation.length() <= 2 * DiceExpression.MAX_NOTATION_LENGTH;
+    }
+
+    private static boolean isIntList(String message, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+            if ((c < '0' || c > '9') && c != ',' && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasField(String message, String name) {
+        return intField(message, name) != Integer.MIN_VALUE;
+    }
+
+    // value of "name":<int>, Integer.MIN_VALUE when missing
+    private static int intField(String message, String name) {
+        int start = message.indexOf("\"" + name + "\":");
+        return start < 0 ? Integer.MIN_VALUE : parseInt(message, start + name.length() + 3);
+    }
+
+    // value of "name":"<text>", null when missing
+    private static String stringField(String message, String name) {
+        String key = "\"" + name + "\":\"";
+        int start = message.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = message.indexOf('"', start);
+        return end < 0 ? null : message.substring(start, end);
+    }
+
+    // an optionally negative int of up to 9 digits at pos, Integer.MIN_VALUE if there is none
+    private static int parseInt(String message, int pos) {
+        boolean negative = pos < message.length() && message.charAt(pos) == '-';
+        int start = negative ? pos + 1 : pos;
+        int value = 0;
+        int end = start;
+        while (end < message.length() && end - start < 9) {
+            char c = message.charAt(end);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            end++;
+        }
+        if (end == start) {
+            return Integer.MIN_VALUE;
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,82 @@
+package com.honu.dicecast.core;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The generators dice can be rolled with.
+ * <p/>
+ * Every source is a {@link Random}, so a {@link DiceRoller} or {@link DiceExpression} draws from
+ * any of them with the same rejection-sampled bounded draw. Apart from SECURE, a source created
+ * with a seed always produces the same rolls, which is how a roll sequence is replayed. Only
+ * RANDOM and SECURE are safe to share between threads; give each thread its own generator.
+ */
+public enum RandomSource {
+
+    // java.util.Random, a 48-bit linear congruential generator, what the app used at first
+    RANDOM {
+        @Override
+        public Random create(long seed) {
+            return new Random(seed);
+        }
+    },
+
+    // The SplitMix64 algorithm of java.util.SplittableRandom
+    SPLITMIX64 {
+        @Override
+        public Random create(long seed) {
+            return new SplitMix64(seed);
+        }
+    },
+
+    // xoshiro256**, 256 bits of state and a period of 2^256 - 1
+    XOSHIRO256 {
+        @Override
+        public Random create(long seed) {
+            return new Xoshiro256(seed);
+        }
+    },
+
+    // The platform's cryptographically strong generator, seeded by the platform
+    SECURE {
+        @Override
+        public Random create() {
+            return new SecureRandom();
+        }
+
+        @Override
+        public Random create(long seed) {
+            throw new UnsupportedOperationException("a secure generator cannot be seeded for replay");
+        }
+
+        @Override
+        public boolean isDeterministic() {
+            return false;
+        }
+    };
+
+    // Seeds for generators created without one, stepped so generators created together differ
+    private static final AtomicLong seeds = new AtomicLong(System.nanoTime() ^ System.currentTimeMillis());
+
+    /**
+     * Create a generator with an unpredictable seed.
+     */
+    public Random create() {
+        return create(seeds.getAndAdd(0x9e3779b97f4a7c15L) ^ System.nanoTime());
+    }
+
+    /**
+     * Create a generator that produces the same numbers whenever it is created with this seed.
+     *
+     * @throws UnsupportedOperationException if the source is not deterministic
+     */
+    public abstract Random create(long seed);
+
+    /**
+     * Whether {@link #create(long)} can be used to replay rolls.
+     */
+    public boolean isDeterministic() {
+        return true;
+    }
+}
@@ -0,0 +1,133 @@
+package com.honu.dicecast.core;
+
+/**
+ * Detects shakes by counting direction reversals.
+ * <p/>
+ * Gravity is removed with the same low-pass filter as {@link AxisThresholdDetector}. An axis
+ * reverses when its linear acceleration swings from above +MIN_ACCELERATION to below
+ * -MIN_ACCELERATION or back; smaller swings are ignored (hysteresis). The timestamps of the last
+ * MIN_REVERSALS reversals are kept in a ring buffer, and a shake is reported when all of them
+ * fall within REVERSAL_WINDOW_NS.
+ */
+public final class ReversalDetector extends ShakeDetector {
+
+    // Linear acceleration (m/s^2) an axis has to pass in each direction
+    public static final float MIN_ACCELERATION = 4;
+
+    // Reversals needed within the window to register as a shake
+    public static final int MIN_REVERSALS = 3;
+
+    public static final long REVERSAL_WINDOW_NS = 1000000000L; // 1 sec (in nanoseconds)
+
+    private final float minAcceleration;
+
+    // Ring buffer of reversal timestamps
+    private final long[] reversals;
+    private int next;
+    private int count;
+
+    // Sign of the last swing past the threshold per axis: 1, -1 or 0 for none yet
+    private int directionX;
+    private int directionY;
+    private int directionZ;
+
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ;
+    private boolean initialized;
+
+    private long lastEventTime = 0;
+
+    public ReversalDetector() {
+        this(MIN_ACCELERATION, MIN_REVERSALS);
+    }
+
+    public ReversalDetector(float minAcceleration, int minReversals) {
+        if (minReversals < 1) {
+            throw new IllegalArgumentException("minReversals must be positive: " + minReversals);
+        }
+        this.minAcceleration = minAcceleration;
+        this.reversals = new long[minReversals];
+    }
+
+    @Override
+    public boolean onSample(long timestamp, float x, float y, float z) {
+        // Enforce pause between rolls
+        if (timestamp < lastEventTime + SHAKE_PAUSE_NS) {
+            debouncedCount++;
+            return false;
+        }
+
+        gravityX = ALPHA * gravityX + (1 - ALPHA) * x;
+        gravityY = ALPHA * gravityY + (1 - ALPHA) * y;
+        gravityZ = ALPHA * gravityZ + (1 - ALPHA) * z;
+        if (!initialized) {
+            // the first sample only seeds the filter, like the original heuristic
+            initialized = true;
+            return false;
+        }
+
+        int swing = direction(x - gravityX, directionX);
+        boolean reversed = swing != directionX && directionX != 0;
+        directionX = swing;
+
+        swing = direction(y - gravityY, directionY);
+        reversed |= swing != directionY && directionY != 0;
+        directionY = swing;
+
+        swing = direction(z - gravityZ, directionZ);
+        reversed |= swing != directionZ && directionZ != 0;
+        directionZ = swing;
+
+        if (!reversed) {
+            return false;
+        }
+
+        reversals[next] = timestamp;
+        next = next + 1 == reversals.length ? 0 : next + 1;
+        if (count < reversals.length) {
+            count++;
+        }
+
+        // next now points at the oldest of the buffered reversals
+        if (count == reversals.length && timestamp - reversals[next] <= REVERSAL_WINDOW_NS) {
+            lastEventTime = timestamp;
+            count = 0;
+            directionX = 0;
+            directionY = 0;
+            directionZ = 0;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long getLastShakeTimestamp() {
+        return lastEventTime;
+    }
+
+    @Override
+    public void reset() {
+        next = 0;
+        count = 0;
+        directionX = 0;
+        directionY = 0;
+        directionZ = 0;
+        gravityX = 0;
+        gravityY = 0;
+        gravityZ = 0;
+        initialized = false;
+        lastEventTime = 0;
+    }
+
+    // new direction of an axis given its linear acceleration and the previous direction
+    private int direction(float linear, int previous) {
+        if (linear > minAcceleration) {
+            return 1;
+        }
+        if (linear < -minAcceleration) {
+            return -1;
+        }
+        return previous;
+    }
+}
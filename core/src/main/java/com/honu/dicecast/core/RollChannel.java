@@ -0,0 +1,247 @@
+package com.honu.dicecast.core;
+
+import java.io.IOException;
+
+/**
+ * The sender side of the dice roll protocol, independent of how messages travel.
+ * <p/>
+ * Rolls go through a {@link RollSendPipeline}: each message carries a sequence number and the
+ * receiver's echo of it acknowledges delivery. Rolls made while the in-flight window is full
+ * are coalesced so only the latest one is sent.
+ * <p/>
+ * Receivers start with the JSON format and announce when they accept the compact one. Each roll
+ * sent to a receiver that announced it accepts statistics, or the compact format, is followed by
+ * a snapshot of the roll statistics, in either format; older receivers would show it as a roll,
+ * so they only get rolls.
+ * <p/>
+ * Rolls of dice expressions go through the same pipeline. Only the latest roll is ever sent, so
+ * the channel keeps that roll and encodes it when its turn comes.
+ * <p/>
+ * A receiver acting as a {@link RollHub} tells the channel its player id and sends it the rolls
+ * of every player in order; the rolls of other players are passed to
+ * {@link #onPlayerRoll(String, RollSnapshot)}, any that arrive out of order are dropped.
+ * <p/>
+ * Not thread safe: use the channel on the thread the scheduler runs tasks on.
+ */
+public class RollChannel {
+
+    private final String namespace;
+    private final RollTransport transport;
+
+    private final RollMessageEncoder encoder = new RollMessageEncoder();
+
+    // Receivers start with the JSON format and may opt into the compact one
+    private int format = RollMessageEncoder.FORMAT_JSON;
+
+    // Whether the receiver shows statistics messages rather than taking them for rolls
+    private boolean statisticsAccepted;
+
+    private final RollSendPipeline pipeline;
+
+    private final RollStatistics statistics;
+    private final RollStatistics.Snapshot snapshot;
+    private final RollStatisticsEncoder statisticsEncoder = new RollStatisticsEncoder();
+
+    // Latest roll when it was of a dice expression, null for the standard dice
+    private DiceExpression expression;
+    private int expressionTotal;
+    private int[] expressionDice = new int[0];
+
+    // Id the receiver knows this sender by, null until it says
+    private String player;
+
+    // Order of the latest roll of any player taken from the receiver
+    private long playerOrder;
+    private final DiceExpressionCache playerExpressions = new DiceExpressionCache();
+
+    private final RollTransport.Receiver receiver = new RollTransport.Receiver() {
+        @Override
+        public void onMessage(String message) {
+            onMessageReceived(message);
+        }
+    };
+
+    private final RollTransport.SendCallback sendCallback = new RollTransport.SendCallback() {
+        @Override
+        public void onSendResult(int seq, boolean success) {
+            pipeline.onSendResult(seq, success);
+            RollChannel.this.onSendResult(seq, success);
+        }
+    };
+
+    public RollChannel(String namespace, RollTransport transport, RollSendPipeline.Scheduler scheduler,
+                       RollStatistics statistics) {
+        this(namespace, transport, scheduler, RollSendPipeline.DEFAULT_WINDOW, statistics);
+    }
+
+    public RollChannel(String namespace, RollTransport transport, RollSendPipeline.Scheduler scheduler,
+                       int window, RollStatistics statistics) {
+        this.namespace = namespace;
+        this.transport = transport;
+        this.statistics = statistics;
+        this.snapshot = statistics.newSnapshot();
+        this.pipeline = new RollSendPipeline(new TransportSender(), scheduler, window);
+    }
+
+    public void open() throws IOException {
+        transport.open(namespace, receiver);
+    }
+
+    /**
+     * Close the transport and forget the rolls still in flight.
+     */
+    public void close() throws IOException {
+        pipeline.reset();
+        transport.close();
+    }
+
+    public void sendDiceRoll(int die1, int die2) {
+        expression = null;
+        pipeline.submit(die1, die2);
+    }
+
+    /**
+     * Send a roll of a dice expression, the dice as written by {@link DiceExpression#roll}.
+     */
+    public void sendExpressionRoll(DiceExpression expression, int total, int[] dice) {
+        this.expression = expression;
+        this.expressionTotal = total;
+        if (expressionDice.length < expression.getDiceCount()) {
+            expressionDice = new int[expression.getDiceCount()];
+        }
+        System.arraycopy(dice, 0, expressionDice, 0, expression.getDiceCount());
+        pipeline.submit(total, 0);
+    }
+
+    /**
+     * Send a published roll, the dice of a roller as a pair of dice.
+     */
+    public void sendRoll(RollSnapshot roll) {
+        DiceExpression expression = roll.getExpression();
+        if (expression == null) {
+            sendDiceRoll(roll.getDie1(), roll.getDie2());
+        } else {
+            sendExpressionRoll(expression, roll.getTotal(), roll.dice);
+        }
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public RollTransport getTransport() {
+        return transport;
+    }
+
+    public RollSendPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * The id the receiver knows this sender by, null if it has not said or is not a hub.
+     */
+    public String getPlayer() {
+        return player;
+    }
+
+    /**
+     * Order of the latest roll taken from the receiver, 0 before the first.
+     */
+    public long getPlayerOrder() {
+        return playerOrder;
+    }
+
+    /**
+     * Handle a message from the receiver: a format or statistics announcement, this sender's
+     * player id, a roll of any player or the echo of a roll.
+     */
+    protected void onMessageReceived(String message) {
+        if (RollMessageEncoder.FORMAT_ANNOUNCEMENT.equals(message)) {
+            format = RollMessageEncoder.FORMAT_COMPACT;
+            statisticsAccepted = true;
+            return;
+        }
+        if (RollMessageEncoder.STATISTICS_ANNOUNCEMENT.equals(message)) {
+            statisticsAccepted = true;
+            return;
+        }
+        if (message.startsWith(PlayerRollEncoder.ROLL_PREFIX)) {
+            onPlayerRollReceived(message);
+            return;
+        }
+        if (message.startsWith(PlayerRollEncoder.PLAYER_PREFIX)) {
+            player = PlayerRollEncoder.playerOf(message);
+            return;
+        }
+
+        // the receiver echoes every message it displays
+        int seq = RollMessageEncoder.sequenceOf(message);
+        if (seq != 0) {
+            onEchoed(seq);
+            pipeline.onAcknowledged(seq);
+        }
+    }
+
+    private void onPlayerRollReceived(String message) {
+        long order = PlayerRollEncoder.orderOf(message);
+        if (order <= playerOrder) {
+            return;
+        }
+        playerOrder = order;
+        String from = PlayerRollEncoder.rollPlayerOf(message);
+        if (from == null || from.equals(player)) {
+            return;
+        }
+        RollSnapshot roll = PlayerRollEncoder.decode(message, playerExpressions);
+        if (roll != null) {
+            onPlayerRoll(from, roll);
+        }
+    }
+
+    /**
+     * Called with the roll of another player at the table, whose version is its order among
+     * the rolls of every player.
+     */
+    protected void onPlayerRoll(String player, RollSnapshot roll) {
+    }
+
+    /**
+     * Called just before the roll with the given sequence number is handed to the transport.
+     */
+    protected void onSent(int seq) {
+    }
+
+    /**
+     * Called when the receiver echoed the roll with the given sequence number.
+     */
+    protected void onEchoed(int seq) {
+    }
+
+    /**
+     * Called when the transport reports whether the roll with the given sequence number was
+     * sent, after the pipeline has handled it.
+     */
+    protected void onSendResult(int seq, boolean success) {
+    }
+
+
+    private class TransportSender implements RollSendPipeline.Sender {
+
+        @Override
+        public void send(int seq, int die1, int die2) {
+            onSent(seq);
+            String message = expression != null
+                  ? encoder.expressionMessage(seq, expression, expressionTotal, expressionDice)
+                  : encoder.message(format, seq, die1, die2);
+            transport.send(message, seq, sendCallback);
+
+            if (statisticsAccepted) {
+                transport.send(statisticsEncoder.message(statistics.snapshot(snapshot)), 0, null);
+            }
+        }
+    }
+}
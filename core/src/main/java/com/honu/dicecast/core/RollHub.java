@@ -0,0 +1,368 @@
+package com.honu.dicecast.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts the rolls of every player at a table in one order and fans them out to every sender, the
+ * reference for what receiver/dicecast.js does with the Cast message bus.
+ * <p/>
+ * A roll is given the next order with one atomic increment and stored in a ring of the latest
+ * rolls, indexed by order. Each member reads the ring at its own cursor, so every member sees
+ * the rolls in order and a slow member holds up no one else: the ring is never full, the
+ * oldest rolls are overwritten. A member that falls a whole ring behind is resynchronized with
+ * the latest roll of each player it has not seen and carries on from the middle of the ring;
+ * the rolls it skipped are counted. That is the per-sender backpressure: memory and the work of
+ * the players rolling are bounded however slow a sender is.
+ * <p/>
+ * Members live in shards picked by the hash of their id, each an array replaced by
+ * compare-and-set when a member joins or leaves. A member's latest roll is an atomic reference
+ * only ever moved forward. Nothing takes a lock; a member with nothing to read parks until a
+ * roll is published.
+ * <p/>
+ * Rolls are submitted from any thread. Each member is read by one thread at a time, usually
+ * the one writing to its connection.
+ */
+public class RollHub {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * Where a member's messages go, e.g. its connection.
+     */
+    public interface Sink {
+        void deliver(String message) throws IOException;
+    }
+
+    /**
+     * A roll with its order and the broadcast message for it, immutable.
+     */
+    private static final class Entry {
+
+        final long order;
+        final String message;
+
+        Entry(long order, String message) {
+            this.order = order;
+            this.message = message;
+        }
+    }
+
+    /**
+     * A sender at the table.
+     */
+    public static final class Member {
+
+        private final String id;
+        private final int shard;
+
+        // Latest roll of this member, only moves forward
+        private final AtomicReference<Entry> latest = new AtomicReference<Entry>();
+
+        // Next order to deliver, owned by the reading thread
+        private long cursor;
+        private boolean joined;
+
+        // Set while the reading thread is parked waiting for rolls
+        private volatile Thread waiter;
+        private volatile boolean left;
+
+        private final AtomicLong rolls = new AtomicLong();
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong resyncs = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+
+        Member(String id, int shard, long cursor) {
+            this.id = id;
+            this.shard = shard;
+            this.cursor = cursor;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public boolean hasLeft() {
+            return left;
+        }
+
+        public long getRollCount() {
+            return rolls.get();
+        }
+
+        public long getDeliveredCount() {
+            return delivered.get();
+        }
+
+        public long getResyncCount() {
+            return resyncs.get();
+        }
+
+        public long getSkippedCount() {
+            return skipped.get();
+        }
+    }
+
+    private final int mask;
+    private final AtomicReferenceArray<Entry> ring;
+
+    // Last order given
+    private final AtomicLong order = new AtomicLong();
+
+    private final AtomicReferenceArray<Member[]> shards;
+
+    // Totals over members that have left, added to the live ones for the hub's totals
+    private final AtomicLong leftDelivered = new AtomicLong();
+    private final AtomicLong leftResyncs = new AtomicLong();
+    private final AtomicLong leftSkipped = new AtomicLong();
+
+    private static final Member[] NO_MEMBERS = new Member[0];
+
+    private static final Comparator<Entry> BY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+        }
+    };
+
+    public RollHub() {
+        this(DEFAULT_CAPACITY, DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param capacity rolls kept for members to catch up, a power of two of at least 2
+     * @param shards   member shards, a power of two
+     */
+    public RollHub(int capacity, int shards) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two of at least 2: " + capacity);
+        }
+        if (shards < 1 || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("shards must be a power of two: " + shards);
+        }
+        this.mask = capacity - 1;
+        this.ring = new AtomicReferenceArray<Entry>(capacity);
+        this.shards = new AtomicReferenceArray<Member[]>(shards);
+        for (int i = 0; i < shards; i++) {
+            this.shards.set(i, NO_MEMBERS);
+        }
+    }
+
+    /**
+     * Seat a sender. Its first read delivers the latest roll of every player, then every roll
+     * from now on.
+     */
+    public Member join(String id) {
+        Member member = new Member(id, (id.hashCode() & 0x7fffffff) & (shards.length() - 1), order.get() + 1);
+        while (true) {
+            Member[] members = shards.get(member.shard);
+            Member[] joined = new Member[members.length + 1];
+            System.arraycopy(members, 0, joined, 0, members.length);
+            joined[members.length] = member;
+            if (shards.compareAndSet(member.shard, members, joined)) {
+                return member;
+            }
+        }
+    }
+
+    public void leave(Member member) {
+        while (true) {
+            Member[] members = shards.get(member.shard);
+            int index = -1;
+            for (int i = 0; i < members.length; i++) {
+                if (members[i] == member) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            Member[] remaining = new Member[members.length - 1];
+            System.arraycopy(members, 0, remaining, 0, index);
+            System.arraycopy(members, index + 1, remaining, index, remaining.length - index);
+            if (shards.compareAndSet(member.shard, members, remaining)) {
+                member.left = true;
+                leftDelivered.addAndGet(member.delivered.get());
+                leftResyncs.addAndGet(member.resyncs.get());
+                leftSkipped.addAndGet(member.skipped.get());
+                LockSupport.unpark(member.waiter);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take a message from a member and, if it is a roll, give it the next order and publish it
+     * to every member.
+     *
+     * @return the order, 0 if the message is not a roll
+     */
+    public long submit(Member member, String message) {
+        String body = PlayerRollEncoder.rollBody(member.id, message);
+        if (body == null) {
+            return 0;
+        }
+        long next = order.incrementAndGet();
+        Entry entry = new Entry(next, PlayerRollEncoder.rollMessage(next, body));
+
+        // a submitter stalled for a whole ring must not put back an older roll
+        int slot = (int) next & mask;
+        while (true) {
+            Entry current = ring.get(slot);
+            if ((current != null && current.order > next) || ring.compareAndSet(slot, current, entry)) {
+                break;
+            }
+        }
+        while (true) {
+            Entry current = member.latest.get();
+            if ((current != null && current.order > next) || member.latest.compareAndSet(current, entry)) {
+                break;
+            }
+        }
+        member.rolls.incrementAndGet();
+
+        for (int shard = 0; shard < shards.length(); shard++) {
+            for (Member waiting : shards.get(shard)) {
+                Thread waiter = waiting.waiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Deliver the rolls a member has not seen yet, in order, stopping at the first roll that was
+     * given an order but is not published yet.
+     *
+     * @return the number of messages delivered
+     */
+    public int poll(Member member, Sink sink) throws IOException {
+        int count = 0;
+        if (!member.joined) {
+            member.joined = true;
+            count += resync(member, 1, member.cursor, sink);
+        }
+        while (!member.left) {
+            long cursor = member.cursor;
+            Entry entry = ring.get((int) cursor & mask);
+            if (entry == null || entry.order < cursor) {
+                break;
+            }
+            if (entry.order > cursor) {
+                // lapped, catch up from the middle of the ring
+                long resume = Math.max(cursor, order.get() - mask / 2);
+                member.resyncs.incrementAndGet();
+                int resent = resync(member, cursor, resume, sink);
+                member.skipped.addAndGet(resume - cursor - resent);
+                count += resent;
+                continue;
+            }
+            sink.deliver(entry.message);
+            member.cursor = cursor + 1;
+            count++;
+        }
+        member.delivered.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Wait up to the timeout for rolls to read, returning early when one is published or the
+     * member leaves.
+     */
+    public void await(Member member, long timeout, TimeUnit unit) {
+        member.waiter = Thread.currentThread();
+        try {
+            // a roll published before the waiter was set would not unpark it
+            Entry entry = ring.get((int) member.cursor & mask);
+            if (!member.left && (entry == null || entry.order < member.cursor)) {
+                LockSupport.parkNanos(this, unit.toNanos(timeout));
+            }
+        } finally {
+            member.waiter = null;
+        }
+    }
+
+    /**
+     * Order given to the latest roll, which is the number of rolls taken.
+     */
+    public long getOrder() {
+        return order.get();
+    }
+
+    public int getMemberCount() {
+        int count = 0;
+        for (int shard = 0; shard < shards.length(); shard++) {
+            count += shards.get(shard).length;
+        }
+        return count;
+    }
+
+    public long getDeliveredCount() {
+        long count = leftDelivered.get();
+        for (int shard = 0; shard < shards.length(); shard++) {
+            for (Member member : shards.get(shard)) {
+                count += member.delivered.get();
+            }
+        }
+        return count;
+    }
+
+    public long getResyncCount() {
+        long count = leftResyncs.get();
+        for (int shard = 0; shard < shards.length(); shard++) {
+            for (Member member : shards.get(shard)) {
+                count += member.resyncs.get();
+            }
+        }
+        return count;
+    }
+
+    public long getSkippedCount() {
+        long count = leftSkipped.get();
+        for (int shard = 0; shard < shards.length(); shard++) {
+            for (Member member : shards.get(shard)) {
+                count += member.skipped.get();
+            }
+        }
+        return count;
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Roll hub: " + getMemberCount() + " members, " + getOrder() + " rolls, "
+              + getDeliveredCount() + " delivered, " + getResyncCount() + " resyncs, "
+              + getSkippedCount() + " skipped");
+    }
+
+    // deliver the latest roll of each player with an order from from up to resume, in order
+    private int resync(Member member, long from, long resume, Sink sink) throws IOException {
+        List<Entry> latest = new ArrayList<Entry>();
+        for (int shard = 0; shard < shards.length(); shard++) {
+            for (Member player : shards.get(shard)) {
+                Entry entry = player.latest.get();
+                if (entry != null && entry.order >= from && entry.order < resume) {
+                    latest.add(entry);
+                }
+            }
+        }
+        Collections.sort(latest, BY_ORDER);
+        for (Entry entry : latest) {
+            sink.deliver(entry.message);
+        }
+        member.cursor = resume;
+        return latest.size();
+    }
+}
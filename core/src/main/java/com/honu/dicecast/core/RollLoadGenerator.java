@@ -0,0 +1,353 @@
+package com.honu.dicecast.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives rolls through {@link RollChannel}, with the real encoders and send pipeline, to a
+ * {@link LoopbackReceiver} at a fixed rate and reports throughput, failures and round trip times.
+ * <p/>
+ * Each sender runs on a thread of its own with its own connection, like one phone each. Rolls
+ * submitted while the in-flight window is full are coalesced by the pipeline, so the rate of
+ * acknowledged messages is bounded by the window divided by the round trip time.
+ * <p/>
+ * The local receiver is a {@link RollHub}, so every sender also gets the rolls of every other
+ * sender; the rolls each sender takes from the hub are counted and checked to arrive in order.
+ * <p/>
+ * Usage: RollLoadGenerator [--senders n] [--rate rolls-per-second] [--duration seconds]
+ * [--window n] [--drop fraction] [--expression notation] [--host h --port n]
+ * <p/>
+ * Without a port a receiver is started in this process.
+ */
+public class RollLoadGenerator {
+
+    // Interval between checks for rolls due, about one roll per tick down to a tick of 100 ms
+    private static final int MIN_TICK_MICROS = 1000;
+    private static final int MAX_TICK_MICROS = 100000;
+
+    // Sequence numbers remembered for round trip times, more than any window in flight
+    private static final int SENT_SLOTS = 1024;
+
+    /**
+     * Load settings, with the defaults used when an option is not given.
+     */
+    public static class Options {
+        public int senders = 1;
+        public int rate = 5000;
+        public int durationSeconds = 10;
+        public int window = RollSendPipeline.DEFAULT_WINDOW;
+        public double dropRate;
+        public String expression;
+        public String host = "127.0.0.1";
+        public int port;
+    }
+
+    /**
+     * Totals over every sender.
+     */
+    public static class Result {
+        public long submitted;
+        public long sent;
+        public long acknowledged;
+        public long coalesced;
+        public long failed;
+        public long retried;
+        public long timedOut;
+        public long playerRolls;
+        public long playerRollsSkipped;
+        public long orderViolations;
+        public long elapsedNanos;
+        public final LatencyHistogram roundTrip = new LatencyHistogram();
+
+        public double getSentPerSecond() {
+            return elapsedNanos == 0 ? 0 : sent * 1e9 / elapsedNanos;
+        }
+
+        public double getAcknowledgedPerSecond() {
+            return elapsedNanos == 0 ? 0 : acknowledged * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder()
+                  .append("submitted: ").append(submitted).append('\n')
+                  .append(String.format("sent: %d (%.0f/s)%n", sent, getSentPerSecond()))
+                  .append(String.format("acknowledged: %d (%.0f/s)%n", acknowledged, getAcknowledgedPerSecond()))
+                  .append("coalesced: ").append(coalesced).append('\n')
+                  .append("failed: ").append(failed).append(", retried: ").append(retried)
+                  .append(", timed out: ").append(timedOut).append('\n')
+                  .append(String.format("round trip: p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                        roundTrip.getValueAtPercentile(50) / 1e3, roundTrip.getValueAtPercentile(90) / 1e3,
+                        roundTrip.getValueAtPercentile(99) / 1e3, roundTrip.getValueAtPercentile(99.9) / 1e3,
+                        roundTrip.getMax() / 1e3)).append('\n')
+                  .append("player rolls: ").append(playerRolls).append(", skipped: ").append(playerRollsSkipped)
+                  .append(", out of order: ").append(orderViolations)
+                  .toString();
+        }
+    }
+
+    /**
+     * A channel that times each roll from the pipeline handing it to the transport until its echo
+     * and checks the order of the rolls taken from a hub.
+     */
+    private static final class LoadChannel extends RollChannel {
+
+        private final LatencyHistogram roundTrip;
+        private final int[] sentSeq = new int[SENT_SLOTS];
+        private final long[] sentAt = new long[SENT_SLOTS];
+
+        long playerRolls;
+        long playerRollsSkipped;
+        long orderViolations;
+        private long lastOrder;
+
+        LoadChannel(String namespace, RollTransport transport, RollSendPipeline.Scheduler scheduler,
+                    int window, RollStatistics statistics, LatencyHistogram roundTrip) {
+            super(namespace, transport, scheduler, window, statistics);
+            this.roundTrip = roundTrip;
+        }
+
+        @Override
+        protected void onMessageReceived(String message) {
+            long order = PlayerRollEncoder.orderOf(message);
+            if (order > 0) {
+                playerRolls++;
+                if (order <= lastOrder) {
+                    orderViolations++;
+                } else {
+                    // a sender that fell behind is only sent the latest roll of each player
+                    playerRollsSkipped += order - lastOrder - 1;
+                    lastOrder = order;
+                }
+            }
+            super.onMessageReceived(message);
+        }
+
+        @Override
+        protected void onSent(int seq) {
+            int slot = seq & (SENT_SLOTS - 1);
+            sentSeq[slot] = seq;
+            sentAt[slot] = System.nanoTime();
+        }
+
+        @Override
+        protected void onEchoed(int seq) {
+            int slot = seq & (SENT_SLOTS - 1);
+            if (sentSeq[slot] == seq) {
+                sentSeq[slot] = 0;
+                roundTrip.record(System.nanoTime() - sentAt[slot]);
+            }
+        }
+    }
+
+    /**
+     * One sender: a channel, its executor and the rolls it submits.
+     */
+    private static final class Sender implements Runnable {
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        final RollStatistics statistics = new RollStatistics(2, 6);
+        final Random random = new SplitMix64(System.nanoTime());
+        final DiceRoller roller = new DiceRoller(2, 6, random);
+        final int[] dice = new int[2];
+        final DiceExpression expression;
+        final int[] expressionDice;
+        final LoadChannel channel;
+        final long rate;
+
+        long start;
+        long submitted;
+        volatile boolean stopped;
+
+        Sender(Options options, LatencyHistogram roundTrip) {
+            expression = options.expression != null ? DiceExpression.compile(options.expression) : null;
+            expressionDice = new int[expression != null ? expression.getDiceCount() : 0];
+            rate = options.rate;
+            channel = new LoadChannel(LoopbackReceiver.DEFAULT_NAMESPACE,
+                  new SocketTransport(options.host, options.port, executor),
+                  new ExecutorScheduler(executor), options.window, statistics, roundTrip);
+        }
+
+        // submit the rolls due since the start
+        @Override
+        public void run() {
+            if (stopped) {
+                return;
+            }
+            long due = (System.nanoTime() - start) * rate / 1000000000L;
+            while (submitted < due) {
+                if (expression != null) {
+                    int total = expression.roll(random, expressionDice);
+                    channel.sendExpressionRoll(expression, total, expressionDice);
+                } else {
+                    roller.rollInto(dice);
+                    statistics.record(dice);
+                    channel.sendDiceRoll(dice[0], dice[1]);
+                }
+                submitted++;
+            }
+        }
+
+        <T> T call(Callable<T> task) throws IOException {
+            try {
+                return executor.submit(task).get();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Run the load and wait for the rolls in flight to be answered or time out.
+     */
+    public static Result run(Options options) throws IOException, InterruptedException {
+        Result result = new Result();
+        List<Sender> senders = new ArrayList<Sender>();
+        try {
+            for (int i = 0; i < options.senders; i++) {
+                final Sender sender = new Sender(options, result.roundTrip);
+                senders.add(sender);
+                sender.call(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        sender.channel.open();
+                        return null;
+                    }
+                });
+            }
+
+            long tick = Math.max(MIN_TICK_MICROS, Math.min(MAX_TICK_MICROS, 1000000L / Math.max(1, options.rate)));
+            long start = System.nanoTime();
+            for (Sender sender : senders) {
+                sender.start = start;
+                sender.executor.scheduleAtFixedRate(sender, 0, tick, TimeUnit.MICROSECONDS);
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(options.durationSeconds));
+            for (Sender sender : senders) {
+                sender.stopped = true;
+            }
+            result.elapsedNanos = System.nanoTime() - start;
+
+            // drain: every roll in flight is either echoed or times out
+            long deadline = System.currentTimeMillis() + RollSendPipeline.ACK_TIMEOUT_MS * 2;
+            for (final Sender sender : senders) {
+                while (System.currentTimeMillis() < deadline && sender.call(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        RollSendPipeline pipeline = sender.channel.getPipeline();
+                        return pipeline.getInFlightCount() > 0 || pipeline.hasPending();
+                    }
+                })) {
+                    Thread.sleep(10);
+                }
+            }
+
+            for (final Sender sender : senders) {
+                final Result totals = result;
+                sender.call(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        RollSendPipeline pipeline = sender.channel.getPipeline();
+                        totals.submitted += sender.submitted;
+                        totals.sent += pipeline.getSentCount();
+                        totals.acknowledged += pipeline.getAcknowledgedCount();
+                        totals.coalesced += pipeline.getCoalescedCount();
+                        totals.failed += pipeline.getFailedCount();
+                        totals.retried += pipeline.getRetriedCount();
+                        totals.timedOut += pipeline.getTimedOutCount();
+                        totals.playerRolls += sender.channel.playerRolls;
+                        totals.playerRollsSkipped += sender.channel.playerRollsSkipped;
+                        totals.orderViolations += sender.channel.orderViolations;
+                        return null;
+                    }
+                });
+            }
+        } finally {
+            for (final Sender sender : senders) {
+                try {
+                    sender.call(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            sender.channel.close();
+                            return null;
+                        }
+                    });
+                } finally {
+                    sender.executor.shutdown();
+                }
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value for " + option);
+            }
+            String value = args[++i];
+            if ("--senders".equals(option)) {
+                options.senders = Integer.parseInt(value);
+            } else if ("--rate".equals(option)) {
+                options.rate = Integer.parseInt(value);
+            } else if ("--duration".equals(option)) {
+                options.durationSeconds = Integer.parseInt(value);
+            } else if ("--window".equals(option)) {
+                options.window = Integer.parseInt(value);
+            } else if ("--drop".equals(option)) {
+                options.dropRate = Double.parseDouble(value);
+            } else if ("--expression".equals(option)) {
+                options.expression = value;
+            } else if ("--host".equals(option)) {
+                options.host = value;
+            } else if ("--port".equals(option)) {
+                options.port = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+
+        LoopbackReceiver receiver = null;
+        if (options.port == 0) {
+            receiver = new LoopbackReceiver(0, LoopbackReceiver.DEFAULT_NAMESPACE, options.dropRate);
+            receiver.start();
+            options.port = receiver.getPort();
+        }
+        try {
+            Result result = run(options);
+            System.out.println(String.format(Locale.US, "senders: %d, rate: %d/s each, window: %d, duration: %d s%s",
+                  options.senders, options.rate, options.window, options.durationSeconds,
+                  options.expression != null ? ", expression: " + options.expression : ""));
+            System.out.println(result);
+            if (receiver != null) {
+                System.out.println("receiver: received " + receiver.getReceivedCount()
+                      + ", echoed " + receiver.getEchoedCount()
+                      + ", dropped " + receiver.getDroppedCount()
+                      + ", statistics " + receiver.getStatisticsCount());
+                PrintWriter writer = new PrintWriter(System.out);
+                receiver.getHub().dump("", writer);
+                writer.flush();
+            }
+        } finally {
+            if (receiver != null) {
+                receiver.close();
+            }
+        }
+    }
+}
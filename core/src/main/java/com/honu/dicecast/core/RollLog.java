@@ -0,0 +1,137 @@
+package com.honu.dicecast.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only writer for the roll history file.
+ * <p/>
+ * Records are fixed-width big-endian (long timestamp, byte source, byte die1, byte die2, byte 0)
+ * after a RollLogFormat header, so the file can be memory mapped and indexed directly by
+ * {@link MappedRollLog}. Appends are collected in a buffer and written by {@link #flush()}; once
+ * written they survive the process being killed, {@link #sync()} also makes them survive power
+ * loss. Timestamps are kept non-decreasing so the log can be searched by time.
+ * <p/>
+ * Not thread safe, a log is owned by one writer thread.
+ */
+public class RollLog implements Closeable {
+
+    // Records held in memory before they are written out
+    private static final int BUFFER_RECORDS = 4096;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RollLogFormat.RECORD_BYTES);
+
+    private long size;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Open a log for appending, creating it when it does not exist.
+     */
+    public RollLog(File path) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        try {
+            channel = file.getChannel();
+            long length = channel.size();
+            if (length == 0) {
+                ByteBuffer header = ByteBuffer.allocate(RollLogFormat.HEADER_BYTES);
+                header.putInt(RollLogFormat.MAGIC).putInt(RollLogFormat.VERSION).flip();
+                writeFully(header, 0);
+                length = RollLogFormat.HEADER_BYTES;
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(RollLogFormat.HEADER_BYTES);
+                if (length < RollLogFormat.HEADER_BYTES || channel.read(header, 0) != RollLogFormat.HEADER_BYTES
+                      || header.getInt(0) != RollLogFormat.MAGIC) {
+                    throw new IOException("not a roll log: " + path);
+                }
+                int version = header.getInt(4);
+                if (version != RollLogFormat.VERSION) {
+                    throw new IOException("unsupported roll log version " + version + ": " + path);
+                }
+            }
+
+            // drop a partial record left over from a write that was interrupted
+            size = (length - RollLogFormat.HEADER_BYTES) / RollLogFormat.RECORD_BYTES;
+            long end = RollLogFormat.HEADER_BYTES + size * RollLogFormat.RECORD_BYTES;
+            if (end != length) {
+                channel.truncate(end);
+            }
+            if (size > 0) {
+                ByteBuffer last = ByteBuffer.allocate(8);
+                channel.read(last, end - RollLogFormat.RECORD_BYTES);
+                lastTimestamp = last.getLong(0);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Add a roll to the log. A timestamp earlier than the previous one (the wall clock was set
+     * back) is recorded as the previous timestamp.
+     */
+    public void append(long timestamp, int source, int die1, int die2) throws IOException {
+        if (timestamp < lastTimestamp) {
+            timestamp = lastTimestamp;
+        }
+        if (buffer.remaining() < RollLogFormat.RECORD_BYTES) {
+            flush();
+        }
+        buffer.putLong(timestamp);
+        buffer.put((byte) source);
+        buffer.put((byte) die1);
+        buffer.put((byte) die2);
+        buffer.put((byte) 0);
+        lastTimestamp = timestamp;
+        size++;
+    }
+
+    /**
+     * Write buffered rolls to the file.
+     */
+    public void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        long pending = buffer.remaining() / RollLogFormat.RECORD_BYTES;
+        writeFully(buffer, RollLogFormat.HEADER_BYTES + (size - pending) * RollLogFormat.RECORD_BYTES);
+        buffer.clear();
+    }
+
+    /**
+     * Write buffered rolls and force them to the storage device.
+     */
+    public void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    /**
+     * Number of rolls in the log, including buffered ones.
+     */
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+}
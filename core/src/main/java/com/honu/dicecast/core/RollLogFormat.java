@@ -0,0 +1,41 @@
+package com.honu.dicecast.core;
+
+/**
+ * Layout of roll history files written by {@link RollLog}.
+ * <p/>
+ * A record holds the two dice of a standard roll; rolls of dice expressions have no room in it
+ * and are not logged.
+ */
+public final class RollLogFormat {
+
+    // "DCRL"
+    public static final int MAGIC = 0x4443524C;
+    public static final int VERSION = 1;
+
+    // magic and version
+    public static final int HEADER_BYTES = 8;
+
+    // timestamp, source, die1, die2 and one reserved byte
+    public static final int RECORD_BYTES = 8 + 4;
+
+    // Where a roll came from: tapped or shaken on this phone, or rolled by another player at the table
+    public static final int SOURCE_TAP = 1;
+    public static final int SOURCE_SHAKE = 2;
+    public static final int SOURCE_REMOTE = 3;
+
+    private RollLogFormat() {
+    }
+
+    public static String sourceName(int source) {
+        switch (source) {
+            case SOURCE_TAP:
+                return "tap";
+            case SOURCE_SHAKE:
+                return "shake";
+            case SOURCE_REMOTE:
+                return "remote";
+            default:
+                return "unknown";
+        }
+    }
+}
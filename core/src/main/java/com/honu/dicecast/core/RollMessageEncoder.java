@@ -0,0 +1,284 @@
+package com.honu.dicecast.core;
+
+/**
+ * Encodes rolls into the payload sent to the receiver application.
+ * <p/>
+ * Two formats are supported:
+ * <ul>
+ * <li>FORMAT_JSON: {"text":"You rolled (3, 4): 7","die1":3,"die2":4,"seq":17}, the fields of
+ * the JSONObject the sender used to build plus the sequence number, understood by every
+ * receiver version.</li>
+ * <li>FORMAT_COMPACT: 2:3,4,17 - the format version, the faces and the sequence number. The
+ * receiver builds the text itself. Only used once the receiver has announced support with
+ * FORMAT_ANNOUNCEMENT.</li>
+ * </ul>
+ * Rolls of other dice expressions are always sent as JSON, with the normalized notation, the total
+ * and the dice: {"text":"You rolled 4d6kh3+2: 14","expr":"4d6kh3+2","total":14,"dice":[6,5,3,1],
+ * "seq":17}. At most MAX_LISTED_DICE dice are listed.
+ * <p/>
+ * Messages are written from precomputed fragments into a reused buffer without locale sensitive
+ * formatting. A sequence number of 0 leaves it out of the message, which is then the exact
+ * original payload. Messages without a sequence number for faces up to the cached face value
+ * are built once and returned without allocating; with a sequence number, as every roll sent is,
+ * the cached message is copied into the buffer and only the number is appended, so the String
+ * returned is the one allocation.
+ * <p/>
+ * Instances are not thread safe.
+ */
+public final class RollMessageEncoder {
+
+    public static final int FORMAT_JSON = 1;
+    public static final int FORMAT_COMPACT = 2;
+
+    // Sent by receivers that accept FORMAT_COMPACT, which also accept statistics
+    public static final String FORMAT_ANNOUNCEMENT = "{\"format\":2}";
+
+    // Sent by receivers that show the statistics messages of RollStatisticsEncoder, whatever
+    // the format of the rolls
+    public static final String STATISTICS_ANNOUNCEMENT = "{\"accepts\":\"stats\"}";
+
+    private static final char[] JSON_TEXT = "{\"text\":\"You rolled (".toCharArray();
+    private static final char[] JSON_COMMA = ", ".toCharArray();
+    private static final char[] JSON_SUM = "): ".toCharArray();
+    private static final char[] JSON_DIE1 = "\",\"die1\":".toCharArray();
+    private static final char[] JSON_DIE2 = ",\"die2\":".toCharArray();
+    private static final char[] JSON_SEQ = ",\"seq\":".toCharArray();
+    private static final char[] COMPACT_VERSION = "2:".toCharArray();
+    private static final char[] EXPR_TEXT = "{\"text\":\"You rolled ".toCharArray();
+    private static final char[] EXPR_NOTATION = "\",\"expr\":\"".toCharArray();
+    private static final char[] EXPR_TOTAL = "\",\"total\":".toCharArray();
+    private static final char[] EXPR_DICE = ",\"dice\":[".toCharArray();
+
+    // Dice listed in an expression message
+    public static final int MAX_LISTED_DICE = 20;
+
+    // Large enough for the longest JSON message with int faces
+    private static final int MAX_LENGTH = 96;
+
+    private final char[] buffer = new char[MAX_LENGTH];
+
+    // Large enough for the longest expression message, the normalized notation (written twice)
+    // being up to twice as long as the notation entered
+    private final char[] expressionBuffer = new char[MAX_LENGTH + 4 * DiceExpression.MAX_NOTATION_LENGTH
+          + MAX_LISTED_DICE * 12];
+
+    private final int maxCachedFace;
+
+    // Cached messages indexed by [format - 1][(die1 - 1) * maxCachedFace + die2 - 1]
+    private final String[][] cache;
+
+    public RollMessageEncoder() {
+        this(6);
+    }
+
+    public RollMessageEncoder(int maxCachedFace) {
+        this.maxCachedFace = maxCachedFace;
+        this.cache = new String[2][maxCachedFace * maxCachedFace];
+        for (int format = FORMAT_JSON; format <= FORMAT_COMPACT; format++) {
+            for (int die1 = 1; die1 <= maxCachedFace; die1++) {
+                for (int die2 = 1; die2 <= maxCachedFace; die2++) {
+                    int length = encodeFaces(format, 0, die1, die2);
+                    cache[format - 1][(die1 - 1) * maxCachedFace + die2 - 1] = new String(buffer, 0, length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the message for a roll, from the cache when there is no sequence number and both faces
+     * are cached.
+     */
+    public String message(int format, int seq, int die1, int die2) {
+        if (seq == 0 && die1 >= 1 && die1 <= maxCachedFace && die2 >= 1 && die2 <= maxCachedFace) {
+            checkFormat(format);
+            return cache[format - 1][(die1 - 1) * maxCachedFace + die2 - 1];
+        }
+        int length = encode(format, seq, die1, die2);
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * Encode a roll into the reused buffer, from the cached message when both faces are cached.
+     *
+     * @param seq the sequence number, or 0 for none
+     * @return the number of chars written to {@link #buffer()}
+     */
+    public int encode(int format, int seq, int die1, int die2) {
+        if (die1 < 1 || die1 > maxCachedFace || die2 < 1 || die2 > maxCachedFace) {
+            return encodeFaces(format, seq, die1, die2);
+        }
+        checkFormat(format);
+        String cached = cache[format - 1][(die1 - 1) * maxCachedFace + die2 - 1];
+        if (format == FORMAT_JSON) {
+            // the cached message without its closing brace
+            int pos = cached.length() - 1;
+            cached.getChars(0, pos, buffer, 0);
+            if (seq != 0) {
+                pos = append(JSON_SEQ, pos);
+                pos = append(seq, pos);
+            }
+            buffer[pos++] = '}';
+            return pos;
+        }
+        int pos = cached.length();
+        cached.getChars(0, pos, buffer, 0);
+        if (seq != 0) {
+            buffer[pos++] = ',';
+            pos = append(seq, pos);
+        }
+        return pos;
+    }
+
+    // format a roll into the buffer, fragment by fragment
+    private int encodeFaces(int format, int seq, int die1, int die2) {
+        checkFormat(format);
+        int pos = 0;
+        if (format == FORMAT_JSON) {
+            pos = append(JSON_TEXT, pos);
+            pos = append(die1, pos);
+            pos = append(JSON_COMMA, pos);
+            pos = append(die2, pos);
+            pos = append(JSON_SUM, pos);
+            pos = append((long) die1 + die2, pos);
+            pos = append(JSON_DIE1, pos);
+            pos = append(die1, pos);
+            pos = append(JSON_DIE2, pos);
+            pos = append(die2, pos);
+            if (seq != 0) {
+                pos = append(JSON_SEQ, pos);
+                pos = append(seq, pos);
+            }
+            buffer[pos++] = '}';
+        } else {
+            pos = append(COMPACT_VERSION, pos);
+            pos = append(die1, pos);
+            buffer[pos++] = ',';
+            pos = append(die2, pos);
+            if (seq != 0) {
+                buffer[pos++] = ',';
+                pos = append(seq, pos);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Build the message for a roll of a dice expression.
+     *
+     * @param seq  the sequence number, or 0 for none
+     * @param dice the dice rolled, as written by {@link DiceExpression#roll}
+     */
+    public String expressionMessage(int seq, DiceExpression expression, int total, int[] dice) {
+        String notation = expression.getNotation();
+        char[] out = expressionBuffer;
+        int pos = 0;
+        pos = append(out, EXPR_TEXT, pos);
+        pos = append(out, notation, pos);
+        out[pos++] = ':';
+        out[pos++] = ' ';
+        pos = append(out, total, pos);
+        pos = append(out, EXPR_NOTATION, pos);
+        pos = append(out, notation, pos);
+        pos = append(out, EXPR_TOTAL, pos);
+        pos = append(out, total, pos);
+        pos = append(out, EXPR_DICE, pos);
+        int listed = Math.min(expression.getDiceCount(), MAX_LISTED_DICE);
+        for (int i = 0; i < listed; i++) {
+            if (i > 0) {
+                out[pos++] = ',';
+            }
+            pos = append(out, dice[i], pos);
+        }
+        out[pos++] = ']';
+        if (seq != 0) {
+            pos = append(out, JSON_SEQ, pos);
+            pos = append(out, seq, pos);
+        }
+        out[pos++] = '}';
+        return new String(out, 0, pos);
+    }
+
+    /**
+     * Read the sequence number from a message in either format, e.g. one echoed by the receiver.
+     *
+     * @return the sequence number, or 0 if the message has none
+     */
+    public static int sequenceOf(String message) {
+        int start;
+        if (message.startsWith("{")) {
+            start = message.lastIndexOf("\"seq\":");
+            if (start < 0) {
+                return 0;
+            }
+            start += JSON_SEQ.length - 1;
+        } else {
+            int faces = message.indexOf(',');
+            start = faces < 0 ? -1 : message.indexOf(',', faces + 1);
+            if (start < 0) {
+                return 0;
+            }
+            start++;
+        }
+
+        long seq = 0;
+        int end = start;
+        while (end < message.length() && end - start < 10) {
+            char c = message.charAt(end);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            seq = seq * 10 + (c - '0');
+            end++;
+        }
+        return end == start || seq > Integer.MAX_VALUE ? 0 : (int) seq;
+    }
+
+    /**
+     * The buffer written by {@link #encode(int, int, int, int)}, valid until the next call.
+     */
+    public char[] buffer() {
+        return buffer;
+    }
+
+    private static void checkFormat(int format) {
+        if (format != FORMAT_JSON && format != FORMAT_COMPACT) {
+            throw new IllegalArgumentException("unknown format: " + format);
+        }
+    }
+
+    private int append(char[] fragment, int pos) {
+        return append(buffer, fragment, pos);
+    }
+
+    private int append(long value, int pos) {
+        return append(buffer, value, pos);
+    }
+
+    private static int append(char[] out, char[] fragment, int pos) {
+        System.arraycopy(fragment, 0, out, pos, fragment.length);
+        return pos + fragment.length;
+    }
+
+    // normalized notations contain no characters that need escaping
+    private static int append(char[] out, String text, int pos) {
+        text.getChars(0, text.length(), out, pos);
+        return pos + text.length();
+    }
+
+    private static int append(char[] out, long value, int pos) {
+        if (value < 0) {
+            out[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,267 @@
+package com.honu.dicecast.core;
+
+/**
+ * Sends rolls to the receiver through a bounded window of in-flight messages.
+ * <p/>
+ * Each message is stamped with a sequence number. A message stays in flight until the receiver
+ * echoes it back (see {@link #onAcknowledged(int)}), its send fails, or it goes unacknowledged
+ * for ACK_TIMEOUT_MS. While the window is full only the latest submitted roll is kept, so
+ * superseded rolls are never sent. A failed send is retried with exponential backoff unless a
+ * newer roll has been sent or submitted in the meantime.
+ * <p/>
+ * Not thread safe: submit rolls and report results from the thread the scheduler runs tasks on.
+ */
+public class RollSendPipeline {
+
+    public static final int DEFAULT_WINDOW = 2;
+    public static final int MAX_RETRIES = 3;
+    public static final long RETRY_BACKOFF_MS = 250;
+    public static final long ACK_TIMEOUT_MS = 2000;
+
+    /**
+     * Delivers a stamped roll to the transport. The outcome is reported back through
+     * {@link #onSendResult(int, boolean)}.
+     */
+    public interface Sender {
+        void send(int seq, int die1, int die2);
+    }
+
+    /**
+     * Runs delayed tasks and provides the clock used for acknowledgement timeouts.
+     */
+    public interface Scheduler {
+        long uptimeMillis();
+
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    private final Sender sender;
+    private final Scheduler scheduler;
+    private final int window;
+
+    // In-flight slots; a seq of 0 marks a free slot
+    private final int[] inFlightSeq;
+    private final int[] inFlightDie1;
+    private final int[] inFlightDie2;
+    private final int[] inFlightAttempt;
+    private final long[] inFlightSentAt;
+    private int inFlightCount;
+
+    // Latest roll waiting for a free slot
+    private boolean pending;
+    private int pendingDie1;
+    private int pendingDie2;
+    private int pendingAttempt;
+    private boolean backingOff;
+
+    private int nextSeq = 1;
+    private int lastSentSeq;
+    private boolean timeoutScheduled;
+
+    private long sent;
+    private long acknowledged;
+    private long failed;
+    private long retried;
+    private long coalesced;
+    private long timedOut;
+
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            backingOff = false;
+            flush();
+        }
+    };
+
+    private final Runnable timeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            timeoutScheduled = false;
+            expireUnacknowledged();
+            flush();
+        }
+    };
+
+    public RollSendPipeline(Sender sender, Scheduler scheduler) {
+        this(sender, scheduler, DEFAULT_WINDOW);
+    }
+
+    public RollSendPipeline(Sender sender, Scheduler scheduler, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.window = window;
+        this.inFlightSeq = new int[window];
+        this.inFlightDie1 = new int[window];
+        this.inFlightDie2 = new int[window];
+        this.inFlightAttempt = new int[window];
+        this.inFlightSentAt = new long[window];
+    }
+
+    /**
+     * Submit the latest roll. Replaces any roll still waiting for a free slot.
+     */
+    public void submit(int die1, int die2) {
+        if (pending) {
+            coalesced++;
+        }
+        pending = true;
+        pendingDie1 = die1;
+        pendingDie2 = die2;
+        pendingAttempt = 0;
+        // a new roll is sent right away instead of waiting out a retry backoff
+        backingOff = false;
+        flush();
+    }
+
+    /**
+     * Report the transport result for a sent message.
+     */
+    public void onSendResult(int seq, boolean success) {
+        if (success) {
+            return;
+        }
+        failed++;
+        int slot = slotOf(seq);
+        if (slot < 0) {
+            return;
+        }
+        int die1 = inFlightDie1[slot];
+        int die2 = inFlightDie2[slot];
+        int attempt = inFlightAttempt[slot];
+        release(slot);
+
+        // only the latest roll is worth retrying, anything newer supersedes it
+        if (!pending && seq == lastSentSeq && attempt < MAX_RETRIES) {
+            retried++;
+            pending = true;
+            pendingDie1 = die1;
+            pendingDie2 = die2;
+            pendingAttempt = attempt + 1;
+            backingOff = true;
+            scheduler.schedule(retryTask, RETRY_BACKOFF_MS << attempt);
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * Report that the receiver echoed the message with the given sequence number.
+     */
+    public void onAcknowledged(int seq) {
+        int slot = slotOf(seq);
+        if (slot >= 0) {
+            acknowledged++;
+            release(slot);
+            flush();
+        }
+    }
+
+    /**
+     * Forget all in-flight and pending rolls, e.g. when the session ends.
+     */
+    public void reset() {
+        for (int i = 0; i < window; i++) {
+            inFlightSeq[i] = 0;
+        }
+        inFlightCount = 0;
+        pending = false;
+        backingOff = false;
+    }
+
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    public boolean hasPending() {
+        return pending;
+    }
+
+    public long getSentCount() {
+        return sent;
+    }
+
+    public long getAcknowledgedCount() {
+        return acknowledged;
+    }
+
+    public long getFailedCount() {
+        return failed;
+    }
+
+    public long getRetriedCount() {
+        return retried;
+    }
+
+    public long getCoalescedCount() {
+        return coalesced;
+    }
+
+    public long getTimedOutCount() {
+        return timedOut;
+    }
+
+    private void flush() {
+        while (pending && !backingOff && inFlightCount < window) {
+            int slot = slotOf(0);
+            int seq = nextSeq();
+            inFlightSeq[slot] = seq;
+            inFlightDie1[slot] = pendingDie1;
+            inFlightDie2[slot] = pendingDie2;
+            inFlightAttempt[slot] = pendingAttempt;
+            inFlightSentAt[slot] = scheduler.uptimeMillis();
+            inFlightCount++;
+            pending = false;
+            lastSentSeq = seq;
+            sent++;
+
+            if (!timeoutScheduled) {
+                timeoutScheduled = true;
+                scheduler.schedule(timeoutTask, ACK_TIMEOUT_MS);
+            }
+            sender.send(seq, inFlightDie1[slot], inFlightDie2[slot]);
+        }
+    }
+
+    private void expireUnacknowledged() {
+        long now = scheduler.uptimeMillis();
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < window; i++) {
+            if (inFlightSeq[i] != 0) {
+                if (now - inFlightSentAt[i] >= ACK_TIMEOUT_MS) {
+                    timedOut++;
+                    release(i);
+                } else if (inFlightSentAt[i] < oldest) {
+                    oldest = inFlightSentAt[i];
+                }
+            }
+        }
+        if (oldest != Long.MAX_VALUE) {
+            timeoutScheduled = true;
+            scheduler.schedule(timeoutTask, oldest + ACK_TIMEOUT_MS - now);
+        }
+    }
+
+    private int nextSeq() {
+        int seq = nextSeq;
+        // sequence numbers stay positive, 0 marks a free slot
+        nextSeq = seq == Integer.MAX_VALUE ? 1 : seq + 1;
+        return seq;
+    }
+
+    private int slotOf(int seq) {
+        for (int i = 0; i < window; i++) {
+            if (inFlightSeq[i] == seq) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void release(int slot) {
+        inFlightSeq[slot] = 0;
+        inFlightCount--;
+    }
+}
@@ -0,0 +1,90 @@
+package com.honu.dicecast.core;
+
+/**
+ * One roll as published by {@link RollState}: its version, the expression rolled and the dice.
+ * <p/>
+ * Immutable, so a reader holding a snapshot always sees the faces, total and version of the
+ * same roll, whichever thread published it and whatever was rolled since.
+ */
+public final class RollSnapshot {
+
+    /**
+     * Version 0, before the first roll.
+     */
+    public static final RollSnapshot NONE = new RollSnapshot(0, null, 0, new int[0]);
+
+    private final long version;
+    private final DiceExpression expression;
+    private final int total;
+
+    // Owned by the snapshot, never written after construction
+    final int[] dice;
+
+    RollSnapshot(long version, DiceExpression expression, int total, int[] dice) {
+        this.version = version;
+        this.expression = expression;
+        this.total = total;
+        this.dice = dice;
+    }
+
+    /**
+     * Position of the roll in the order rolls were published, 1 for the first.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The expression rolled, or null for the dice of a {@link DiceRoller}.
+     */
+    public DiceExpression getExpression() {
+        return expression;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getDiceCount() {
+        return dice.length;
+    }
+
+    public int getDie(int index) {
+        return dice[index];
+    }
+
+    public int getDie1() {
+        return dice.length > 0 ? dice[0] : 0;
+    }
+
+    public int getDie2() {
+        return dice.length > 1 ? dice[1] : 0;
+    }
+
+    /**
+     * Copy the dice to into[0 .. getDiceCount()).
+     *
+     * @return the number of dice
+     */
+    public int copyDice(int[] into) {
+        System.arraycopy(dice, 0, into, 0, dice.length);
+        return dice.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append('#').append(version).append(' ');
+        if (expression != null) {
+            text.append(expression.getNotation()).append(' ');
+        }
+        text.append(total).append(" (");
+        for (int i = 0; i < dice.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(dice[i]);
+        }
+        return text.append(')').toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.honu.dicecast.core;
+
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The latest roll, published as an immutable, versioned {@link RollSnapshot}.
+ * <p/>
+ * Rolls may come from any thread. Dice are rolled by the caller, then the snapshot is swapped
+ * in with a compare-and-set whose version is one more than the snapshot it replaces, retrying
+ * when another roll got in first. Versions are therefore unique and gap-free, and give every
+ * roll a place in a single order. Readers never block: {@link #get()} is one volatile read and
+ * the snapshot it returns cannot change under them.
+ * <p/>
+ * Each roll allocates its snapshot and dice array, a few dozen bytes for a pair of dice.
+ */
+public class RollState {
+
+    private final AtomicReference<RollSnapshot> latest = new AtomicReference<RollSnapshot>(RollSnapshot.NONE);
+
+    // Compare-and-set attempts lost to another roll
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * The latest roll, {@link RollSnapshot#NONE} before the first.
+     */
+    public RollSnapshot get() {
+        return latest.get();
+    }
+
+    public long getVersion() {
+        return latest.get().getVersion();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Roll the dice of a roller and publish them.
+     *
+     * @param statistics records the roll before it is published, may be null
+     */
+    public RollSnapshot roll(DiceRoller roller, RollStatistics statistics) {
+        int[] dice = new int[roller.getCount()];
+        int total = roller.rollInto(dice);
+        if (statistics != null) {
+            statistics.record(dice);
+        }
+        return publish(null, total, dice);
+    }
+
+    /**
+     * Roll an expression and publish it.
+     */
+    public RollSnapshot roll(DiceExpression expression, Random random) {
+        int[] dice = new int[expression.getDiceCount()];
+        int total = expression.roll(random, dice);
+        return publish(expression, total, dice);
+    }
+
+    /**
+     * Publish a roll made elsewhere, e.g. one restored from a saved state. The dice are copied.
+     *
+     * @param expression the expression rolled, or null for the dice of a roller
+     */
+    public RollSnapshot publish(DiceExpression expression, int total, int[] dice, int count) {
+        int[] copy = new int[count];
+        System.arraycopy(dice, 0, copy, 0, count);
+        return publish(expression, total, copy);
+    }
+
+    private RollSnapshot publish(DiceExpression expression, int total, int[] dice) {
+        RollSnapshot previous = latest.get();
+        while (true) {
+            RollSnapshot next = new RollSnapshot(previous.getVersion() + 1, expression, total, dice);
+            if (latest.compareAndSet(previous, next)) {
+                return next;
+            }
+            retries.incrementAndGet();
+            previous = latest.get();
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Roll state: " + latest.get() + ", " + retries.get() + " retries");
+    }
+}
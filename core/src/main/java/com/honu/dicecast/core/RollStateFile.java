@@ -0,0 +1,216 @@
+package com.honu.dicecast.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The latest roll, kept in a small memory-mapped file so it can be shown again after the process
+ * was killed.
+ * <p/>
+ * Writes are plain stores into the mapping: no system call, no allocation. Reads allocate nothing
+ * either, apart from the notation the first time it is read or after it changed. The kernel owns the
+ * mapped page, so a write survives the process dying right after it; it reaches storage when the
+ * kernel writes the page back. A sequence number that is odd while a write is in progress makes
+ * a roll torn by the process dying mid-write read as no roll.
+ * <p/>
+ * Layout, big-endian ints: magic, version, sequence, kind, die1, die2, total, dice count,
+ * notation length, NOTATION_CHARS chars of notation and DiceExpression.MAX_DICE dice.
+ * <p/>
+ * Not thread safe, a file is written by one thread.
+ */
+public class RollStateFile {
+
+    // "DCST"
+    public static final int MAGIC = 0x44435354;
+    public static final int VERSION = 1;
+
+    public static final int KIND_NONE = 0;
+    public static final int KIND_DICE = 1;
+    public static final int KIND_EXPRESSION = 2;
+
+    // Room for a normalized notation, which is never more than twice as long as the one entered
+    public static final int NOTATION_CHARS = 2 * DiceExpression.MAX_NOTATION_LENGTH;
+
+    private static final int SEQUENCE = 8;
+    private static final int KIND = 12;
+    private static final int DIE1 = 16;
+    private static final int DIE2 = 20;
+    private static final int TOTAL = 24;
+    private static final int DICE_COUNT = 28;
+    private static final int NOTATION_LENGTH = 32;
+    private static final int NOTATION = 36;
+    private static final int DICE = NOTATION + 2 * NOTATION_CHARS;
+
+    public static final int FILE_BYTES = DICE + 4 * DiceExpression.MAX_DICE;
+
+    private final MappedByteBuffer buffer;
+
+    // Notation in the file, compared by identity first as expressions reuse their notation
+    private String notation;
+
+    /**
+     * Map the file, creating it when it does not exist or holds no valid state.
+     */
+    public RollStateFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            boolean valid = channel.size() == FILE_BYTES;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+            valid = valid && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION;
+            if (!valid) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(SEQUENCE, 0);
+                buffer.putInt(KIND, KIND_NONE);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void writeDice(int die1, int die2) {
+        int sequence = begin();
+        buffer.putInt(KIND, KIND_DICE);
+        buffer.putInt(DIE1, die1);
+        buffer.putInt(DIE2, die2);
+        end(sequence);
+    }
+
+    /**
+     * Write a roll of a dice expression.
+     *
+     * @param notation the normalized notation of the expression
+     * @param count    number of dice, at most DiceExpression.MAX_DICE
+     */
+    public void writeExpression(String notation, int total, int[] dice, int count) {
+        if (notation.length() > NOTATION_CHARS) {
+            throw new IllegalArgumentException("notation longer than " + NOTATION_CHARS + " characters: " + notation);
+        }
+        if (count > DiceExpression.MAX_DICE) {
+            throw new IllegalArgumentException("more than " + DiceExpression.MAX_DICE + " dice: " + count);
+        }
+
+        int sequence = begin();
+        buffer.putInt(KIND, KIND_EXPRESSION);
+        if (notation != this.notation && !notation.equals(this.notation)) {
+            for (int i = 0; i < notation.length(); i++) {
+                buffer.putChar(NOTATION + 2 * i, notation.charAt(i));
+            }
+            buffer.putInt(NOTATION_LENGTH, notation.length());
+        }
+        this.notation = notation;
+        buffer.putInt(TOTAL, total);
+        buffer.putInt(DICE_COUNT, count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(DICE + 4 * i, dice[i]);
+        }
+        end(sequence);
+    }
+
+    /**
+     * Write a published roll, a roll of two dice without an expression as dice.
+     */
+    public void write(RollSnapshot roll) {
+        DiceExpression expression = roll.getExpression();
+        if (expression == null && roll.getDiceCount() == 2) {
+            writeDice(roll.getDie1(), roll.getDie2());
+        } else if (expression != null) {
+            writeExpression(expression.getNotation(), roll.getTotal(), roll.dice, roll.getDiceCount());
+        } else {
+            clear();
+        }
+    }
+
+    /**
+     * Forget the roll.
+     */
+    public void clear() {
+        int sequence = begin();
+        buffer.putInt(KIND, KIND_NONE);
+        end(sequence);
+    }
+
+    /**
+     * Kind of the roll in the file, KIND_NONE when there is none or it was torn.
+     */
+    public int getKind() {
+        if ((buffer.getInt(SEQUENCE) & 1) != 0) {
+            return KIND_NONE;
+        }
+        int kind = buffer.getInt(KIND);
+        return kind == KIND_DICE || kind == KIND_EXPRESSION ? kind : KIND_NONE;
+    }
+
+    public int getDie1() {
+        return buffer.getInt(DIE1);
+    }
+
+    public int getDie2() {
+        return buffer.getInt(DIE2);
+    }
+
+    public int getTotal() {
+        return buffer.getInt(TOTAL);
+    }
+
+    public int getDiceCount() {
+        return Math.max(0, Math.min(buffer.getInt(DICE_COUNT), DiceExpression.MAX_DICE));
+    }
+
+    /**
+     * Notation of an expression roll, read from the file; the same String as last time when the
+     * notation did not change.
+     */
+    public String getNotation() {
+        int length = Math.max(0, Math.min(buffer.getInt(NOTATION_LENGTH), NOTATION_CHARS));
+        if (isNotation(notation, length)) {
+            return notation;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(NOTATION + 2 * i);
+        }
+        notation = new String(chars);
+        return notation;
+    }
+
+    /**
+     * Copy the dice of an expression roll.
+     *
+     * @return the number of dice copied, at most into.length
+     */
+    public int readDice(int[] into) {
+        int count = Math.min(getDiceCount(), into.length);
+        for (int i = 0; i < count; i++) {
+            into[i] = buffer.getInt(DICE + 4 * i);
+        }
+        return count;
+    }
+
+    // whether the file holds this notation
+    private boolean isNotation(String notation, int length) {
+        if (notation == null || notation.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(NOTATION + 2 * i) != notation.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int begin() {
+        int sequence = buffer.getInt(SEQUENCE) | 1;
+        buffer.putInt(SEQUENCE, sequence);
+        return sequence;
+    }
+
+    private void end(int sequence) {
+        buffer.putInt(SEQUENCE, sequence + 1);
+    }
+}
@@ -0,0 +1,397 @@
+package com.honu.dicecast.core;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running statistics over every roll: sum and face frequencies, mean and variance of the sum,
+ * longest streaks and chi-square deviation from fair dice.
+ * <p/>
+ * Each roll updates a fixed number of atomic counters, so recording is O(1), lock-free and safe
+ * from any thread. Mean, variance and chi-square are derived from the frequencies when a
+ * {@link Snapshot} is taken. Writers count themselves in and out; a snapshot is retried until no
+ * roll was in progress while it copied the counters, so it always reflects whole rolls.
+ */
+public class RollStatistics {
+
+    // Streak lengths are packed into 24 bits and stop growing at this value
+    private static final int MAX_STREAK = (1 << 24) - 1;
+
+    private final int count;
+    private final int sides;
+    private final int minSum;
+    private final int maxSum;
+
+    // Probability of each sum with fair dice, indexed by sum
+    private final double[] sumProbabilities;
+
+    // Updates started and finished, a snapshot is consistent when both are equal
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong rolls = new AtomicLong();
+
+    // Indexed by sum and by face
+    private final AtomicLongArray sumCounts;
+    private final AtomicLongArray faceCounts;
+
+    // Last sum (16 bits), current run of that sum and current run of matching faces (24 bits each)
+    private final AtomicLong streak = new AtomicLong();
+
+    // Longest run of the same sum (high 32 bits) and of rolls with matching faces (low 32 bits)
+    private final AtomicLong longest = new AtomicLong();
+
+    public RollStatistics(int count, int sides) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        if (sides < 2) {
+            throw new IllegalArgumentException("sides must be at least 2: " + sides);
+        }
+        if (count * sides > 0xffff) {
+            throw new IllegalArgumentException("too many dice: " + count + "d" + sides);
+        }
+        this.count = count;
+        this.sides = sides;
+        this.minSum = count;
+        this.maxSum = count * sides;
+        this.sumCounts = new AtomicLongArray(maxSum + 1);
+        this.faceCounts = new AtomicLongArray(sides + 1);
+        this.sumProbabilities = sumProbabilities(count, sides);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getSides() {
+        return sides;
+    }
+
+    public int getMinSum() {
+        return minSum;
+    }
+
+    public int getMaxSum() {
+        return maxSum;
+    }
+
+    /**
+     * Add a roll, with count faces between 1 and sides.
+     */
+    public void record(int[] faces) {
+        int sum = 0;
+        boolean match = true;
+        for (int i = 0; i < count; i++) {
+            int face = faces[i];
+            if (face < 1 || face > sides) {
+                throw new IllegalArgumentException("face out of range: " + face);
+            }
+            sum += face;
+            match &= face == faces[0];
+        }
+
+        started.incrementAndGet();
+        for (int i = 0; i < count; i++) {
+            faceCounts.incrementAndGet(faces[i]);
+        }
+        sumCounts.incrementAndGet(sum);
+        rolls.incrementAndGet();
+        updateStreaks(sum, match);
+        completed.incrementAndGet();
+    }
+
+    private void updateStreaks(int sum, boolean match) {
+        long current;
+        int sumRun;
+        int matchRun;
+        do {
+            current = streak.get();
+            int lastSum = (int) (current & 0xffff);
+            sumRun = (int) ((current >>> 16) & MAX_STREAK);
+            matchRun = (int) (current >>> 40);
+            sumRun = lastSum == sum ? Math.min(sumRun + 1, MAX_STREAK) : 1;
+            matchRun = match ? Math.min(matchRun + 1, MAX_STREAK) : 0;
+        } while (!streak.compareAndSet(current, sum | ((long) sumRun << 16) | ((long) matchRun << 40)));
+
+        current = longest.get();
+        for (;;) {
+            int longestSum = (int) (current >>> 32);
+            int longestMatch = (int) current;
+            if (sumRun <= longestSum && matchRun <= longestMatch) {
+                return;
+            }
+            long next = ((long) Math.max(sumRun, longestSum) << 32) | Math.max(matchRun, longestMatch);
+            if (longest.compareAndSet(current, next)) {
+                return;
+            }
+            current = longest.get();
+        }
+    }
+
+    /**
+     * Create a snapshot sized for these dice, to be filled by {@link #snapshot(Snapshot)}.
+     */
+    public Snapshot newSnapshot() {
+        return new Snapshot(minSum, maxSum, sides);
+    }
+
+    /**
+     * Copy a consistent view of the statistics into the given snapshot, which is reused to avoid
+     * allocating. Spins while rolls are being recorded concurrently.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot(Snapshot into) {
+        if (into.sumCounts.length != maxSum + 1 || into.faceCounts.length != sides + 1) {
+            throw new IllegalArgumentException("snapshot is for other dice");
+        }
+        for (;;) {
+            long version = completed.get();
+            long rollCount = rolls.get();
+            for (int sum = minSum; sum <= maxSum; sum++) {
+                into.sumCounts[sum] = sumCounts.get(sum);
+            }
+            for (int face = 1; face <= sides; face++) {
+                into.faceCounts[face] = faceCounts.get(face);
+            }
+            long streaks = longest.get();
+            if (started.get() == version) {
+                into.rolls = rollCount;
+                into.longestSumStreak = (int) (streaks >>> 32);
+                into.longestMatchStreak = (int) streaks;
+                into.derive(sumProbabilities, count);
+                return into;
+            }
+            Thread.yield();
+        }
+    }
+
+    public void reset() {
+        // counted as an update in progress so snapshots never see a half cleared state
+        started.incrementAndGet();
+        rolls.set(0);
+        for (int sum = 0; sum <= maxSum; sum++) {
+            sumCounts.set(sum, 0);
+        }
+        for (int face = 0; face <= sides; face++) {
+            faceCounts.set(face, 0);
+        }
+        streak.set(0);
+        longest.set(0);
+        completed.incrementAndGet();
+    }
+
+    /**
+     * Copy every counter into an array, e.g. for a saved instance state, taken back by
+     * {@link #restore(long[])}. Spins while rolls are being recorded concurrently.
+     */
+    public long[] save() {
+        long[] state = new long[3 + (maxSum - minSum + 1) + sides];
+        for (;;) {
+            long version = completed.get();
+            state[0] = rolls.get();
+            state[1] = streak.get();
+            state[2] = longest.get();
+            int i = 3;
+            for (int sum = minSum; sum <= maxSum; sum++) {
+                state[i++] = sumCounts.get(sum);
+            }
+            for (int face = 1; face <= sides; face++) {
+                state[i++] = faceCounts.get(face);
+            }
+            if (started.get() == version) {
+                return state;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Replace the counters with those saved by {@link #save()} for the same dice.
+     *
+     * @return false, leaving the statistics alone, if the state is for other dice
+     */
+    public boolean restore(long[] state) {
+        if (state == null || state.length != 3 + (maxSum - minSum + 1) + sides) {
+            return false;
+        }
+        // counted as an update in progress so snapshots never see a half restored state
+        started.incrementAndGet();
+        rolls.set(state[0]);
+        streak.set(state[1]);
+        longest.set(state[2]);
+        int i = 3;
+        for (int sum = minSum; sum <= maxSum; sum++) {
+            sumCounts.set(sum, state[i++]);
+        }
+        for (int face = 1; face <= sides; face++) {
+            faceCounts.set(face, state[i++]);
+        }
+        completed.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Print the current statistics for dumpsys.
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        Snapshot snapshot = snapshot(newSnapshot());
+        writer.print(prefix);
+        writer.println(String.format("Roll statistics: %d rolls, mean %.3f, variance %.3f",
+              snapshot.getRolls(), snapshot.getMean(), snapshot.getVariance()));
+        writer.print(prefix);
+        writer.print("  sums:");
+        for (int sum = minSum; sum <= maxSum; sum++) {
+            writer.print(" " + sum + "=" + snapshot.getSumCount(sum));
+        }
+        writer.println();
+        writer.print(prefix);
+        writer.print("  faces:");
+        for (int face = 1; face <= sides; face++) {
+            writer.print(" " + face + "=" + snapshot.getFaceCount(face));
+        }
+        writer.println();
+        writer.print(prefix);
+        writer.println(String.format("  longest streak %d, matching faces %d, chi-square sums %.2f (%d df), faces %.2f (%d df)",
+              snapshot.getLongestSumStreak(), snapshot.getLongestMatchStreak(),
+              snapshot.getSumChiSquare(), snapshot.getSumDegreesOfFreedom(),
+              snapshot.getFaceChiSquare(), snapshot.getFaceDegreesOfFreedom()));
+    }
+
+    // probability of each sum with fair dice, indexed by sum
+    private static double[] sumProbabilities(int count, int sides) {
+        double[] probabilities = new double[count * sides + 1];
+        DiceProbabilities.compute(count, sides).copyProbabilities(probabilities, count);
+        return probabilities;
+    }
+
+    /**
+     * Statistics at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final int minSum;
+        private final int maxSum;
+        private final int sides;
+
+        final long[] sumCounts;
+        final long[] faceCounts;
+        long rolls;
+        int longestSumStreak;
+        int longestMatchStreak;
+
+        private double mean;
+        private double variance;
+        private double sumChiSquare;
+        private double faceChiSquare;
+
+        Snapshot(int minSum, int maxSum, int sides) {
+            this.minSum = minSum;
+            this.maxSum = maxSum;
+            this.sides = sides;
+            this.sumCounts = new long[maxSum + 1];
+            this.faceCounts = new long[sides + 1];
+        }
+
+        void derive(double[] sumProbabilities, int count) {
+            double total = 0;
+            double squares = 0;
+            double chiSquare = 0;
+            for (int sum = minSum; sum <= maxSum; sum++) {
+                long observed = sumCounts[sum];
+                total += (double) sum * observed;
+                squares += (double) sum * sum * observed;
+                double expected = rolls * sumProbabilities[sum];
+                if (expected > 0) {
+                    chiSquare += (observed - expected) * (observed - expected) / expected;
+                }
+            }
+            mean = rolls == 0 ? 0 : total / rolls;
+            variance = rolls < 2 ? 0 : (squares - total * mean) / (rolls - 1);
+            sumChiSquare = chiSquare;
+
+            chiSquare = 0;
+            double expected = (double) rolls * count / sides;
+            if (expected > 0) {
+                for (int face = 1; face <= sides; face++) {
+                    double deviation = faceCounts[face] - expected;
+                    chiSquare += deviation * deviation / expected;
+                }
+            }
+            faceChiSquare = chiSquare;
+        }
+
+        public long getRolls() {
+            return rolls;
+        }
+
+        public int getMinSum() {
+            return minSum;
+        }
+
+        public int getMaxSum() {
+            return maxSum;
+        }
+
+        public int getSides() {
+            return sides;
+        }
+
+        public long getSumCount(int sum) {
+            return sum < minSum || sum > maxSum ? 0 : sumCounts[sum];
+        }
+
+        public long getFaceCount(int face) {
+            return face < 1 || face > sides ? 0 : faceCounts[face];
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * Sample variance of the sum.
+         */
+        public double getVariance() {
+            return variance;
+        }
+
+        /**
+         * Longest run of consecutive rolls with the same sum.
+         */
+        public int getLongestSumStreak() {
+            return longestSumStreak;
+        }
+
+        /**
+         * Longest run of consecutive rolls where every die shows the same face (doubles).
+         */
+        public int getLongestMatchStreak() {
+            return longestMatchStreak;
+        }
+
+        /**
+         * Pearson chi-square of the sum frequencies against fair dice.
+         */
+        public double getSumChiSquare() {
+            return sumChiSquare;
+        }
+
+        public int getSumDegreesOfFreedom() {
+            return maxSum - minSum;
+        }
+
+        /**
+         * Pearson chi-square of the face frequencies against a fair die.
+         */
+        public double getFaceChiSquare() {
+            return faceChiSquare;
+        }
+
+        public int getFaceDegreesOfFreedom() {
+            return sides - 1;
+        }
+    }
+}
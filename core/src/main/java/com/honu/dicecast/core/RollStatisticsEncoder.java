@@ -0,0 +1,63 @@
+package com.honu.dicecast.core;
+
+/**
+ * Encodes a {@link RollStatistics.Snapshot} into the statistics message sent to the receiver:
+ * <p/>
+ * {"stats":{"rolls":120,"mean":7.02,"variance":5.81,"minSum":2,"sums":[3,7,...],"faces":[...],
+ * "sumStreak":3,"matchStreak":2,"chiSquare":8.41}}
+ * <p/>
+ * Sums are listed from minSum and faces from 1. Fractions are written with two decimals without
+ * locale sensitive formatting, into a reused builder.
+ * <p/>
+ * Instances are not thread safe.
+ */
+public final class RollStatisticsEncoder {
+
+    private final StringBuilder builder = new StringBuilder(256);
+
+    public String message(RollStatistics.Snapshot snapshot) {
+        StringBuilder out = builder;
+        out.setLength(0);
+        out.append("{\"stats\":{\"rolls\":").append(snapshot.getRolls());
+        out.append(",\"mean\":");
+        appendFixed(snapshot.getMean());
+        out.append(",\"variance\":");
+        appendFixed(snapshot.getVariance());
+        out.append(",\"minSum\":").append(snapshot.getMinSum());
+        out.append(",\"sums\":[");
+        for (int sum = snapshot.getMinSum(); sum <= snapshot.getMaxSum(); sum++) {
+            if (sum != snapshot.getMinSum()) {
+                out.append(',');
+            }
+            out.append(snapshot.getSumCount(sum));
+        }
+        out.append("],\"faces\":[");
+        for (int face = 1; face <= snapshot.getSides(); face++) {
+            if (face != 1) {
+                out.append(',');
+            }
+            out.append(snapshot.getFaceCount(face));
+        }
+        out.append("],\"sumStreak\":").append(snapshot.getLongestSumStreak());
+        out.append(",\"matchStreak\":").append(snapshot.getLongestMatchStreak());
+        out.append(",\"chiSquare\":");
+        appendFixed(snapshot.getSumChiSquare());
+        out.append("}}");
+        return out.toString();
+    }
+
+    // two decimal places, rounded half up
+    private void appendFixed(double value) {
+        long hundredths = Math.round(value * 100);
+        if (hundredths < 0) {
+            builder.append('-');
+            hundredths = -hundredths;
+        }
+        long fraction = hundredths % 100;
+        builder.append(hundredths / 100).append('.');
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+}
@@ -0,0 +1,45 @@
+package com.honu.dicecast.core;
+
+import java.io.IOException;
+
+/**
+ * Carries the messages of a {@link RollChannel} to a receiver and back, e.g. a Cast session or
+ * a socket to a {@link LoopbackReceiver}.
+ * <p/>
+ * Received messages and send results must be delivered on the thread the channel's scheduler
+ * runs tasks on, and never from inside {@link #send}.
+ */
+public interface RollTransport {
+
+    /**
+     * Gets the messages the receiver sends on the namespace.
+     */
+    interface Receiver {
+        void onMessage(String message);
+    }
+
+    /**
+     * Gets the outcome of a send.
+     */
+    interface SendCallback {
+        void onSendResult(int seq, boolean success);
+    }
+
+    /**
+     * Start exchanging messages on the namespace.
+     */
+    void open(String namespace, Receiver receiver) throws IOException;
+
+    /**
+     * Send a message on the open namespace.
+     *
+     * @param seq      passed back to the callback
+     * @param callback told whether the message was handed to the receiver, or null
+     */
+    void send(String message, int seq, SendCallback callback);
+
+    /**
+     * Stop exchanging messages. The transport may be opened again.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,109 @@
+package com.honu.dicecast.core;
+
+/**
+ * Collects accelerometer samples delivered together, e.g. from a hardware sensor FIFO, and
+ * feeds them to a {@link ShakeDetector} in timestamp order.
+ * <p/>
+ * Samples are stored in primitive arrays that only grow when a batch is larger than any seen
+ * before. Samples older than the last sample already processed are dropped, so the detector
+ * always sees strictly increasing time; so are repeats of a timestamp, e.g. the same sample
+ * delivered to two registrations while the sampling rate changes. Not thread safe.
+ */
+public class SampleBatch {
+
+    private long[] timestamps;
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private int size;
+
+    private long lastProcessed = Long.MIN_VALUE;
+    private long dropped;
+
+    public SampleBatch() {
+        this(64);
+    }
+
+    public SampleBatch(int capacity) {
+        timestamps = new long[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+    }
+
+    public void add(long timestamp, float sampleX, float sampleY, float sampleZ) {
+        // insertion sort, batches arrive (nearly) in order so this rarely moves anything
+        int i = size;
+        while (i > 0 && timestamps[i - 1] > timestamp) {
+            i--;
+        }
+        if (i > 0 && timestamps[i - 1] == timestamp) {
+            dropped++;
+            return;
+        }
+        if (size == timestamps.length) {
+            grow();
+        }
+        if (i < size) {
+            System.arraycopy(timestamps, i, timestamps, i + 1, size - i);
+            System.arraycopy(x, i, x, i + 1, size - i);
+            System.arraycopy(y, i, y, i + 1, size - i);
+            System.arraycopy(z, i, z, i + 1, size - i);
+        }
+        size++;
+        timestamps[i] = timestamp;
+        x[i] = sampleX;
+        y[i] = sampleY;
+        z[i] = sampleZ;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Process the collected samples in timestamp order and empty the batch.
+     *
+     * @return the number of shakes detected, see {@link ShakeDetector#getLastShakeTimestamp()}
+     */
+    public int drainTo(ShakeDetector detector) {
+        // samples are sorted, so any that are too old come first
+        int first = 0;
+        while (first < size && timestamps[first] <= lastProcessed) {
+            first++;
+        }
+        dropped += first;
+
+        int shakes = 0;
+        if (first < size) {
+            shakes = detector.onSamples(timestamps, x, y, z, first, size - first);
+            lastProcessed = timestamps[size - 1];
+        }
+        size = 0;
+        return shakes;
+    }
+
+    /**
+     * Number of samples dropped because they arrived after a later sample was processed, or
+     * repeated a timestamp.
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    private void grow() {
+        int capacity = timestamps.length * 2;
+        long[] newTimestamps = new long[capacity];
+        float[] newX = new float[capacity];
+        float[] newY = new float[capacity];
+        float[] newZ = new float[capacity];
+        System.arraycopy(timestamps, 0, newTimestamps, 0, size);
+        System.arraycopy(x, 0, newX, 0, size);
+        System.arraycopy(y, 0, newY, 0, size);
+        System.arraycopy(z, 0, newZ, 0, size);
+        timestamps = newTimestamps;
+        x = newX;
+        y = newY;
+        z = newZ;
+    }
+}
@@ -0,0 +1,117 @@
+package com.honu.dicecast.core;
+
+/**
+ * Detects shakes from a stream of raw accelerometer samples.
+ * <p/>
+ * Implementations run in constant memory and do not allocate per sample. Samples can be fed one
+ * at a time or in bulk as primitive arrays (structure of arrays); both give the same results.
+ * Samples must be fed in timestamp order. Not thread safe.
+ */
+public abstract class ShakeDetector {
+
+    // Enforced pause between rolls
+//    public static final long SHAKE_PAUSE_NS = 1500000000L; // 1.5 sec (in nanoseconds)
+    public static final long SHAKE_PAUSE_NS = 500000000L; // .5 sec (in nanoseconds)
+
+    // Weight of the previous gravity estimate in the low-pass filter
+    static final float ALPHA = 0.8f;
+
+    /**
+     * The available detection strategies.
+     */
+    public enum Strategy {
+
+        // Largest per-axis acceleration over a threshold several times (the original heuristic)
+        AXIS_THRESHOLD {
+            @Override
+            public ShakeDetector create() {
+                return new AxisThresholdDetector();
+            }
+        },
+
+        // Mean energy of the acceleration vector over a sliding window
+        ENERGY {
+            @Override
+            public ShakeDetector create() {
+                return new EnergyDetector();
+            }
+        },
+
+        // Direction reversals along any axis within a time window
+        REVERSAL {
+            @Override
+            public ShakeDetector create() {
+                return new ReversalDetector();
+            }
+        };
+
+        public abstract ShakeDetector create();
+    }
+
+    // Samples ignored for arriving within SHAKE_PAUSE_NS of the last shake
+    long debouncedCount;
+
+    /**
+     * Process one accelerometer sample.
+     *
+     * @param timestamp sample time in nanoseconds
+     * @return true if this sample completes a shake
+     */
+    public abstract boolean onSample(long timestamp, float x, float y, float z);
+
+    /**
+     * Timestamp of the sample that completed the most recent shake, 0 if there was none.
+     */
+    public abstract long getLastShakeTimestamp();
+
+    /**
+     * Number of samples ignored because they arrived within SHAKE_PAUSE_NS of the last shake,
+     * the motion the pause between rolls kept from counting. Not cleared by {@link #reset()}.
+     */
+    public long getDebouncedCount() {
+        return debouncedCount;
+    }
+
+    /**
+     * Forget all state, as if no sample had been seen.
+     */
+    public abstract void reset();
+
+    /**
+     * Process samples[offset .. offset + length) of the given arrays, in order.
+     *
+     * @return the number of shakes detected, see {@link #getLastShakeTimestamp()}
+     */
+    public int onSamples(long[] timestamps, float[] xs, float[] ys, float[] zs, int offset, int length) {
+        return onSamples(timestamps, xs, ys, zs, offset, length, null);
+    }
+
+    /**
+     * Process samples[offset .. offset + length) of the given arrays, in order, writing the
+     * timestamp of each detected shake to shakeTimestamps while it has room.
+     *
+     * @return the number of shakes detected
+     */
+    public int onSamples(long[] timestamps, float[] xs, float[] ys, float[] zs, int offset, int length,
+                         long[] shakeTimestamps) {
+        checkRange(timestamps, xs, ys, zs, offset, length);
+        int shakes = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (onSample(timestamps[i], xs[i], ys[i], zs[i])) {
+                if (shakeTimestamps != null && shakes < shakeTimestamps.length) {
+                    shakeTimestamps[shakes] = timestamps[i];
+                }
+                shakes++;
+            }
+        }
+        return shakes;
+    }
+
+    static void checkRange(long[] timestamps, float[] xs, float[] ys, float[] zs, int offset, int length) {
+        int end = offset + length;
+        if (offset < 0 || length < 0 || end > timestamps.length || end > xs.length
+              || end > ys.length || end > zs.length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length);
+        }
+    }
+}
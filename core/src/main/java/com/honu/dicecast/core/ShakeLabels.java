@@ -0,0 +1,106 @@
+package com.honu.dicecast.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Time intervals of a trace during which the phone was really being shaken.
+ * <p/>
+ * Read from a text file with one "startNanos endNanos" pair per line, using the trace's sample
+ * timestamps. Blank lines and lines starting with # are ignored.
+ */
+public class ShakeLabels {
+
+    private final long[] starts;
+    private final long[] ends;
+
+    public ShakeLabels(long[] starts, long[] ends) {
+        if (starts.length != ends.length) {
+            throw new IllegalArgumentException("starts and ends differ in length");
+        }
+        // sort intervals by start time
+        long[][] intervals = new long[starts.length][];
+        for (int i = 0; i < starts.length; i++) {
+            intervals[i] = new long[]{starts[i], ends[i]};
+        }
+        Arrays.sort(intervals, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+        this.starts = new long[starts.length];
+        this.ends = new long[starts.length];
+        for (int i = 0; i < intervals.length; i++) {
+            this.starts[i] = intervals[i][0];
+            this.ends[i] = intervals[i][1];
+        }
+    }
+
+    public static ShakeLabels read(File file) throws IOException {
+        long[] starts = new long[16];
+        long[] ends = new long[16];
+        int count = 0;
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 2) {
+                    throw new IOException(file + ":" + lineNumber + ": expected \"startNanos endNanos\"");
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                try {
+                    starts[count] = Long.parseLong(fields[0]);
+                    ends[count] = Long.parseLong(fields[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage());
+                }
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        return new ShakeLabels(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public long getStart(int index) {
+        return starts[index];
+    }
+
+    public long getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Find the labelled shake containing the timestamp.
+     *
+     * @return the label index, or -1 if the timestamp is outside every label
+     */
+    public int indexOf(long timestamp) {
+        int index = Arrays.binarySearch(starts, timestamp);
+        if (index < 0) {
+            // last label starting before the timestamp
+            index = -index - 2;
+        }
+        return index >= 0 && timestamp <= ends[index] ? index : -1;
+    }
+}
@@ -0,0 +1,123 @@
+package com.honu.dicecast.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Transport to a {@link LoopbackReceiver} over TCP.
+ * <p/>
+ * Messages are written on the calling thread. Received messages and send results are handed to
+ * the executor, which should be the one the channel's scheduler runs on, so they arrive after
+ * the send that caused them returned, as they do with a Cast session.
+ */
+public class SocketTransport implements RollTransport {
+
+    private final String host;
+    private final int port;
+    private final Executor executor;
+
+    private Socket socket;
+    private DataOutputStream out;
+    private String namespace;
+
+    public SocketTransport(String host, int port, Executor executor) {
+        this.host = host;
+        this.port = port;
+        this.executor = executor;
+    }
+
+    @Override
+    public void open(String namespace, final Receiver receiver) throws IOException {
+        if (socket != null) {
+            throw new IOException("transport already open");
+        }
+        final Socket connected = new Socket();
+        try {
+            connected.setTcpNoDelay(true);
+            connected.connect(new InetSocketAddress(host, port));
+            out = new DataOutputStream(new BufferedOutputStream(connected.getOutputStream()));
+        } catch (IOException e) {
+            connected.close();
+            throw e;
+        }
+        this.socket = connected;
+        this.namespace = namespace;
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(connected.getInputStream()));
+        final String opened = namespace;
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        String frameNamespace = in.readUTF();
+                        final String message = in.readUTF();
+                        if (opened.equals(frameNamespace)) {
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    receiver.onMessage(message);
+                                }
+                            });
+                        }
+                    }
+                } catch (EOFException e) {
+                    // receiver disconnected
+                } catch (IOException e) {
+                    if (!connected.isClosed()) {
+                        System.err.println("SocketTransport: read failed: " + e);
+                    }
+                } catch (RejectedExecutionException e) {
+                    // executor shut down
+                }
+            }
+        }, "SocketTransport-" + connected.getLocalPort());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void send(String message, final int seq, final SendCallback callback) {
+        boolean success = false;
+        if (out != null) {
+            try {
+                out.writeUTF(namespace);
+                out.writeUTF(message);
+                out.flush();
+                success = true;
+            } catch (IOException e) {
+                // reported as a failed send
+            }
+        }
+
+        if (callback != null) {
+            final boolean result = success;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onSendResult(seq, result);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null) {
+            try {
+                socket.close();
+            } finally {
+                socket = null;
+                out = null;
+            }
+        }
+    }
+}
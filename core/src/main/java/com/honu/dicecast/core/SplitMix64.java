@@ -0,0 +1,90 @@
+package com.honu.dicecast.core;
+
+import java.util.Random;
+
+/**
+ * Splittable pseudo-random generator using the SplitMix64 algorithm of
+ * java.util.SplittableRandom, which is not available at this module's language level or on
+ * older Android versions.
+ * <p/>
+ * {@link #split()} returns a generator for an independent stream, so parallel work can be given
+ * its own stream in a way that only depends on how the work is divided, not on which thread runs
+ * it. Extends Random so it can drive a {@link DiceRoller}; the state is a plain field, so an
+ * instance must only be used by one thread at a time.
+ */
+public class SplitMix64 extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+    private final long gamma;
+
+    public SplitMix64(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMix64(long seed, long gamma) {
+        // a fixed seed for Random's unused state skips its shared seed uniquifier
+        super(0L);
+        this.state = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Restart the stream from a seed, keeping the gamma; Random's constructor calls this before
+     * the fields are set, which the constructor then overwrites.
+     */
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed);
+        state = seed;
+    }
+
+    /**
+     * Create a generator for a new stream, advancing this one.
+     */
+    public SplitMix64 split() {
+        return new SplitMix64(nextLong(), mixGamma(nextSeed()));
+    }
+
+    @Override
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    @Override
+    public int nextInt() {
+        return mix32(nextSeed());
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (mix64(nextSeed()) >>> (64 - bits));
+    }
+
+    private long nextSeed() {
+        return state += gamma;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    // odd gamma with enough bit transitions to give a good stream
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
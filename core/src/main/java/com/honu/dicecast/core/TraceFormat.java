@@ -0,0 +1,20 @@
+package com.honu.dicecast.core;
+
+/**
+ * Layout of accelerometer trace files written by {@link TraceWriter}.
+ */
+public final class TraceFormat {
+
+    // "DCTR"
+    public static final int MAGIC = 0x44435452;
+    public static final int VERSION = 1;
+
+    // magic and version
+    public static final int HEADER_BYTES = 8;
+
+    // timestamp, x, y, z
+    public static final int RECORD_BYTES = 8 + 3 * 4;
+
+    private TraceFormat() {
+    }
+}
@@ -0,0 +1,291 @@
+package com.honu.dicecast.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Replays recorded accelerometer traces through a {@link ShakeDetector} on the JVM.
+ * <p/>
+ * Reports the shakes detected and, given labelled shakes, how many labels were detected, how
+ * many were missed, how many detections fell outside every label (false positives) and the delay
+ * from the start of a labelled shake to its detection, along with the number of samples
+ * processed per second and per minute of trace.
+ * <p/>
+ * With adaptive sampling the trace is replayed as the sensor would deliver it under
+ * {@link AdaptiveSampling}: while idle only the samples due at the idle rate are processed, and
+ * a rate change takes effect SWITCH_DELAY_NS after the sample that triggered it, with the old
+ * rate carrying on until then. The trace should be recorded at the active rate, which is the
+ * fixed rate the app used before.
+ * <p/>
+ * Usage: TraceReplay trace-file [--labels file] [--strategy name] [--threshold a] [--count n]
+ * [--sampling fixed|adaptive] [--repeat n]
+ * <p/>
+ * The threshold and count tune the selected strategy: the per-axis acceleration and number of
+ * movements for AXIS_THRESHOLD, the RMS acceleration and window length in samples for ENERGY,
+ * the swing acceleration and number of reversals for REVERSAL.
+ */
+public class TraceReplay {
+
+    // Samples processed per bulk call
+    private static final int CHUNK = 4096;
+
+    // Time from asking for a new sampling rate to samples arriving at it
+    static final long SWITCH_DELAY_NS = 50000000L; // 50 ms (in nanoseconds)
+
+    /**
+     * Outcome of replaying a trace.
+     */
+    public static class Result {
+        public long samples;
+        public long traceNanos;
+        public long rateChanges;
+        public long detections;
+        public long falsePositives;
+        public int labels;
+        public int detectedLabels;
+        public long totalDelayNanos;
+        public long maxDelayNanos;
+        public long elapsedNanos;
+
+        public int getMissedLabels() {
+            return labels - detectedLabels;
+        }
+
+        public double getMeanDelayMillis() {
+            return detectedLabels == 0 ? 0 : totalDelayNanos / 1e6 / detectedLabels;
+        }
+
+        public double getSamplesPerSecond() {
+            return elapsedNanos == 0 ? 0 : samples * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Samples processed per minute of the trace, what the sensor delivers.
+         */
+        public double getSamplesPerMinute() {
+            return traceNanos == 0 ? 0 : samples * 60e9 / traceNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder()
+                  .append("samples: ").append(samples)
+                  .append(String.format(" (%.0f per minute of trace)%n", getSamplesPerMinute()));
+            if (rateChanges > 0) {
+                sb.append("rate changes: ").append(rateChanges).append('\n');
+            }
+            sb.append("detections: ").append(detections).append('\n');
+            if (labels > 0) {
+                sb.append("labelled shakes: ").append(labels).append('\n')
+                      .append("detected: ").append(detectedLabels).append('\n')
+                      .append("missed: ").append(getMissedLabels()).append('\n')
+                      .append("false positives: ").append(falsePositives).append('\n')
+                      .append(String.format("detection delay: mean %.1f ms, max %.1f ms%n",
+                            getMeanDelayMillis(), maxDelayNanos / 1e6));
+            }
+            sb.append(String.format("samples/sec: %.0f", getSamplesPerSecond()));
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Feed every sample of the trace to the detector.
+     *
+     * @param labels labelled shakes, or null
+     */
+    public static Result replay(MappedTrace trace, ShakeDetector detector, ShakeLabels labels) {
+        Result result = new Result();
+        boolean[] detected = labels == null ? null : new boolean[labels.size()];
+
+        // samples are copied from the mapping in chunks and processed in bulk
+        long[] timestamps = new long[CHUNK];
+        float[] xs = new float[CHUNK];
+        float[] ys = new float[CHUNK];
+        float[] zs = new float[CHUNK];
+        // the shake pause bounds the shakes per chunk well below this
+        long[] shakes = new long[CHUNK];
+
+        long start = System.nanoTime();
+        int size = trace.size();
+        for (int from = 0; from < size; from += CHUNK) {
+            int count = Math.min(CHUNK, size - from);
+            trace.read(from, timestamps, xs, ys, zs, count);
+            int found = detector.onSamples(timestamps, xs, ys, zs, 0, count, shakes);
+            result.detections += found;
+
+            for (int i = 0; labels != null && i < found; i++) {
+                score(result, labels, detected, shakes[i]);
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.samples = size;
+        finish(result, trace, labels, detected);
+        return result;
+    }
+
+    /**
+     * Feed the detector the samples of the trace the sensor would deliver under adaptive
+     * sampling, one at a time.
+     *
+     * @param labels labelled shakes, or null
+     */
+    public static Result replay(MappedTrace trace, ShakeDetector detector, ShakeLabels labels,
+                                AdaptiveSampling sampling) {
+        Result result = new Result();
+        boolean[] detected = labels == null ? null : new boolean[labels.size()];
+
+        long period = periodOf(sampling);
+        long nextPeriod = -1;
+        long switchAt = 0;
+        long due = Long.MIN_VALUE;
+        long processed = 0;
+
+        long start = System.nanoTime();
+        int size = trace.size();
+        for (int i = 0; i < size; i++) {
+            long timestamp = trace.timestamp(i);
+            if (nextPeriod >= 0 && timestamp >= switchAt) {
+                period = nextPeriod;
+                nextPeriod = -1;
+                // a faster rate delivers right away, a slower one after the sample already due
+                due = Math.min(due, switchAt);
+            }
+            if (timestamp < due) {
+                // not delivered at the current rate
+                continue;
+            }
+            due = due != Long.MIN_VALUE && due + period > timestamp ? due + period : timestamp + period;
+            processed++;
+
+            float x = trace.x(i);
+            float y = trace.y(i);
+            float z = trace.z(i);
+            if (sampling.onSample(timestamp, x, y, z)) {
+                nextPeriod = periodOf(sampling);
+                switchAt = timestamp + SWITCH_DELAY_NS;
+            }
+            if (detector.onSample(timestamp, x, y, z)) {
+                result.detections++;
+                if (labels != null) {
+                    score(result, labels, detected, timestamp);
+                }
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.samples = processed;
+        result.rateChanges = sampling.getChangeCount();
+        finish(result, trace, labels, detected);
+        return result;
+    }
+
+    // the trace is at the active rate, every sample of it is delivered while active
+    private static long periodOf(AdaptiveSampling sampling) {
+        return sampling.getStage() == AdaptiveSampling.Stage.IDLE ? AdaptiveSampling.IDLE_PERIOD_US * 1000L : 0;
+    }
+
+    private static void score(Result result, ShakeLabels labels, boolean[] detected, long shake) {
+        int label = labels.indexOf(shake);
+        if (label < 0) {
+            result.falsePositives++;
+        } else if (!detected[label]) {
+            detected[label] = true;
+            long delay = shake - labels.getStart(label);
+            result.totalDelayNanos += delay;
+            result.maxDelayNanos = Math.max(result.maxDelayNanos, delay);
+        }
+    }
+
+    private static void finish(Result result, MappedTrace trace, ShakeLabels labels, boolean[] detected) {
+        int size = trace.size();
+        result.traceNanos = size < 2 ? 0 : trace.timestamp(size - 1) - trace.timestamp(0);
+        if (labels != null) {
+            result.labels = labels.size();
+            for (boolean d : detected) {
+                if (d) {
+                    result.detectedLabels++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a detector for the strategy, with the default threshold and count where null.
+     */
+    public static ShakeDetector createDetector(ShakeDetector.Strategy strategy, Float threshold, Integer count) {
+        switch (strategy) {
+            case AXIS_THRESHOLD:
+                return new AxisThresholdDetector(
+                      threshold != null ? threshold : AxisThresholdDetector.MIN_ACCELERATION,
+                      count != null ? count : AxisThresholdDetector.MIN_MOVEMENTS);
+            case ENERGY:
+                return new EnergyDetector(
+                      count != null ? count : EnergyDetector.WINDOW,
+                      threshold != null ? threshold : EnergyDetector.MIN_RMS_ACCELERATION);
+            case REVERSAL:
+                return new ReversalDetector(
+                      threshold != null ? threshold : ReversalDetector.MIN_ACCELERATION,
+                      count != null ? count : ReversalDetector.MIN_REVERSALS);
+            default:
+                throw new IllegalArgumentException("unknown strategy " + strategy);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: TraceReplay trace-file [--labels file] [--strategy name]"
+                  + " [--threshold a] [--count n] [--sampling fixed|adaptive] [--repeat n]");
+            System.exit(2);
+        }
+
+        File traceFile = new File(args[0]);
+        ShakeLabels labels = null;
+        ShakeDetector.Strategy strategy = ShakeDetector.Strategy.AXIS_THRESHOLD;
+        Float threshold = null;
+        Integer count = null;
+        boolean adaptive = false;
+        int repeat = 1;
+
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value for " + option);
+            }
+            String value = args[++i];
+            if ("--labels".equals(option)) {
+                labels = ShakeLabels.read(new File(value));
+            } else if ("--strategy".equals(option)) {
+                strategy = ShakeDetector.Strategy.valueOf(value.toUpperCase(Locale.US));
+            } else if ("--threshold".equals(option)) {
+                threshold = Float.parseFloat(value);
+            } else if ("--count".equals(option)) {
+                count = Integer.parseInt(value);
+            } else if ("--sampling".equals(option)) {
+                if (!"fixed".equals(value) && !"adaptive".equals(value)) {
+                    throw new IllegalArgumentException("unknown sampling " + value);
+                }
+                adaptive = "adaptive".equals(value);
+            } else if ("--repeat".equals(option)) {
+                repeat = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+
+        MappedTrace trace = new MappedTrace(traceFile);
+        Result result = null;
+        // later runs are JIT compiled, report the last one
+        for (int run = 0; run < repeat; run++) {
+            ShakeDetector detector = createDetector(strategy, threshold, count);
+            result = adaptive
+                  ? replay(trace, detector, labels, new AdaptiveSampling())
+                  : replay(trace, detector, labels);
+        }
+        System.out.println("trace: " + traceFile);
+        System.out.println("strategy: " + strategy
+              + (threshold != null ? ", threshold: " + threshold : "")
+              + (count != null ? ", count: " + count : "")
+              + ", sampling: " + (adaptive ? "adaptive" : "fixed"));
+        System.out.println(result);
+    }
+}
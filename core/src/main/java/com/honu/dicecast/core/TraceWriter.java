@@ -0,0 +1,44 @@
+package com.honu.dicecast.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes raw accelerometer samples to a trace file.
+ * <p/>
+ * The file starts with a TraceFormat header followed by fixed-width big-endian records of
+ * (long timestamp, float x, float y, float z), so traces can be memory mapped and indexed
+ * directly by {@link MappedTrace}.
+ */
+public class TraceWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private long samples;
+
+    public TraceWriter(File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(TraceFormat.MAGIC);
+        out.writeInt(TraceFormat.VERSION);
+    }
+
+    public void write(long timestamp, float x, float y, float z) throws IOException {
+        out.writeLong(timestamp);
+        out.writeFloat(x);
+        out.writeFloat(y);
+        out.writeFloat(z);
+        samples++;
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
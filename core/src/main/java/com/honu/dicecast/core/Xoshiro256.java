@@ -0,0 +1,64 @@
+package com.honu.dicecast.core;
+
+import java.util.Random;
+
+/**
+ * Pseudo-random generator using xoshiro256** by Blackman and Vigna: 256 bits of state, a period
+ * of 2^256 - 1 and a few shifts, rotations and xors per draw.
+ * <p/>
+ * The state is filled from the seed with SplitMix64, as the authors recommend, so any seed
+ * including zero gives a good stream, and the same seed always gives the same stream. Extends
+ * Random so it can drive a {@link DiceRoller}; the state is in plain fields, so an instance must
+ * only be used by one thread at a time.
+ */
+public class Xoshiro256 extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+
+    public Xoshiro256(long seed) {
+        // a fixed seed for Random's unused state skips its shared seed uniquifier
+        super(0L);
+        setSeed(seed);
+    }
+
+    /**
+     * Restart from a seed, giving the same stream as a new generator with that seed.
+     */
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed);
+        SplitMix64 seeds = new SplitMix64(seed);
+        s0 = seeds.nextLong();
+        s1 = seeds.nextLong();
+        s2 = seeds.nextLong();
+        s3 = seeds.nextLong();
+    }
+
+    @Override
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+}
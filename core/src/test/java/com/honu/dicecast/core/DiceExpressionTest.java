@@ -0,0 +1,165 @@
+package com.honu.dicecast.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Parsing, normalization and rolling of dice expressions, which also compile the notation in
+ * other players' roll messages.
+ */
+public class DiceExpressionTest {
+
+    private static final int ROLLS = 1000;
+
+    @Test
+    public void normalization() {
+        assertNormalized("1d100", "d%");
+        assertNormalized("4d6kh3", "4d6dl1");
+        assertNormalized("4d6kl3", "4d6dh1");
+        assertNormalized("4d6kh3", "4d6k3");
+        assertNormalized("4d6kh3+2", " 4D6 KH3 + 2 ");
+        assertNormalized("3d6!", "3d6!");
+        assertNormalized("2d20kl1!", "2d20!kl1");
+        assertNormalized("1d8+1d6-1", "d8+d6-1");
+        assertNormalized("-1d4+3", "-d4+3");
+        // keeping every die is no keep at all
+        assertNormalized("4d6", "4d6kh4");
+    }
+
+    @Test
+    public void diceCount() {
+        assertEquals(4, DiceExpression.compile("4d6kh3+2").getDiceCount());
+        assertEquals(5, DiceExpression.compile("2d8+3d6-1").getDiceCount());
+        assertEquals(0, DiceExpression.compile("7").getDiceCount());
+    }
+
+    @Test
+    public void keepHighest() {
+        DiceExpression expression = DiceExpression.compile("4d6kh3+2");
+        Random random = new SplitMix64(1);
+        int[] dice = new int[4];
+        for (int n = 0; n < ROLLS; n++) {
+            int total = expression.roll(random, dice);
+            assertSortedFaces(dice, 0, 4, 6);
+            assertEquals(dice[0] + dice[1] + dice[2] + 2, total);
+        }
+    }
+
+    @Test
+    public void keepLowest() {
+        DiceExpression expression = DiceExpression.compile("2d20kl1");
+        Random random = new SplitMix64(2);
+        int[] dice = new int[2];
+        for (int n = 0; n < ROLLS; n++) {
+            int total = expression.roll(random, dice);
+            assertSortedFaces(dice, 0, 2, 20);
+            assertEquals(dice[1], total);
+        }
+    }
+
+    @Test
+    public void dropIsKeepOfTheOthers() {
+        assertSameRolls("4d6dl1", "4d6kh3");
+        assertSameRolls("4d6dh1", "4d6kl3");
+        assertSameRolls("5d10dl2-3", "5d10kh3-3");
+    }
+
+    @Test
+    public void termsAndConstants() {
+        DiceExpression expression = DiceExpression.compile("1d8+1d6-1");
+        Random random = new SplitMix64(3);
+        int[] dice = new int[2];
+        for (int n = 0; n < ROLLS; n++) {
+            int total = expression.roll(random, dice);
+            assertTrue(dice[0] >= 1 && dice[0] <= 8);
+            assertTrue(dice[1] >= 1 && dice[1] <= 6);
+            assertEquals(dice[0] + dice[1] - 1, total);
+        }
+        int total = DiceExpression.compile("-1d4-3").roll(random, dice);
+        assertTrue(dice[0] >= 1 && dice[0] <= 4);
+        assertEquals(-dice[0] - 3, total);
+    }
+
+    @Test
+    public void explosionsAreCapped() {
+        // every draw is the highest face, so every die explodes as often as allowed
+        Random highest = new Random() {
+            @Override
+            public int nextInt() {
+                return -1;
+            }
+        };
+        int[] dice = new int[1];
+        assertEquals(6 * (1 + DiceExpression.MAX_EXPLOSIONS), DiceExpression.compile("1d6!").roll(highest, dice));
+        assertEquals(6 * (1 + DiceExpression.MAX_EXPLOSIONS), dice[0]);
+        assertEquals(6, DiceExpression.compile("1d6").roll(highest, dice));
+    }
+
+    @Test
+    public void rejected() {
+        assertRejected("4d6kh0");
+        assertRejected("4d6kh5");
+        assertRejected("4d6dl4");
+        assertRejected("4d6d1");
+        assertRejected("4d6kh1kl1");
+        assertRejected("4d6!!");
+        assertRejected("3+");
+        assertRejected("");
+        assertRejected("  ");
+        assertRejected(null);
+        assertRejected("1001d6");
+        assertRejected("0d6");
+        assertRejected("2d1");
+        assertRejected("1d10001");
+        assertRejected("2d6x");
+        assertRejected("1000d6+1d6");
+        assertRejected("1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2+1d2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void diceArrayTooSmall() {
+        DiceExpression.compile("3d6").roll(new SplitMix64(4), new int[2]);
+    }
+
+    private static void assertNormalized(String expected, String notation) {
+        assertEquals(expected, DiceExpression.compile(notation).getNotation());
+        // normalized notations compile to themselves
+        assertEquals(expected, DiceExpression.compile(expected).getNotation());
+    }
+
+    // dice[from .. to) are faces of the given sides, highest first
+    private static void assertSortedFaces(int[] dice, int from, int to, int sides) {
+        for (int i = from; i < to; i++) {
+            assertTrue("face " + dice[i], dice[i] >= 1 && dice[i] <= sides);
+            if (i > from) {
+                assertTrue("not sorted highest first", dice[i - 1] >= dice[i]);
+            }
+        }
+    }
+
+    private static void assertSameRolls(String notation, String equivalent) {
+        DiceExpression a = DiceExpression.compile(notation);
+        DiceExpression b = DiceExpression.compile(equivalent);
+        Random randomA = new SplitMix64(5);
+        Random randomB = new SplitMix64(5);
+        int[] diceA = new int[a.getDiceCount()];
+        int[] diceB = new int[b.getDiceCount()];
+        for (int n = 0; n < ROLLS; n++) {
+            assertEquals(b.roll(randomB, diceB), a.roll(randomA, diceA));
+        }
+    }
+
+    private static void assertRejected(String notation) {
+        try {
+            DiceExpression.compile(notation);
+            fail("compiled " + notation);
+        } catch (IllegalArgumentException expected) {
+            // rejected
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.honu.dicecast.core;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stage latencies are timed from the stage each follows, whatever order stages are marked in.
+ */
+public class LatencyRecorderTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void sentBeforeRendered() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        int roll = recorder.beginRoll(100 * MS, 110 * MS);
+        recorder.markSent(roll, 1, 112 * MS);
+        recorder.mark(roll, LatencyRecorder.STAGE_RENDERED, 126 * MS);
+        recorder.markEchoed(1, 140 * MS);
+
+        assertOnly(10 * MS, recorder.getStageLatency(LatencyRecorder.STAGE_DETECTED));
+        assertOnly(16 * MS, recorder.getStageLatency(LatencyRecorder.STAGE_RENDERED));
+        assertOnly(2 * MS, recorder.getStageLatency(LatencyRecorder.STAGE_SENT));
+        assertOnly(28 * MS, recorder.getStageLatency(LatencyRecorder.STAGE_ECHOED));
+        assertOnly(40 * MS, recorder.getEndToEndLatency());
+    }
+
+    @Test
+    public void tapHasNoInput() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        int roll = recorder.beginRoll(0, 110 * MS);
+        recorder.mark(roll, LatencyRecorder.STAGE_RENDERED, 120 * MS);
+        recorder.markSent(roll, 7, 121 * MS);
+        recorder.markEchoed(7, 131 * MS);
+
+        assertEquals(0, recorder.getStageLatency(LatencyRecorder.STAGE_DETECTED).getCount());
+        assertOnly(11 * MS, recorder.getStageLatency(LatencyRecorder.STAGE_SENT));
+        assertOnly(21 * MS, recorder.getEndToEndLatency());
+    }
+
+    @Test
+    public void stagesStampedOnce() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        int roll = recorder.beginRoll(0, 110 * MS);
+        recorder.mark(roll, LatencyRecorder.STAGE_RENDERED, 120 * MS);
+        recorder.mark(roll, LatencyRecorder.STAGE_RENDERED, 150 * MS);
+        assertOnly(10 * MS, recorder.getStageLatency(LatencyRecorder.STAGE_RENDERED));
+    }
+
+    @Test
+    public void dumpNamesTheStageTimedFrom() {
+        StringWriter out = new StringWriter();
+        new LatencyRecorder().dump("", new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue(dump, dump.contains("input -> detected"));
+        assertTrue(dump, dump.contains("detected -> rendered"));
+        assertTrue(dump, dump.contains("detected -> sent"));
+        assertTrue(dump, dump.contains("sent -> echoed"));
+    }
+
+    private static void assertOnly(long nanos, LatencyHistogram histogram) {
+        assertEquals(1, histogram.getCount());
+        // histogram buckets are approximate
+        assertEquals(nanos, histogram.getMax(), nanos / 50.0);
+    }
+}
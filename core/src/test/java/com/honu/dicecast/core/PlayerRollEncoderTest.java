@@ -0,0 +1,69 @@
+package com.honu.dicecast.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Roll messages passed on by the receiver, from what a sender sent to the snapshot another
+ * player decodes, and the rolls rejected on the way.
+ */
+public class PlayerRollEncoderTest {
+
+    private final DiceExpressionCache expressions = new DiceExpressionCache();
+
+    @Test
+    public void compactRollRoundTrip() {
+        String body = PlayerRollEncoder.rollBody("sender-1", "2:3,4,17");
+        String message = PlayerRollEncoder.rollMessage(12, body);
+        assertEquals("{\"roll\":{\"order\":12,\"player\":\"sender-1\",\"die1\":3,\"die2\":4}}", message);
+
+        RollSnapshot roll = PlayerRollEncoder.decode(message, expressions);
+        assertEquals(12, roll.getVersion());
+        assertEquals(3, roll.getDie1());
+        assertEquals(4, roll.getDie2());
+        assertEquals(7, roll.getTotal());
+    }
+
+    @Test
+    public void jsonRollRoundTrip() {
+        String body = PlayerRollEncoder.rollBody("sender-1",
+              new RollMessageEncoder().message(RollMessageEncoder.FORMAT_JSON, 5, 6, 1));
+        RollSnapshot roll = PlayerRollEncoder.decode(PlayerRollEncoder.rollMessage(3, body), expressions);
+        assertEquals(6, roll.getDie1());
+        assertEquals(1, roll.getDie2());
+    }
+
+    @Test
+    public void facesOutOfRangeAreNotPassedOn() {
+        assertNull(PlayerRollEncoder.rollBody("p", "2:0,4,1"));
+        assertNull(PlayerRollEncoder.rollBody("p", "2:3,300,1"));
+        assertNull(PlayerRollEncoder.rollBody("p", "2:-3,4,1"));
+        assertNull(PlayerRollEncoder.rollBody("p", "{\"text\":\"\",\"die1\":7,\"die2\":1,\"seq\":1}"));
+        assertNull(PlayerRollEncoder.rollBody("p", "{\"text\":\"\",\"die1\":1,\"die2\":-3,\"seq\":1}"));
+    }
+
+    @Test
+    public void facesOutOfRangeAreNotDecoded() {
+        assertNull(PlayerRollEncoder.decode("{\"roll\":{\"order\":1,\"player\":\"p\",\"die1\":-3,\"die2\":4}}", expressions));
+        assertNull(PlayerRollEncoder.decode("{\"roll\":{\"order\":1,\"player\":\"p\",\"die1\":3,\"die2\":300}}", expressions));
+        assertNull(PlayerRollEncoder.decode("{\"roll\":{\"order\":1,\"player\":\"p\",\"die1\":0,\"die2\":1}}", expressions));
+        assertNull(PlayerRollEncoder.decode("{\"roll\":{\"order\":1,\"player\":\"p\",\"die1\":3}}", expressions));
+    }
+
+    @Test
+    public void expressionRoll() {
+        String message = "{\"roll\":{\"order\":4,\"player\":\"p\",\"expr\":\"4d6kh3+2\",\"total\":16,\"dice\":[6,5,3,1]}}";
+        RollSnapshot roll = PlayerRollEncoder.decode(message, expressions);
+        assertEquals("4d6kh3+2", roll.getExpression().getNotation());
+        assertEquals(16, roll.getTotal());
+        assertEquals(4, roll.getDiceCount());
+        assertEquals(1, roll.getDie(3));
+    }
+
+    @Test
+    public void statisticsAreNotRolls() {
+        assertNull(PlayerRollEncoder.rollBody("p", LoopbackReceiver.STATS_PREFIX + "{\"rolls\":1}}"));
+    }
+}
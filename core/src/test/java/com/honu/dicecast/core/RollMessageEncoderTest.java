@@ -0,0 +1,47 @@
+package com.honu.dicecast.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Messages built from the cache match those formatted fragment by fragment, with and without a
+ * sequence number.
+ */
+public class RollMessageEncoderTest {
+
+    @Test
+    public void originalPayload() {
+        RollMessageEncoder encoder = new RollMessageEncoder();
+        assertEquals("{\"text\":\"You rolled (3, 4): 7\",\"die1\":3,\"die2\":4}",
+              encoder.message(RollMessageEncoder.FORMAT_JSON, 0, 3, 4));
+        assertEquals("{\"text\":\"You rolled (3, 4): 7\",\"die1\":3,\"die2\":4,\"seq\":17}",
+              encoder.message(RollMessageEncoder.FORMAT_JSON, 17, 3, 4));
+        assertEquals("2:3,4,17", encoder.message(RollMessageEncoder.FORMAT_COMPACT, 17, 3, 4));
+    }
+
+    @Test
+    public void cachedMatchesFormatted() {
+        RollMessageEncoder cached = new RollMessageEncoder();
+        RollMessageEncoder formatted = new RollMessageEncoder(0);
+        int[] seqs = {0, 1, 9, 10, 123456, Integer.MAX_VALUE};
+        for (int format = RollMessageEncoder.FORMAT_JSON; format <= RollMessageEncoder.FORMAT_COMPACT; format++) {
+            for (int die1 = 1; die1 <= 8; die1++) {
+                for (int die2 = 1; die2 <= 8; die2++) {
+                    for (int seq : seqs) {
+                        String expected = formatted.message(format, seq, die1, die2);
+                        assertEquals(expected, cached.message(format, seq, die1, die2));
+                        int length = cached.encode(format, seq, die1, die2);
+                        assertEquals(expected, new String(cached.buffer(), 0, length));
+                        assertEquals(seq, RollMessageEncoder.sequenceOf(expected));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFormat() {
+        new RollMessageEncoder().encode(3, 1, 2, 3);
+    }
+}
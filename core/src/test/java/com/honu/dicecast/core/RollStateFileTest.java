@@ -0,0 +1,214 @@
+package com.honu.dicecast.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Rolls written to the state file and read back by a new mapping, as after process death, and
+ * the cost of writing and reading them on every roll.
+ */
+public class RollStateFileTest {
+
+    // Offset of the sequence number, the third int of the layout
+    private static final int SEQUENCE = 8;
+
+    // Rolls written and read back to measure allocation and restore time, after as many to warm up
+    private static final int ROLLS = 100000;
+
+    // Slowest mean time to read a roll back, far above the ~100 ns it takes
+    private static final long MAX_RESTORE_NANOS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void newFileHasNoRoll() throws IOException {
+        RollStateFile state = new RollStateFile(folder.newFile("roll.state"));
+        assertEquals(RollStateFile.KIND_NONE, state.getKind());
+    }
+
+    @Test
+    public void diceRoundTrip() throws IOException {
+        File file = folder.newFile("roll.state");
+        new RollStateFile(file).writeDice(3, 5);
+
+        RollStateFile restored = new RollStateFile(file);
+        assertEquals(RollStateFile.KIND_DICE, restored.getKind());
+        assertEquals(3, restored.getDie1());
+        assertEquals(5, restored.getDie2());
+    }
+
+    @Test
+    public void expressionRoundTrip() throws IOException {
+        File file = folder.newFile("roll.state");
+        RollState rolls = new RollState();
+        RollSnapshot roll = rolls.roll(DiceExpression.compile("4d6kh3+2"), new SplitMix64(7));
+        RollStateFile state = new RollStateFile(file);
+        state.writeDice(1, 1);
+        state.write(roll);
+
+        RollStateFile restored = new RollStateFile(file);
+        assertEquals(RollStateFile.KIND_EXPRESSION, restored.getKind());
+        assertEquals(roll.getExpression().getNotation(), restored.getNotation());
+        assertEquals(roll.getTotal(), restored.getTotal());
+        assertEquals(roll.getDiceCount(), restored.getDiceCount());
+        int[] expected = new int[roll.getDiceCount()];
+        roll.copyDice(expected);
+        int[] dice = new int[expected.length];
+        assertEquals(expected.length, restored.readDice(dice));
+        assertArrayEquals(expected, dice);
+    }
+
+    @Test
+    public void laterRollReplacesEarlier() throws IOException {
+        File file = folder.newFile("roll.state");
+        RollStateFile state = new RollStateFile(file);
+        state.writeExpression("2d20kh1", 17, new int[]{17, 4}, 2);
+        state.writeExpression("3d6", 9, new int[]{2, 3, 4}, 3);
+
+        RollStateFile restored = new RollStateFile(file);
+        assertEquals("3d6", restored.getNotation());
+        int[] dice = new int[3];
+        assertEquals(3, restored.readDice(dice));
+        assertArrayEquals(new int[]{2, 3, 4}, dice);
+    }
+
+    @Test
+    public void tornWriteRestoresNothing() throws IOException {
+        File file = folder.newFile("roll.state");
+        new RollStateFile(file).writeDice(6, 6);
+
+        // the process died between begin and end of the next write
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(SEQUENCE);
+            int sequence = raf.readInt();
+            raf.seek(SEQUENCE);
+            raf.writeInt(sequence | 1);
+        } finally {
+            raf.close();
+        }
+
+        assertEquals(RollStateFile.KIND_NONE, new RollStateFile(file).getKind());
+    }
+
+    @Test
+    public void foreignFileIsReset() throws IOException {
+        File file = folder.newFile("roll.state");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(RollStateFile.FILE_BYTES);
+            raf.writeInt(0x12345678);
+            raf.writeInt(RollStateFile.VERSION);
+            raf.writeInt(2);
+            raf.writeInt(RollStateFile.KIND_DICE);
+        } finally {
+            raf.close();
+        }
+
+        assertEquals(RollStateFile.KIND_NONE, new RollStateFile(file).getKind());
+    }
+
+    @Test
+    public void clearForgetsRoll() throws IOException {
+        File file = folder.newFile("roll.state");
+        RollStateFile state = new RollStateFile(file);
+        state.writeDice(2, 4);
+        state.clear();
+        assertEquals(RollStateFile.KIND_NONE, new RollStateFile(file).getKind());
+    }
+
+    @Test
+    public void writeAndRestoreAllocateNothing() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadBean();
+        RollStateFile state = new RollStateFile(folder.newFile("roll.state"));
+        DiceExpression expression = DiceExpression.compile("4d6kh3+2");
+        int[] dice = {6, 5, 3, 1};
+        int[] restored = new int[DiceExpression.MAX_DICE];
+
+        long checksum = cycle(state, expression, dice, restored);
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        checksum += cycle(state, expression, dice, restored);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(2L * ROLLS * (2 + 16 + 1 + 15), checksum);
+        // less than a byte per roll leaves room for the measurement itself
+        assertTrue("allocated " + allocated + " bytes in " + ROLLS + " rolls", allocated < ROLLS);
+    }
+
+    @Test
+    public void restoreTime() throws IOException {
+        RollStateFile state = new RollStateFile(folder.newFile("roll.state"));
+        state.writeExpression("4d6kh3+2", 16, new int[]{6, 5, 3, 1}, 4);
+        int[] restored = new int[DiceExpression.MAX_DICE];
+
+        long checksum = restore(state, restored);
+        long start = System.nanoTime();
+        checksum += restore(state, restored);
+        long meanNanos = (System.nanoTime() - start) / ROLLS;
+
+        assertEquals(2L * ROLLS * (16 + 15), checksum);
+        assertTrue("restoring took " + meanNanos + " ns", meanNanos < MAX_RESTORE_NANOS);
+    }
+
+    // ROLLS dice and expression rolls written and read back as the app restores them
+    private static long cycle(RollStateFile state, DiceExpression expression, int[] dice, int[] restored) {
+        long checksum = 0;
+        for (int i = 0; i < ROLLS; i++) {
+            state.writeDice(1, 1);
+            if (state.getKind() == RollStateFile.KIND_DICE) {
+                checksum += state.getDie1() + state.getDie2();
+            }
+            state.writeExpression(expression.getNotation(), 16, dice, dice.length);
+            checksum += restoreExpression(state, expression, restored);
+        }
+        return checksum;
+    }
+
+    private static long restore(RollStateFile state, int[] restored) {
+        long checksum = 0;
+        for (int i = 0; i < ROLLS; i++) {
+            checksum += restoreExpression(state, null, restored);
+        }
+        return checksum;
+    }
+
+    // total plus the dice, with one more for a notation that matches
+    private static long restoreExpression(RollStateFile state, DiceExpression expression, int[] restored) {
+        if (state.getKind() != RollStateFile.KIND_EXPRESSION) {
+            return 0;
+        }
+        String notation = state.getNotation();
+        long checksum = expression == null || expression.getNotation().equals(notation) ? state.getTotal() : 0;
+        int count = state.readDice(restored);
+        for (int i = 0; i < count; i++) {
+            checksum += restored[i];
+        }
+        return checksum + (expression != null ? 1 : 0);
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyDice() throws IOException {
+        RollStateFile state = new RollStateFile(folder.newFile("roll.state"));
+        state.writeExpression("d6", 1, new int[DiceExpression.MAX_DICE + 1], DiceExpression.MAX_DICE + 1);
+    }
+}
@@ -0,0 +1,153 @@
+package com.honu.dicecast.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Publishing rolls from several threads while others read them: versions only increase, every
+ * snapshot is consistent and no roll is lost.
+ */
+public class RollStateTest {
+
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int ROLLS = 20000;
+
+    @Test
+    public void nothingRolled() {
+        RollState state = new RollState();
+        assertSame(RollSnapshot.NONE, state.get());
+        assertEquals(0, state.getVersion());
+    }
+
+    @Test
+    public void versionsFollowRolls() {
+        RollState state = new RollState();
+        DiceRoller roller = new DiceRoller(2, 6, new SplitMix64(1));
+        for (int i = 1; i <= 10; i++) {
+            RollSnapshot roll = state.roll(roller, null);
+            assertEquals(i, roll.getVersion());
+            assertSame(roll, state.get());
+            assertEquals(roll.getDie1() + roll.getDie2(), roll.getTotal());
+        }
+    }
+
+    @Test
+    public void publishCopiesDice() {
+        RollState state = new RollState();
+        int[] dice = {3, 4, 5};
+        RollSnapshot roll = state.publish(null, 7, dice, 2);
+        dice[0] = 6;
+        assertEquals(2, roll.getDiceCount());
+        assertEquals(3, roll.getDie1());
+        assertEquals(4, roll.getDie2());
+    }
+
+    @Test
+    public void concurrentRollsAndReads() throws Exception {
+        final RollState state = new RollState();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean rolling = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final long[][] versions = new long[WRITERS][ROLLS];
+
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            // pairs and triples, so a snapshot torn between two rolls would not add up
+            final DiceRoller roller = new DiceRoller(2 + w % 2, 6, new SplitMix64(w));
+            writers[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    long last = 0;
+                    for (int i = 0; i < ROLLS; i++) {
+                        RollSnapshot roll = state.roll(roller, null);
+                        if (roll.getVersion() <= last) {
+                            failure.compareAndSet(null, "writer saw version " + roll.getVersion() + " after " + last);
+                        }
+                        check(roll, failure);
+                        last = roll.getVersion();
+                        versions[writer][i] = last;
+                    }
+                }
+            });
+        }
+
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    long last = 0;
+                    while (rolling.get()) {
+                        RollSnapshot roll = state.get();
+                        if (roll.getVersion() < last) {
+                            failure.compareAndSet(null, "reader saw version " + roll.getVersion() + " after " + last);
+                        }
+                        check(roll, failure);
+                        last = roll.getVersion();
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        rolling.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+
+        assertNull(failure.get(), failure.get());
+        assertEquals(WRITERS * ROLLS, state.getVersion());
+
+        // every version handed out exactly once
+        long[] all = new long[WRITERS * ROLLS];
+        for (int w = 0; w < WRITERS; w++) {
+            System.arraycopy(versions[w], 0, all, w * ROLLS, ROLLS);
+        }
+        Arrays.sort(all);
+        for (int i = 0; i < all.length; i++) {
+            assertEquals(i + 1, all[i]);
+        }
+    }
+
+    private static void check(RollSnapshot roll, AtomicReference<String> failure) {
+        if (roll.getVersion() == 0) {
+            return;
+        }
+        int sum = 0;
+        for (int i = 0; i < roll.getDiceCount(); i++) {
+            sum += roll.getDie(i);
+        }
+        if (sum != roll.getTotal() || roll.getDiceCount() < 2 || roll.getDiceCount() > 3) {
+            failure.compareAndSet(null, "inconsistent snapshot " + roll);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
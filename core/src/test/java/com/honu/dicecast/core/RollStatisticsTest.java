@@ -0,0 +1,51 @@
+package com.honu.dicecast.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Statistics saved and restored, as across recreation of the activity.
+ */
+public class RollStatisticsTest {
+
+    @Test
+    public void restoreTakesBackEveryCounter() {
+        RollStatistics statistics = new RollStatistics(2, 6);
+        int[][] rolls = {{1, 1}, {1, 1}, {3, 4}, {6, 1}, {2, 5}};
+        for (int[] roll : rolls) {
+            statistics.record(roll);
+        }
+
+        RollStatistics restored = new RollStatistics(2, 6);
+        assertTrue(restored.restore(statistics.save()));
+        RollStatistics.Snapshot expected = statistics.snapshot(statistics.newSnapshot());
+        RollStatistics.Snapshot actual = restored.snapshot(restored.newSnapshot());
+        assertEquals(expected.getRolls(), actual.getRolls());
+        for (int sum = 2; sum <= 12; sum++) {
+            assertEquals(expected.getSumCount(sum), actual.getSumCount(sum));
+        }
+        for (int face = 1; face <= 6; face++) {
+            assertEquals(expected.getFaceCount(face), actual.getFaceCount(face));
+        }
+        assertEquals(expected.getMean(), actual.getMean(), 0);
+        assertEquals(2, actual.getLongestMatchStreak());
+        assertEquals(3, actual.getLongestSumStreak());
+
+        // streaks carry on from the restored state
+        restored.record(new int[]{5, 2});
+        assertEquals(4, restored.snapshot(restored.newSnapshot()).getLongestSumStreak());
+    }
+
+    @Test
+    public void stateOfOtherDiceIsIgnored() {
+        RollStatistics statistics = new RollStatistics(2, 6);
+        statistics.record(new int[]{2, 3});
+        RollStatistics other = new RollStatistics(3, 6);
+        assertFalse(other.restore(statistics.save()));
+        assertFalse(other.restore(null));
+        assertEquals(0, other.snapshot(other.newSnapshot()).getRolls());
+    }
+}
@@ -3,6 +3,8 @@
  */
 window.onload = function() {
 
+    preloadFaces();
+
     window.castReceiverManager = cast.receiver.CastReceiverManager.getInstance();
 
     // enable debug logging in Cast receiver library
@@ -16,6 +18,7 @@ window.onload = function() {
 
     // handle 'sender disconnected' event
     castReceiverManager.onSenderDisconnected = function(event) {
+        delete announced[event.senderId];
         if (window.castReceiverManager.getSenders().length == 0) {
             window.close();
         }
@@ -25,18 +28,35 @@ window.onload = function() {
     window.messageBus =
         window.castReceiverManager.getCastMessageBus('urn:x-cast:com.honu.dicecast');
 
+    // senders that have been told this receiver accepts the compact format
+    var announced = {};
+
     // handler for the CastMessageBus message event
     window.messageBus.onMessage = function(event) {
 
-        // parse the message
-        var message = JSON.parse(event.data);
+        // statistics follow rolls and are shown without being echoed
+        if (event.data.indexOf(STATS_PREFIX) === 0) {
+            pendingStats = event.data;
+            scheduleRender();
+            return;
+        }
 
-        // update the display
-        updateDisplay(message.text, message.die1, message.die2);
+        // rolls are parsed and broadcast when the next frame is drawn, and only the latest is shown
+        pendingRolls.push(event.senderId, event.data);
+        scheduleRender();
 
         // inform all senders on the CastMessageBus of the incoming message event
         // sender message listener will be invoked
         window.messageBus.send(event.senderId, event.data);
+
+        // accept statistics and opt into the compact format once the sender is known to be
+        // listening, and say who it is before any of its rolls are broadcast
+        if (!announced[event.senderId]) {
+            announced[event.senderId] = true;
+            window.messageBus.send(event.senderId, STATISTICS_ANNOUNCEMENT);
+            window.messageBus.send(event.senderId, FORMAT_ANNOUNCEMENT);
+            window.messageBus.send(event.senderId, JSON.stringify({ player: event.senderId }));
+        }
     }
 
     // initialize the CastReceiverManager with an application status message
@@ -44,20 +64,166 @@ window.onload = function() {
 };
 
 
-// utility function to display the text message in the input field
-function updateDisplay(text, die1, die2) {
-    var imgs = {
-        1: 'die-6sided-1.svg',
-        2: 'die-6sided-2.svg',
-        3: 'die-6sided-3.svg',
-        4: 'die-6sided-4.svg',
-        5: 'die-6sided-5.svg',
-        6: 'die-6sided-6.svg'
+// sent to senders to announce support for the compact message format
+var FORMAT_ANNOUNCEMENT = '{"format":2}';
+
+// sent to senders to announce that statistics are shown, whatever the format of the rolls
+var STATISTICS_ANNOUNCEMENT = '{"accepts":"stats"}';
+
+// start of the roll statistics message
+var STATS_PREFIX = '{"stats":';
+
+// order given to the latest roll of any player
+var nextOrder = 0;
+
+// send a parsed roll to every sender as {"roll":{"order":n,"player":id,...}}, the Cast library
+// queues the messages of each sender separately so a slow one does not hold up the others
+function broadcastRoll(player, message) {
+    var roll = { order: ++nextOrder, player: player };
+    if (message.expr !== undefined) {
+        roll.expr = message.expr;
+        roll.total = message.total;
+        roll.dice = message.dice;
+    } else {
+        roll.die1 = message.die1;
+        roll.die2 = message.die2;
+    }
+    window.messageBus.broadcast(JSON.stringify({ roll: roll }));
+}
+
+
+// parse either a JSON message or a compact message of the form "2:<die1>,<die2>"
+function parseMessage(data) {
+    if (data.charAt(0) === '{') {
+        return JSON.parse(data);
+    }
+
+    var faces = data.substring(data.indexOf(':') + 1).split(',');
+    var die1 = parseInt(faces[0], 10);
+    var die2 = parseInt(faces[1], 10);
+    return {
+        text: 'You rolled (' + die1 + ', ' + die2 + '): ' + (die1 + die2),
+        die1: die1,
+        die2: die2
     };
+};
+
+
+// die faces, decoded at startup so showing one never waits on the SVG decoder
+var FACE_URLS = [
+    null,
+    'die-6sided-1.svg',
+    'die-6sided-2.svg',
+    'die-6sided-3.svg',
+    'die-6sided-4.svg',
+    'die-6sided-5.svg',
+    'die-6sided-6.svg'
+];
+
+// decoded images, kept referenced so the browser keeps them in its image cache
+var faces = [];
+
+function preloadFaces() {
+    for (var face = 1; face < FACE_URLS.length; face++) {
+        var image = new Image();
+        image.src = FACE_URLS[face];
+        if (image.decode) {
+            image.decode().catch(function() {
+                // shown undecoded at worst
+            });
+        }
+        faces[face] = image;
+    }
+}
+
+
+// sender id and message of each roll not yet broadcast, in arrival order, and the latest
+// statistics message not yet drawn
+var pendingRolls = [];
+var pendingStats = null;
+var renderScheduled = false;
+
+// draw once per animation frame however many messages arrived since the last one
+function scheduleRender() {
+    if (!renderScheduled) {
+        renderScheduled = true;
+        window.requestAnimationFrame(render);
+    }
+}
+
+function render() {
+    renderScheduled = false;
+    // taken off the queue first, so a malformed message is dropped instead of failing every frame
+    var rolls = pendingRolls;
+    pendingRolls = [];
+    var data = pendingStats;
+    pendingStats = null;
+
+    // every sender at the table sees every roll, in the order they arrived here
+    var message = null;
+    for (var i = 0; i < rolls.length; i += 2) {
+        try {
+            var parsed = parseMessage(rolls[i + 1]);
+            broadcastRoll(rolls[i], parsed);
+            message = parsed;
+        } catch (e) {
+            console.warn('Dropping malformed roll from ' + rolls[i] + ': ' + rolls[i + 1]);
+        }
+    }
+    if (message !== null) {
+        updateDisplay(message.text, message.die1, message.die2);
+    }
+    if (data !== null) {
+        try {
+            updateStatistics(JSON.parse(data).stats);
+        } catch (e) {
+            console.warn('Dropping malformed statistics: ' + data);
+        }
+    }
+}
+
+
+// what is on screen, so unchanged elements are left alone, starting with receiver.html
+var shownText = null;
+var shownFaces = [3, 4];
+
+// show the roll, die faces are hidden for rolls of other dice expressions
+function updateDisplay(text, die1, die2) {
+    if (text !== shownText) {
+        shownText = text;
+        document.getElementById("message").textContent = text;
+        window.castReceiverManager.setApplicationState(text);
+    }
+    showFace("die1", 0, die1);
+    showFace("die2", 1, die2);
+};
+
+function showFace(id, index, face) {
+    var shown = shownFaces[index];
+    face = FACE_URLS[face] ? face : 0;
+    if (face === shown) {
+        return;
+    }
+    shownFaces[index] = face;
+
+    var element = document.getElementById(id);
+    if (face === 0) {
+        element.style.visibility = 'hidden';
+        return;
+    }
+    if (shown === 0) {
+        element.style.visibility = 'visible';
+    }
+    element.src = FACE_URLS[face];
+}
 
-    document.getElementById("message").innerHTML = text;
-    document.getElementById("die1").src = imgs[die1];
-    document.getElementById("die2").src = imgs[die2];
 
-    window.castReceiverManager.setApplicationState(text);
+// show the running statistics sent by the sender after each roll
+function updateStatistics(stats) {
+    var text = stats.rolls + ' rolls \u00b7 mean ' + stats.mean.toFixed(2)
+        + ' \u00b7 variance ' + stats.variance.toFixed(2)
+        + ' \u00b7 longest streak ' + stats.sumStreak
+        + ' \u00b7 doubles streak ' + stats.matchStreak
+        + ' \u00b7 \u03c7\u00b2 ' + stats.chiSquare.toFixed(2);
+    document.getElementById("stats").textContent = text;
 };